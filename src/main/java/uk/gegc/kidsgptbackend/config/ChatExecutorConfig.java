@@ -0,0 +1,73 @@
+package uk.gegc.kidsgptbackend.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class ChatExecutorConfig {
+
+    /**
+     * Bounded pool for the independent steps of a chat turn. When saturated the caller
+     * runs the step itself, so overload degrades to sequential execution instead of failing.
+     * <p>
+     * With {@code spring.threads.virtual.enabled} every step gets its own virtual thread
+     * instead: the steps spend their time blocked on the database or an upstream, whose
+     * concurrency is already bounded by the connection pool and the upstream guards.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService chatPipelineExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${chat.pipeline.pool-size:32}") int poolSize,
+            @Value("${chat.pipeline.queue-capacity:256}") int queueCapacity
+    ) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-pipeline-", 0).factory());
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("chat-pipeline-"),
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs every blocking step of asynchronous chats (moderation, the user and history
+     * reads, persistence), so those never hold a Tomcat worker. The LLM call itself
+     * occupies no thread while it waits. A full queue rejects the step and the chat is
+     * answered with 503; unlike {@link #chatPipelineExecutor} there is no caller-runs
+     * fallback, which would put the step back on the request thread under saturation.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService chatAsyncExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${chat.async.pool-size:64}") int poolSize,
+            @Value("${chat.async.queue-capacity:10000}") int queueCapacity
+    ) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-async-", 0).factory());
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("chat-async-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -1,15 +1,18 @@
 package uk.gegc.kidsgptbackend.config;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard;
+import uk.gegc.kidsgptbackend.service.resilience.impl.GuardedChatModel;
 
 @Configuration
 public class OpenAiChatClientConfig {
 
     @Bean
-    public ChatClient chatClient(ChatModel chatModel) {
-        return ChatClient.create(chatModel);
+    public ChatClient chatClient(ChatModel chatModel, @Qualifier("llmGuard") UpstreamGuard llmGuard) {
+        return ChatClient.create(new GuardedChatModel(chatModel, llmGuard));
     }
 }
@@ -1,6 +1,8 @@
 package uk.gegc.kidsgptbackend.config;
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -16,9 +18,12 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import uk.gegc.kidsgptbackend.repository.auth.RevokedTokenRepository;
+import uk.gegc.kidsgptbackend.security.BoundedPasswordEncoder;
 import uk.gegc.kidsgptbackend.security.JwtAuthenticationFilter;
 import uk.gegc.kidsgptbackend.security.JwtTokenProvider;
 
+import java.time.Duration;
+
 
 @Configuration
 @RequiredArgsConstructor
@@ -38,6 +43,8 @@ public class SecurityConfig {
                                 response.sendError(HttpServletResponse.SC_UNAUTHORIZED))
                 )
                 .authorizeHttpRequests(auth -> auth
+                        // streamed responses complete on an ASYNC dispatch; the original request was already authorised
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers(
                                 "/api/v1/auth/register",
                                 "/echo",
@@ -47,7 +54,9 @@ public class SecurityConfig {
                                 "/api/v1/auth/reset-password",
                                 "/api/v1/auth/2fa/setup",
                                 "/api/v1/auth/2fa/verify",
-                                "/api/v1/system/status"
+                                "/api/v1/system/status",
+                                // authenticated by JwtHandshakeInterceptor, which also takes the token as a query parameter
+                                "/ws/chat"
                         ).permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/v1/auth/me").authenticated()
                         .requestMatchers(HttpMethod.GET, "/api/v1/quizzes/**").permitAll()
@@ -68,9 +77,25 @@ public class SecurityConfig {
         return httpSecurity.build();
     }
 
+    /**
+     * On platform threads Tomcat's worker pool already bounds concurrent hashing; only with
+     * virtual threads is a limit needed, and then at least one hash per core so logins can
+     * still use the whole CPU.
+     */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${security.password.max-concurrent-hashes:0}") int maxConcurrentHashes,
+            @Value("${security.password.hash-wait:PT2S}") Duration hashWait
+    ) {
+        PasswordEncoder bcrypt = new BCryptPasswordEncoder();
+        if (!virtualThreads) {
+            return bcrypt;
+        }
+        int limit = maxConcurrentHashes > 0
+                ? maxConcurrentHashes
+                : Runtime.getRuntime().availableProcessors();
+        return new BoundedPasswordEncoder(bcrypt, limit, hashWait);
     }
 
     @Bean
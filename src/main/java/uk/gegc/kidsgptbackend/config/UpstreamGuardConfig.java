@@ -0,0 +1,44 @@
+package uk.gegc.kidsgptbackend.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuardSettings;
+import uk.gegc.kidsgptbackend.service.resilience.impl.AdaptiveUpstreamGuard;
+
+import java.time.Duration;
+
+/**
+ * One guard per upstream, so a slow LLM cannot use up the capacity moderation needs (and
+ * vice versa). Settings live under {@code upstream.<name>.*}.
+ */
+@Configuration
+public class UpstreamGuardConfig {
+
+    @Bean
+    public UpstreamGuard llmGuard(Environment env, MeterRegistry meterRegistry) {
+        return new AdaptiveUpstreamGuard("llm", settings(env, "upstream.llm"), meterRegistry);
+    }
+
+    @Bean
+    public UpstreamGuard moderationGuard(Environment env, MeterRegistry meterRegistry) {
+        return new AdaptiveUpstreamGuard("moderation", settings(env, "upstream.moderation"), meterRegistry);
+    }
+
+    static UpstreamGuardSettings settings(Environment env, String prefix) {
+        return new UpstreamGuardSettings(
+                env.getProperty(prefix + ".enabled", Boolean.class, true),
+                env.getProperty(prefix + ".initial-limit", Integer.class, 20),
+                env.getProperty(prefix + ".min-limit", Integer.class, 2),
+                env.getProperty(prefix + ".max-concurrency", Integer.class, 64),
+                env.getProperty(prefix + ".latency-tolerance", Double.class, 2.0),
+                env.getProperty(prefix + ".sliding-window", Integer.class, 20),
+                env.getProperty(prefix + ".minimum-calls", Integer.class, 10),
+                env.getProperty(prefix + ".failure-rate-threshold", Double.class, 0.5),
+                env.getProperty(prefix + ".open-duration", Duration.class, Duration.ofSeconds(30)),
+                env.getProperty(prefix + ".half-open-calls", Integer.class, 3)
+        );
+    }
+}
@@ -0,0 +1,36 @@
+package uk.gegc.kidsgptbackend.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import uk.gegc.kidsgptbackend.controller.ChatWebSocketHandler;
+import uk.gegc.kidsgptbackend.security.JwtHandshakeInterceptor;
+
+@Configuration
+@EnableWebSocket
+@RequiredArgsConstructor
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final ChatWebSocketHandler chatWebSocketHandler;
+    private final JwtHandshakeInterceptor jwtHandshakeInterceptor;
+
+    @Value("${chat.ws.allowed-origins:*}")
+    private String[] allowedOrigins;
+
+    @Value("${chat.stream.enabled:true}")
+    private boolean streamEnabled;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // the socket streams the same replies as /chat/stream, so the same switch governs it
+        if (!streamEnabled) {
+            return;
+        }
+        registry.addHandler(chatWebSocketHandler, "/ws/chat")
+                .addInterceptors(jwtHandshakeInterceptor)
+                .setAllowedOriginPatterns(allowedOrigins);
+    }
+}
@@ -2,16 +2,26 @@ package uk.gegc.kidsgptbackend.controller;
 
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageRequest;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageResponse;
+import uk.gegc.kidsgptbackend.dto.chat.ChatStreamEvent;
+import uk.gegc.kidsgptbackend.exception.RateLimitException;
 import uk.gegc.kidsgptbackend.service.chat.AiChatService;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimitDecision;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimiter;
+import uk.gegc.kidsgptbackend.service.usage.UsageLedger;
 
 import java.security.Principal;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/v1")
@@ -19,6 +29,11 @@ import java.security.Principal;
 public class ChatController {
 
     private final AiChatService chatService;
+    private final RateLimiter rateLimiter;
+    private final UsageLedger usageLedger;
+
+    @Value("${chat.stream.enabled:true}")
+    private boolean streamEnabled;
 
     @PostMapping("/chat")
     public ResponseEntity<ChatMessageResponse> chat(
@@ -29,8 +44,61 @@ public class ChatController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
 
+        RateLimitDecision limit = acquire(principal);
         Principal p = principal::getUsername;
         ChatMessageResponse response = chatService.chat(request, p);
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok().headers(limit.headers()).body(response);
+    }
+
+    /**
+     * Same contract as {@code /chat}, but the request is handled asynchronously: the
+     * Tomcat worker is released as soon as the turn has been started.
+     */
+    @PostMapping("/chat/async")
+    public CompletableFuture<ResponseEntity<ChatMessageResponse>> chatAsync(
+            @Valid @RequestBody ChatMessageRequest request,
+            @AuthenticationPrincipal User principal
+    ) {
+        if (principal == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.UNAUTHORIZED).build());
+        }
+
+        RateLimitDecision limit = acquire(principal);
+        Principal p = principal::getUsername;
+        return chatService.chatAsync(request, p)
+                .thenApply(response -> ResponseEntity.ok().headers(limit.headers()).body(response));
+    }
+
+    /**
+     * Streams the reply as it is generated. Tokens are released only in segments that output
+     * moderation has approved; {@code chat.stream.enabled=false} answers 404 instead.
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<ChatStreamEvent>>> chatStream(
+            @Valid @RequestBody ChatMessageRequest request,
+            @AuthenticationPrincipal User principal
+    ) {
+        if (!streamEnabled) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        RateLimitDecision limit = acquire(principal);
+        Principal p = principal::getUsername;
+        Flux<ServerSentEvent<ChatStreamEvent>> events = chatService.chatStream(request, p)
+                .map(event -> ServerSentEvent.builder(event).event(event.type()).build());
+        return ResponseEntity.ok().headers(limit.headers()).body(events);
+    }
+
+    private RateLimitDecision acquire(User principal) {
+        // checking the budget costs nothing, so a user who has used it up keeps their rate-limit tokens
+        usageLedger.ensureWithinBudget(principal.getUsername(), principal.getAuthorities());
+        RateLimitDecision decision = rateLimiter.tryAcquire(principal.getUsername(), principal.getAuthorities());
+        if (!decision.allowed()) {
+            throw new RateLimitException("Too many messages, please wait a moment", decision);
+        }
+        return decision;
     }
 }
@@ -0,0 +1,344 @@
+package uk.gegc.kidsgptbackend.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import uk.gegc.kidsgptbackend.dto.chat.ChatSocketFrame;
+import uk.gegc.kidsgptbackend.dto.chat.ChatSocketRequest;
+import uk.gegc.kidsgptbackend.exception.ModerationServiceException;
+import uk.gegc.kidsgptbackend.exception.RateLimitException;
+import uk.gegc.kidsgptbackend.exception.TokenBudgetExceededException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+import uk.gegc.kidsgptbackend.security.JwtHandshakeInterceptor;
+import uk.gegc.kidsgptbackend.service.chat.AiChatService;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimitDecision;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimiter;
+import uk.gegc.kidsgptbackend.service.usage.UsageLedger;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The chat WebSocket ({@code /ws/chat}): the same turns as {@code POST /api/v1/chat/stream},
+ * on a connection authenticated once by {@link JwtHandshakeInterceptor}. Each
+ * {@link ChatSocketRequest} starts a turn under the client's {@code requestId}, and every
+ * frame of its reply carries that id, so several conversations can stream at once.
+ * <p>
+ * Backpressure is per connection: frames are written one at a time with the container's
+ * asynchronous send, and a turn asks its reply stream for the next event only once its
+ * previous frame has been written. A client that reads slowly therefore slows its own
+ * replies (down to the LLM connection) without holding a thread while it does. A write
+ * that takes longer than {@code chat.ws.send-time-limit}, or more than
+ * {@code chat.ws.send-buffer-limit} characters waiting to be written, closes the connection.
+ * At most {@code chat.ws.max-in-flight} turns run at once per connection; each is rate
+ * limited and charged like an HTTP chat.
+ */
+@Component
+public class ChatWebSocketHandler extends TextWebSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatWebSocketHandler.class);
+    private static final String CONNECTION_ATTRIBUTE = "chatConnection";
+
+    private final AiChatService chatService;
+    private final RateLimiter rateLimiter;
+    private final UsageLedger usageLedger;
+    private final ObjectMapper objectMapper;
+    private final int maxInFlight;
+    private final int maxMessageBytes;
+    private final Duration sendTimeLimit;
+    private final int sendBufferLimit;
+
+    public ChatWebSocketHandler(
+            AiChatService chatService,
+            RateLimiter rateLimiter,
+            UsageLedger usageLedger,
+            ObjectMapper objectMapper,
+            @Value("${chat.ws.max-in-flight:4}") int maxInFlight,
+            @Value("${chat.ws.max-message-bytes:16384}") int maxMessageBytes,
+            @Value("${chat.ws.send-time-limit:PT10S}") Duration sendTimeLimit,
+            @Value("${chat.ws.send-buffer-limit:262144}") int sendBufferLimit
+    ) {
+        this.chatService = chatService;
+        this.rateLimiter = rateLimiter;
+        this.usageLedger = usageLedger;
+        this.objectMapper = objectMapper;
+        this.maxInFlight = maxInFlight;
+        this.maxMessageBytes = maxMessageBytes;
+        this.sendTimeLimit = sendTimeLimit;
+        this.sendBufferLimit = sendBufferLimit;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        session.setTextMessageSizeLimit(maxMessageBytes);
+        session.getAttributes().put(CONNECTION_ATTRIBUTE, new Connection(session));
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        Connection connection = (Connection) session.getAttributes().get(CONNECTION_ATTRIBUTE);
+        ChatSocketRequest frame;
+        try {
+            frame = objectMapper.readValue(message.getPayload(), ChatSocketRequest.class);
+        } catch (JsonProcessingException e) {
+            connection.send(ChatSocketFrame.error(null, 400, "Malformed JSON", null));
+            return;
+        }
+        if (frame.requestId() == null || frame.requestId().isBlank()) {
+            connection.send(ChatSocketFrame.error(null, 400, "requestId is required", null));
+            return;
+        }
+        if (ChatSocketRequest.CANCEL.equals(frame.type())) {
+            connection.cancel(frame.requestId());
+            return;
+        }
+        if (connection.expired()) {
+            // the token was checked once, at the handshake; its expiry still ends the session
+            connection.send(ChatSocketFrame.error(frame.requestId(), 401, "Session expired, please reconnect", null));
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Token expired"));
+            return;
+        }
+        if (frame.message() == null || frame.message().isBlank() || frame.tone() == null) {
+            connection.send(ChatSocketFrame.error(frame.requestId(), 400, "message and tone are required", null));
+            return;
+        }
+        connection.start(frame);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = (Connection) session.getAttributes().get(CONNECTION_ATTRIBUTE);
+        if (connection != null) {
+            connection.cancelAll();
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        logger.debug("Chat WebSocket {} failed: {}", session.getId(), exception.toString());
+    }
+
+    private void acquire(User user) {
+        // as in ChatController: the free budget check first, so refusals do not spend rate-limit tokens
+        usageLedger.ensureWithinBudget(user.getUsername(), user.getAuthorities());
+        RateLimitDecision decision = rateLimiter.tryAcquire(user.getUsername(), user.getAuthorities());
+        if (!decision.allowed()) {
+            throw new RateLimitException("Too many messages, please wait a moment", decision);
+        }
+    }
+
+    /**
+     * The error the HTTP endpoint's exception handler would have answered with.
+     */
+    private static ChatSocketFrame errorFrame(String requestId, Throwable e) {
+        if (e instanceof RateLimitException ex) {
+            return ChatSocketFrame.error(requestId, 429, ex.getMessage(),
+                    ex.getDecision() != null ? ex.getDecision().retryAfterSeconds() : null);
+        }
+        if (e instanceof TokenBudgetExceededException ex) {
+            return ChatSocketFrame.error(requestId, 429, ex.getMessage(), ex.getRetryAfterSeconds());
+        }
+        if (e instanceof UpstreamUnavailableException ex) {
+            return ChatSocketFrame.error(requestId, 503, ex.getMessage(), ex.getRetryAfterSeconds());
+        }
+        if (e instanceof ModerationServiceException ex) {
+            return ChatSocketFrame.error(requestId, 503, ex.getMessage(), null);
+        }
+        if (e instanceof IllegalArgumentException ex) {
+            return ChatSocketFrame.error(requestId, 400, ex.getMessage(), null);
+        }
+        logger.error("Chat turn {} failed", requestId, e);
+        return ChatSocketFrame.error(requestId, 500, "An unexpected error occurred", null);
+    }
+
+    private final class Connection {
+        private final WebSocketSession session;
+        private final RemoteEndpoint.Async remote;
+        private final User user;
+        private final Instant expiresAt;
+        private final ReentrantLock sendLock = new ReentrantLock();
+        private final ArrayDeque<Outgoing> queue = new ArrayDeque<>();
+        private final ConcurrentHashMap<String, Disposable> turns = new ConcurrentHashMap<>();
+        private long queuedChars;
+        private boolean writing;
+        private boolean closed;
+
+        Connection(WebSocketSession session) {
+            this.session = session;
+            Session nativeSession = session instanceof NativeWebSocketSession nativeWebSocket
+                    ? nativeWebSocket.getNativeSession(Session.class)
+                    : null;
+            if (nativeSession == null) {
+                throw new IllegalStateException("Chat WebSocket needs a jakarta.websocket session");
+            }
+            this.remote = nativeSession.getAsyncRemote();
+            this.remote.setSendTimeout(sendTimeLimit.toMillis());
+            this.user = JwtHandshakeInterceptor.user(session.getAttributes());
+            this.expiresAt = JwtHandshakeInterceptor.expiresAt(session.getAttributes());
+        }
+
+        boolean expired() {
+            return expiresAt != null && Instant.now().isAfter(expiresAt);
+        }
+
+        void start(ChatSocketRequest frame) {
+            String requestId = frame.requestId();
+            // frames of one session are handled one at a time, so size() cannot race here
+            if (turns.size() >= maxInFlight) {
+                send(ChatSocketFrame.error(requestId, 429, "Too many replies in progress on this connection", 1L));
+                return;
+            }
+            Disposable.Swap turn = Disposables.swap();
+            if (turns.putIfAbsent(requestId, turn) != null) {
+                send(ChatSocketFrame.error(requestId, 409, "requestId is already in progress", null));
+                return;
+            }
+            Principal principal = user::getUsername;
+            // preparing a turn blocks (moderation, database), so it must not run on the
+            // container thread that reads this connection's frames
+            Flux<ChatSocketFrame> frames = Mono.fromCallable(() -> {
+                        acquire(user);
+                        return chatService.chatStream(frame.toChatRequest(), principal);
+                    })
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMapMany(events -> events)
+                    .map(event -> ChatSocketFrame.of(requestId, event))
+                    .onErrorResume(e -> Mono.just(errorFrame(requestId, e)));
+            turn.update(frames
+                    .concatMap(next -> Mono.fromFuture(() -> send(next)), 1)
+                    .doFinally(signal -> turns.remove(requestId, turn))
+                    .subscribe(null, e -> logger.debug("Chat turn {} ended: {}", requestId, e.toString())));
+        }
+
+        void cancel(String requestId) {
+            Disposable turn = turns.remove(requestId);
+            if (turn != null) {
+                turn.dispose();
+            }
+        }
+
+        void cancelAll() {
+            turns.values().forEach(Disposable::dispose);
+            turns.clear();
+        }
+
+        /**
+         * Queues one frame for writing and returns at once; the session allows only one
+         * write at a time, so the next is started when the previous one completes.
+         *
+         * @return completes once the frame has been written
+         */
+        CompletableFuture<Void> send(ChatSocketFrame frame) {
+            String json;
+            try {
+                json = objectMapper.writeValueAsString(frame);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+            Outgoing outgoing = new Outgoing(json, new CompletableFuture<>());
+            boolean overflow;
+            boolean start = false;
+            sendLock.lock();
+            try {
+                if (closed) {
+                    outgoing.sent().completeExceptionally(new IllegalStateException("Connection closed"));
+                    return outgoing.sent();
+                }
+                queue.add(outgoing);
+                queuedChars += json.length();
+                overflow = queuedChars > sendBufferLimit;
+                if (!overflow && !writing) {
+                    writing = true;
+                    start = true;
+                }
+            } finally {
+                sendLock.unlock();
+            }
+            if (overflow) {
+                close(CloseStatus.SESSION_NOT_RELIABLE.withReason("Send buffer limit exceeded"));
+            } else if (start) {
+                writeNext();
+            }
+            return outgoing.sent();
+        }
+
+        private void writeNext() {
+            Outgoing next;
+            sendLock.lock();
+            try {
+                next = closed ? null : queue.poll();
+                if (next == null) {
+                    writing = false;
+                    return;
+                }
+                queuedChars -= next.json().length();
+            } finally {
+                sendLock.unlock();
+            }
+            remote.sendText(next.json(), result -> {
+                if (result.isOK()) {
+                    next.sent().complete(null);
+                    writeNext();
+                } else {
+                    next.sent().completeExceptionally(result.getException());
+                    logger.debug("Chat WebSocket {} write failed: {}", session.getId(), String.valueOf(result.getException()));
+                    close(CloseStatus.SESSION_NOT_RELIABLE.withReason("Send time limit exceeded"));
+                }
+            });
+        }
+
+        /**
+         * Drops whatever is still queued and closes the session; the container then calls
+         * {@link #afterConnectionClosed}, which cancels the running turns.
+         */
+        private void close(CloseStatus status) {
+            List<Outgoing> dropped;
+            sendLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                dropped = List.copyOf(queue);
+                queue.clear();
+                queuedChars = 0;
+            } finally {
+                sendLock.unlock();
+            }
+            IllegalStateException ex = new IllegalStateException("Connection closed: " + status.getReason());
+            dropped.forEach(outgoing -> outgoing.sent().completeExceptionally(ex));
+            cancelAll();
+            try {
+                session.close(status);
+            } catch (IOException e) {
+                logger.debug("Could not close chat WebSocket {}: {}", session.getId(), e.toString());
+            }
+        }
+    }
+
+    private record Outgoing(String json, CompletableFuture<Void> sent) {
+    }
+}
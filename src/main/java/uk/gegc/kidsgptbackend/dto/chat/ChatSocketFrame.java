@@ -0,0 +1,27 @@
+package uk.gegc.kidsgptbackend.dto.chat;
+
+/**
+ * A server frame on the chat WebSocket: one {@link ChatStreamEvent} of the turn
+ * {@code requestId}, or an {@code error} ending it with the status the HTTP endpoint would
+ * have answered.
+ */
+public record ChatSocketFrame(
+        String requestId,
+        String type,
+        String delta,
+        ChatMessageResponse response,
+        Error error
+) {
+    public static final String ERROR = "error";
+
+    public record Error(int status, String message, Long retryAfterSeconds) {
+    }
+
+    public static ChatSocketFrame of(String requestId, ChatStreamEvent event) {
+        return new ChatSocketFrame(requestId, event.type(), event.delta(), event.response(), null);
+    }
+
+    public static ChatSocketFrame error(String requestId, int status, String message, Long retryAfterSeconds) {
+        return new ChatSocketFrame(requestId, ERROR, null, null, new Error(status, message, retryAfterSeconds));
+    }
+}
@@ -0,0 +1,24 @@
+package uk.gegc.kidsgptbackend.dto.chat;
+
+import java.util.UUID;
+
+/**
+ * A client frame on the chat WebSocket. {@code chat} starts a turn in the conversation
+ * {@code contextId} (a new one when absent); {@code cancel} stops the turn started with
+ * the same {@code requestId}. The client picks request ids; replies carry them back, so
+ * several conversations can be in flight on one connection.
+ */
+public record ChatSocketRequest(
+        String type,
+        String requestId,
+        String message,
+        UUID contextId,
+        Tone tone
+) {
+    public static final String CHAT = "chat";
+    public static final String CANCEL = "cancel";
+
+    public ChatMessageRequest toChatRequest() {
+        return new ChatMessageRequest(message, contextId, tone);
+    }
+}
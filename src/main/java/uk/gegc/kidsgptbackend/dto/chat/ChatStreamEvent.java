@@ -0,0 +1,23 @@
+package uk.gegc.kidsgptbackend.dto.chat;
+
+public record ChatStreamEvent(
+        String type,
+        String delta,
+        ChatMessageResponse response
+) {
+    public static final String TOKEN = "token";
+    public static final String DONE = "done";
+    public static final String RETRACT = "retract";
+
+    public static ChatStreamEvent token(String delta) {
+        return new ChatStreamEvent(TOKEN, delta, null);
+    }
+
+    public static ChatStreamEvent retract() {
+        return new ChatStreamEvent(RETRACT, null, null);
+    }
+
+    public static ChatStreamEvent done(ChatMessageResponse response) {
+        return new ChatStreamEvent(DONE, null, response);
+    }
+}
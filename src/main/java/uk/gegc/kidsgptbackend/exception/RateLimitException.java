@@ -1,7 +1,25 @@
 package uk.gegc.kidsgptbackend.exception;
 
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimitDecision;
+
 public class RateLimitException extends RuntimeException {
+
+    private final RateLimitDecision decision;
+
     public RateLimitException(String message, Throwable cause) {
         super(message, cause);
+        this.decision = null;
+    }
+
+    public RateLimitException(String message, RateLimitDecision decision) {
+        super(message);
+        this.decision = decision;
+    }
+
+    /**
+     * @return the local limiter's decision, or {@code null} when the limit was hit upstream
+     */
+    public RateLimitDecision getDecision() {
+        return decision;
     }
 }
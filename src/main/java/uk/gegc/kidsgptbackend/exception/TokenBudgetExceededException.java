@@ -0,0 +1,18 @@
+package uk.gegc.kidsgptbackend.exception;
+
+public class TokenBudgetExceededException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public TokenBudgetExceededException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return seconds until the budget resets
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
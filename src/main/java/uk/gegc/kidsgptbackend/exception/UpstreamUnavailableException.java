@@ -0,0 +1,25 @@
+package uk.gegc.kidsgptbackend.exception;
+
+/**
+ * An upstream call was refused locally, without being attempted, because the upstream
+ * is failing (circuit open) or already has as many calls in flight as it can take.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    private final String upstream;
+    private final long retryAfterSeconds;
+
+    public UpstreamUnavailableException(String upstream, String message, long retryAfterSeconds) {
+        super(message);
+        this.upstream = upstream;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getUpstream() {
+        return upstream;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
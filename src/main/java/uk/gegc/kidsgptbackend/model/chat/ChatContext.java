@@ -25,4 +25,18 @@ public class ChatContext {
 
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt = LocalDateTime.now();
+
+    /**
+     * Rolling summary of every message up to and including
+     * ({@link #summarizedUntil}, {@link #summarizedUntilMessageId}); later messages are
+     * sent verbatim.
+     */
+    @Column(name = "summary", columnDefinition = "TEXT")
+    private String summary;
+
+    @Column(name = "summarized_until")
+    private LocalDateTime summarizedUntil;
+
+    @Column(name = "summarized_until_message_id")
+    private UUID summarizedUntilMessageId;
 }
@@ -0,0 +1,11 @@
+package uk.gegc.kidsgptbackend.model.chat;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Read-only projection of a {@link ChatMessage} used to build conversation history
+ * without loading the owning {@link ChatContext}.
+ */
+public record ChatHistoryEntry(UUID id, String role, String content, LocalDateTime createdAt) {
+}
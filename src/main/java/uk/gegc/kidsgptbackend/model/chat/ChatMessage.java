@@ -9,7 +9,9 @@ import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Entity
-@Table(name = "chat_messages")
+@Table(name = "chat_messages", indexes = {
+        @Index(name = "idx_chat_messages_context_created", columnList = "context_id, created_at, message_id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
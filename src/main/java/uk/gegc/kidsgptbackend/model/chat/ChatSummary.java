@@ -0,0 +1,25 @@
+package uk.gegc.kidsgptbackend.model.chat;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Summary state of a {@link ChatContext}; {@code text} is {@code null} until the first
+ * summary has been written.
+ */
+public record ChatSummary(String text, LocalDateTime until, UUID untilMessageId) {
+
+    private static final LocalDateTime BEGINNING = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final UUID MIN_ID = new UUID(0L, 0L);
+
+    /**
+     * Keyset lower bound of the messages not covered by the summary.
+     */
+    public LocalDateTime afterTime() {
+        return until != null ? until : BEGINNING;
+    }
+
+    public UUID afterId() {
+        return untilMessageId != null ? untilMessageId : MIN_ID;
+    }
+}
@@ -0,0 +1,52 @@
+package uk.gegc.kidsgptbackend.model.usage;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Tokens spent per user per (UTC) day. Rows are only ever incremented, in batches, by
+ * {@link uk.gegc.kidsgptbackend.repository.usage.TokenUsageRepository#addUsage}.
+ */
+@Entity
+@Table(name = "token_usage")
+@IdClass(TokenUsage.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+public class TokenUsage {
+
+    @Id
+    @Column(name = "username", nullable = false, length = 100)
+    private String username;
+
+    @Id
+    @Column(name = "usage_date", nullable = false)
+    private LocalDate usageDate;
+
+    @Column(name = "tokens", nullable = false)
+    private long tokens;
+
+    @Column(name = "requests", nullable = false)
+    private long requests;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private String username;
+        private LocalDate usageDate;
+    }
+}
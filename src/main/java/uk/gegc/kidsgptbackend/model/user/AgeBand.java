@@ -0,0 +1,25 @@
+package uk.gegc.kidsgptbackend.model.user;
+
+/**
+ * Coarse age groups used to tailor replies. A user without a recorded age is treated as
+ * the youngest band, which has the most conservative prompt.
+ */
+public enum AgeBand {
+    EARLY,    // up to 6
+    MIDDLE,   // 7-9
+    PRETEEN,  // 10-12
+    TEEN;     // 13 and over
+
+    public static AgeBand of(Integer age) {
+        if (age == null || age <= 6) {
+            return EARLY;
+        }
+        if (age <= 9) {
+            return MIDDLE;
+        }
+        if (age <= 12) {
+            return PRETEEN;
+        }
+        return TEEN;
+    }
+}
@@ -9,8 +9,10 @@ import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.domain.Persistable;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+import uk.gegc.kidsgptbackend.security.UserAuthChangeListener;
 
 import java.time.LocalDateTime;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 
@@ -19,7 +21,7 @@ import java.util.UUID;
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners({AuditingEntityListener.class, UserAuthChangeListener.class})
 @Table(name = "users")
 public class User implements Persistable<UUID> {
 
@@ -69,9 +71,38 @@ public class User implements Persistable<UUID> {
     )
     private Set<Role> roles;
 
+    /**
+     * Bumped whenever the roles or the active flag change; role-carrying access tokens
+     * record it so that tokens issued before the change can be told apart.
+     */
+    @Column(name = "auth_version", nullable = false)
+    private long authVersion;
+
+    @Transient
+    private boolean authChanged;
+
     @Transient
     private boolean isNew = true;
 
+    public void setActive(boolean active) {
+        if (this.isActive != active) {
+            markAuthChanged();
+        }
+        this.isActive = active;
+    }
+
+    public void setRoles(Set<Role> roles) {
+        if (!Objects.equals(this.roles, roles)) {
+            markAuthChanged();
+        }
+        this.roles = roles;
+    }
+
+    private void markAuthChanged() {
+        this.authVersion++;
+        this.authChanged = true;
+    }
+
     @Override
     @Transient
     public boolean isNew() {
@@ -1,11 +1,37 @@
 package uk.gegc.kidsgptbackend.repository.chat;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uk.gegc.kidsgptbackend.model.chat.ChatContext;
+import uk.gegc.kidsgptbackend.model.chat.ChatSummary;
 
+import java.time.LocalDateTime;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface ChatContextRepository extends JpaRepository<ChatContext, UUID> {
+
+    Optional<ChatContext> findByIdAndUsername(UUID id, String username);
+
+    @Query("""
+            select new uk.gegc.kidsgptbackend.model.chat.ChatSummary(c.summary, c.summarizedUntil, c.summarizedUntilMessageId)
+            from ChatContext c
+            where c.id = :contextId and c.username = :username
+            """)
+    Optional<ChatSummary> findSummary(@Param("contextId") UUID contextId, @Param("username") String username);
+
+    @Modifying
+    @Query("""
+            update ChatContext c
+            set c.summary = :summary, c.summarizedUntil = :until, c.summarizedUntilMessageId = :untilId
+            where c.id = :contextId
+            """)
+    int updateSummary(@Param("contextId") UUID contextId,
+                      @Param("summary") String summary,
+                      @Param("until") LocalDateTime until,
+                      @Param("untilId") UUID untilId);
 }
@@ -1,11 +1,55 @@
 package uk.gegc.kidsgptbackend.repository.chat;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry;
 import uk.gegc.kidsgptbackend.model.chat.ChatMessage;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
+/**
+ * History reads are keyset ranges over ({@code created_at}, {@code message_id}), served by
+ * {@code idx_chat_messages_context_created}. Callers check context ownership first
+ * ({@link ChatContextRepository#findByIdAndUsername}).
+ */
 @Repository
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, UUID> {
+
+    /**
+     * Newest-first page of a context's messages strictly between the two keyset bounds.
+     */
+    @Query("""
+            select new uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry(m.id, m.role, m.content, m.createdAt)
+            from ChatMessage m
+            where m.context.id = :contextId
+              and (m.createdAt > :afterTime or (m.createdAt = :afterTime and m.id > :afterId))
+              and (m.createdAt < :beforeTime or (m.createdAt = :beforeTime and m.id < :beforeId))
+            order by m.createdAt desc, m.id desc
+            """)
+    List<ChatHistoryEntry> findHistoryBetween(@Param("contextId") UUID contextId,
+                                              @Param("afterTime") LocalDateTime afterTime,
+                                              @Param("afterId") UUID afterId,
+                                              @Param("beforeTime") LocalDateTime beforeTime,
+                                              @Param("beforeId") UUID beforeId,
+                                              Limit limit);
+
+    /**
+     * Oldest-first page of a context's messages strictly after the keyset bound.
+     */
+    @Query("""
+            select new uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry(m.id, m.role, m.content, m.createdAt)
+            from ChatMessage m
+            where m.context.id = :contextId
+              and (m.createdAt > :afterTime or (m.createdAt = :afterTime and m.id > :afterId))
+            order by m.createdAt asc, m.id asc
+            """)
+    List<ChatHistoryEntry> findHistoryAfter(@Param("contextId") UUID contextId,
+                                            @Param("afterTime") LocalDateTime afterTime,
+                                            @Param("afterId") UUID afterId,
+                                            Limit limit);
 }
@@ -0,0 +1,15 @@
+package uk.gegc.kidsgptbackend.repository.usage;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface TokenUsageBatchRepository {
+
+    record UsageDelta(String username, LocalDate usageDate, long tokens, long requests) {
+    }
+
+    /**
+     * Adds each delta to its row, creating missing rows, as one JDBC batch.
+     */
+    void addUsage(List<UsageDelta> deltas);
+}
@@ -0,0 +1,43 @@
+package uk.gegc.kidsgptbackend.repository.usage;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Plain JDBC rather than JPA: an upsert that adds to the stored value cannot be expressed
+ * as an entity merge without reading every row first.
+ */
+@RequiredArgsConstructor
+class TokenUsageBatchRepositoryImpl implements TokenUsageBatchRepository {
+
+    private static final String UPSERT = """
+            insert into token_usage (username, usage_date, tokens, requests, updated_at)
+            values (?, ?, ?, ?, ?)
+            on duplicate key update
+                tokens = tokens + values(tokens),
+                requests = requests + values(requests),
+                updated_at = values(updated_at)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void addUsage(List<UsageDelta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(UPSERT, deltas, deltas.size(), (ps, delta) -> {
+            ps.setString(1, delta.username());
+            ps.setDate(2, Date.valueOf(delta.usageDate()));
+            ps.setLong(3, delta.tokens());
+            ps.setLong(4, delta.requests());
+            ps.setTimestamp(5, now);
+        });
+    }
+}
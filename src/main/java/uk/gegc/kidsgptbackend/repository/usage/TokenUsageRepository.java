@@ -0,0 +1,14 @@
+package uk.gegc.kidsgptbackend.repository.usage;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import uk.gegc.kidsgptbackend.model.usage.TokenUsage;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface TokenUsageRepository extends JpaRepository<TokenUsage, TokenUsage.Key>, TokenUsageBatchRepository {
+    List<TokenUsage> findByUsageDateAndUsernameIn(LocalDate usageDate, Collection<String> usernames);
+}
@@ -1,6 +1,8 @@
 package uk.gegc.kidsgptbackend.repository.user;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uk.gegc.kidsgptbackend.model.user.User;
 
@@ -18,4 +20,7 @@ public interface UserRepository extends JpaRepository<User, UUID> {
 
     boolean existsByEmail(String email);
 
+    @Query("select u.authVersion from User u where u.username = :username")
+    Optional<Long> findAuthVersionByUsername(@Param("username") String username);
+
 }
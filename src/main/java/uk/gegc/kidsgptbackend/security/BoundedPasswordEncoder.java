@@ -0,0 +1,64 @@
+package uk.gegc.kidsgptbackend.security;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Limits how many password hashes are computed at once. BCrypt spends tens of milliseconds
+ * of pure CPU per hash; with request handling on virtual threads nothing else bounds it,
+ * so a burst of logins could occupy every carrier thread and stall all other requests.
+ * Callers beyond the limit park for at most {@code maxWait} without holding a carrier, then
+ * get {@link UpstreamUnavailableException} (503) instead of queueing without bound.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder {
+
+    private final PasswordEncoder delegate;
+    private final Semaphore permits;
+    private final long maxWaitNanos;
+
+    public BoundedPasswordEncoder(PasswordEncoder delegate, int maxConcurrent, Duration maxWait) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(Math.max(1, maxConcurrent));
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return bounded(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return bounded(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private <T> T bounded(Supplier<T> hash) {
+        try {
+            if (!permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                throw saturated();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw saturated();
+        }
+        try {
+            return hash.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static UpstreamUnavailableException saturated() {
+        return new UpstreamUnavailableException("password-hashing", "Too many sign-ins at once, please try again", 1);
+    }
+}
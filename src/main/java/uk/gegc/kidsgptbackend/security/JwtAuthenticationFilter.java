@@ -1,5 +1,6 @@
 package uk.gegc.kidsgptbackend.security;
 
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -12,22 +13,48 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import uk.gegc.kidsgptbackend.repository.auth.RevokedTokenRepository;
 
 import java.io.IOException;
+import java.util.Set;
 
 @RequiredArgsConstructor
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
+    /**
+     * permitAll endpoints that never look at the caller, so a token sent to them is not
+     * worth verifying. Every entry must also be permitAll in SecurityConfig.
+     */
+    static final Set<String> PUBLIC_PATHS = Set.of(
+            "/echo",
+            "/api/v1/system/status",
+            "/api/v1/health",
+            "/api/v1/auth/register",
+            "/api/v1/auth/login",
+            "/api/v1/auth/refresh",
+            "/api/v1/auth/forgot-password",
+            "/api/v1/auth/reset-password",
+            // authenticated by JwtHandshakeInterceptor
+            "/ws/chat"
+    );
+
     private final JwtTokenProvider jwtTokenProvider;
     private final RevokedTokenRepository revokedTokenRepository;
 
 
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return PUBLIC_PATHS.contains(path);
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
         String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
 
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             String token = authHeader.substring(7);
-            if (jwtTokenProvider.validateToken(token) && !revokedTokenRepository.existsByToken(token)) {
-                Authentication authentication = jwtTokenProvider.getAuthentication(token);
+            // verified once: the claims are reused to build the Authentication
+            Claims claims = jwtTokenProvider.verifiedClaims(token);
+            if (claims != null && !revokedTokenRepository.existsByToken(token)) {
+                Authentication authentication = jwtTokenProvider.getAuthentication(claims);
                 SecurityContextHolder.getContext().setAuthentication(authentication);
             }
         }
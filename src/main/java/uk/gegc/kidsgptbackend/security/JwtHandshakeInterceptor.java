@@ -0,0 +1,82 @@
+package uk.gegc.kidsgptbackend.security;
+
+import io.jsonwebtoken.Claims;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+import uk.gegc.kidsgptbackend.repository.auth.RevokedTokenRepository;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Authenticates a WebSocket connection once, at the handshake, with the same access
+ * token the HTTP API takes: from the {@code Authorization} header or, as browsers cannot
+ * set headers on a WebSocket request, the {@code access_token} query parameter. The user
+ * and the token's expiry are kept in the session attributes for the connection's lifetime.
+ */
+@Component
+@RequiredArgsConstructor
+public class JwtHandshakeInterceptor implements HandshakeInterceptor {
+
+    public static final String USER_ATTRIBUTE = "user";
+    public static final String EXPIRES_AT_ATTRIBUTE = "tokenExpiresAt";
+
+    private final JwtTokenProvider jwtTokenProvider;
+    private final RevokedTokenRepository revokedTokenRepository;
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String token = token(request);
+        Claims claims = token != null ? jwtTokenProvider.verifiedClaims(token) : null;
+        if (claims == null || !"access".equals(claims.get("type", String.class))
+                || revokedTokenRepository.existsByToken(token)) {
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+        try {
+            Authentication authentication = jwtTokenProvider.getAuthentication(claims);
+            if (!(authentication.getPrincipal() instanceof User user)) {
+                response.setStatusCode(HttpStatus.UNAUTHORIZED);
+                return false;
+            }
+            attributes.put(USER_ATTRIBUTE, user);
+            attributes.put(EXPIRES_AT_ATTRIBUTE, claims.getExpiration().toInstant());
+            return true;
+        } catch (UsernameNotFoundException e) {
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+
+    private static String token(ServerHttpRequest request) {
+        String header = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.startsWith("Bearer ")) {
+            return header.substring(7);
+        }
+        return UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams().getFirst("access_token");
+    }
+
+    public static User user(Map<String, Object> attributes) {
+        return (User) attributes.get(USER_ATTRIBUTE);
+    }
+
+    public static Instant expiresAt(Map<String, Object> attributes) {
+        return (Instant) attributes.get(EXPIRES_AT_ATTRIBUTE);
+    }
+}
@@ -1,7 +1,12 @@
 package uk.gegc.kidsgptbackend.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtBuilder;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
@@ -11,21 +16,44 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Date;
-
-
+import java.util.HexFormat;
+import java.util.List;
+
+
+/**
+ * Issues and verifies the API's JWTs. Tokens are checked with one shared parser (it is
+ * immutable and thread-safe), and the claims of tokens that verified are kept in a
+ * size-bounded cache keyed by the SHA-256 of the token, so a client sending the same token
+ * on every request pays for the HMAC once per {@code jwt.claims-cache.ttl}. An entry never
+ * outlives the token's {@code exp}; invalid tokens are never cached.
+ * <p>
+ * With {@code jwt.access-token.embed-authorities}, access tokens also carry the user's
+ * authorities and {@code authVersion}, and the Authentication is built from the token
+ * alone. A token issued before the user's roles or active flag changed is recognised by
+ * its older stamp and falls back to the (cached) user lookup.
+ */
 @Component
 @RequiredArgsConstructor
 @Getter
 public class JwtTokenProvider {
 
+    static final String AUTHORITIES_CLAIM = "authorities";
+    static final String AUTH_VERSION_CLAIM = "uv";
+
     private final QuizUserDetailsService quizUserDetailsService;
-    private final UserDetailsService userDetailsService;
+    private final UserDetailsCache userDetailsCache;
 
     @Value("${jwt.secret}")
     private String base64secret;
@@ -36,25 +64,46 @@ public class JwtTokenProvider {
     @Value("${jwt.refresh-expiration-ms}")
     private long refreshTokenValidityInMs;
 
+    @Value("${jwt.access-token.embed-authorities:false}")
+    private boolean embedAuthorities;
+
+    @Value("${jwt.claims-cache.max-size:10000}")
+    private long claimsCacheMaxSize;
+
+    @Value("${jwt.claims-cache.ttl:PT5M}")
+    private Duration claimsCacheTtl;
+
     private SecretKey key;
+    private JwtParser parser;
+    private Cache<String, Claims> claimsCache;
 
     @PostConstruct
     public void init() {
         byte[] keyBytes = Decoders.BASE64.decode(base64secret);
         this.key = Keys.hmacShaKeyFor(keyBytes);
+        this.parser = Jwts.parser().verifyWith(key).build();
+        if (claimsCacheMaxSize > 0 && claimsCacheTtl != null && claimsCacheTtl.isPositive()) {
+            this.claimsCache = Caffeine.newBuilder()
+                    .maximumSize(claimsCacheMaxSize)
+                    .expireAfter(new ClaimsExpiry(claimsCacheTtl))
+                    .build();
+        }
     }
 
     public String generateAccessToken(Authentication authentication) {
         Date now = new Date();
         Date expiry = new Date(now.getTime() + accessTokenValidityInMs);
 
-        return Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
                 .subject(authentication.getName())
                 .issuedAt(now)
                 .expiration(expiry)
-                .claim("type", "access")
-                .signWith(key)
-                .compact();
+                .claim("type", "access");
+        if (embedAuthorities && authentication.getPrincipal() instanceof QuizUserDetails user) {
+            builder.claim(AUTHORITIES_CLAIM, user.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList())
+                    .claim(AUTH_VERSION_CLAIM, user.getAuthVersion());
+        }
+        return builder.signWith(key).compact();
     }
 
     public String generateRefreshToken(Authentication authentication) {
@@ -71,44 +120,95 @@ public class JwtTokenProvider {
     }
 
     public Authentication getAuthentication(String token) {
-        Claims claims = Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+        return getAuthentication(getClaims(token));
+    }
 
+    /**
+     * Builds the Authentication for claims that have already been verified.
+     */
+    public Authentication getAuthentication(Claims claims) {
         String username = claims.getSubject();
-        UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+        List<?> authorities = claims.get(AUTHORITIES_CLAIM, List.class);
+        Long authVersion = claims.get(AUTH_VERSION_CLAIM, Long.class);
+        if (embedAuthorities && authorities != null && authVersion != null
+                && userDetailsCache.isCurrent(username, authVersion)) {
+            List<GrantedAuthority> granted = authorities.stream()
+                    .map(authority -> (GrantedAuthority) new SimpleGrantedAuthority(authority.toString()))
+                    .toList();
+            return new UsernamePasswordAuthenticationToken(new User(username, "", granted), null, granted);
+        }
+        UserDetails userDetails = userDetailsCache.get(username);
         return new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
     }
 
     public boolean validateToken(String token) {
+        return verifiedClaims(token) != null;
+    }
+
+    /**
+     * @return the token's claims, or {@code null} if it is malformed, forged or expired
+     */
+    public Claims verifiedClaims(String token) {
         try {
-            Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(token)
-                    .getPayload();
-            return true;
+            return getClaims(token);
         } catch (JwtException | IllegalArgumentException exception) {
-            return false;
+            return null;
         }
     }
 
     public String getUsername(String token) {
-        return Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload()
-                .getSubject();
+        return getClaims(token).getSubject();
     }
 
+    /**
+     * @throws JwtException if the token is malformed, forged or expired
+     */
     public Claims getClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+        if (claimsCache == null || token == null) {
+            return parser.parseSignedClaims(token).getPayload();
+        }
+        String digest = digest(token);
+        Claims claims = claimsCache.getIfPresent(digest);
+        if (claims == null) {
+            claims = parser.parseSignedClaims(token).getPayload();
+            claimsCache.put(digest, claims);
+        }
+        return claims;
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Keeps claims for the configured TTL, but never past the token's own expiry.
+     */
+    private record ClaimsExpiry(Duration ttl) implements Expiry<String, Claims> {
+
+        @Override
+        public long expireAfterCreate(String key, Claims claims, long currentTime) {
+            long nanos = ttl.toNanos();
+            Date expiration = claims.getExpiration();
+            if (expiration != null) {
+                long untilExpiry = Duration.ofMillis(expiration.getTime() - System.currentTimeMillis()).toNanos();
+                nanos = Math.max(0, Math.min(nanos, untilExpiry));
+            }
+            return nanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, claims, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
     }
 }
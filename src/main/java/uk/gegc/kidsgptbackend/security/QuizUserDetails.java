@@ -0,0 +1,23 @@
+package uk.gegc.kidsgptbackend.security;
+
+import lombok.Getter;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Collection;
+
+/**
+ * The security user, with the account's {@code authVersion} at the time it was loaded so
+ * that access tokens issued from it can be stamped.
+ */
+@Getter
+public class QuizUserDetails extends User {
+
+    private final long authVersion;
+
+    public QuizUserDetails(String username, String password, boolean enabled,
+                           Collection<? extends GrantedAuthority> authorities, long authVersion) {
+        super(username, password, enabled, true, true, true, authorities);
+        this.authVersion = authVersion;
+    }
+}
@@ -33,14 +33,12 @@ public class QuizUserDetailsService implements UserDetailsService {
                 .map(role -> (GrantedAuthority) new SimpleGrantedAuthority(role.getRole()))
                 .toList();
 
-        return new org.springframework.security.core.userdetails.User(
+        return new QuizUserDetails(
                 user.getUsername(),
                 user.getHashedPassword(),
                 user.isActive(),
-                true,
-                true,
-                true,
-                authorities
+                authorities,
+                user.getAuthVersion()
         );
     }
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package uk.gegc.kidsgptbackend.security;
+
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gegc.kidsgptbackend.model.user.User;
+
+/**
+ * JPA listener on {@link User}: when an update changed the roles or the active flag, the
+ * cached UserDetails of that user is dropped and its new {@code authVersion}
+ * recorded, after the transaction commits so that a concurrent reload cannot cache the
+ * old row again.
+ *
+ * @see UserDetailsCache
+ */
+@Component
+public class UserAuthChangeListener {
+
+    // resolved on use: listeners are created while the EntityManagerFactory is being built
+    private final ObjectProvider<UserDetailsCache> userDetailsCache;
+
+    public UserAuthChangeListener(ObjectProvider<UserDetailsCache> userDetailsCache) {
+        this.userDetailsCache = userDetailsCache;
+    }
+
+    @PostUpdate
+    void afterUpdate(User user) {
+        if (!user.isAuthChanged()) {
+            return;
+        }
+        user.setAuthChanged(false);
+        String username = user.getUsername();
+        long authVersion = user.getAuthVersion();
+        Runnable publish = () -> userDetailsCache.ifAvailable(cache -> cache.authChanged(username, authVersion));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish.run();
+                }
+            });
+        } else {
+            publish.run();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package uk.gegc.kidsgptbackend.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.repository.user.UserRepository;
+
+import java.time.Duration;
+
+/**
+ * Size-bounded cache of {@link UserDetails} by username, so that authenticating a request
+ * does not query the user and its roles every time; entries expire after
+ * {@code security.user-cache.ttl}, which bounds how long another instance can serve a
+ * stale entry. Role-carrying tokens are checked against the user's {@code auth_version}
+ * column, read on a miss and kept for {@code security.user-cache.version-ttl}; a user that
+ * no longer exists is never current. Both caches are updated by
+ * {@link UserAuthChangeListener} once a change is committed on this instance, while
+ * changes made on another instance are seen once the cached version expires.
+ * Hit/miss statistics are published as {@code cache.*{cache=security.users}}.
+ */
+@Component
+public class UserDetailsCache {
+
+    /** cached for usernames without a user, so they are never current */
+    private static final long NO_USER = Long.MAX_VALUE;
+
+    private final UserDetailsService userDetailsService;
+    private final UserRepository userRepository;
+    private final Cache<String, UserDetails> users;
+    private final LoadingCache<String, Long> authVersions;
+
+    public UserDetailsCache(
+            UserDetailsService userDetailsService,
+            UserRepository userRepository,
+            @Value("${security.user-cache.max-size:1000}") long maxSize,
+            @Value("${security.user-cache.ttl:PT5M}") Duration ttl,
+            @Value("${security.user-cache.version-max-size:100000}") long versionMaxSize,
+            @Value("${security.user-cache.version-ttl:PT30S}") Duration versionTtl,
+            MeterRegistry meterRegistry
+    ) {
+        this.userDetailsService = userDetailsService;
+        this.userRepository = userRepository;
+        this.users = maxSize > 0
+                ? Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build()
+                : null;
+        if (users != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, users, "security.users");
+        }
+        this.authVersions = Caffeine.newBuilder()
+                .maximumSize(versionMaxSize)
+                .expireAfterWrite(versionTtl)
+                .build(username -> userRepository.findAuthVersionByUsername(username).orElse(NO_USER));
+    }
+
+    /**
+     * @throws org.springframework.security.core.userdetails.UsernameNotFoundException if there is no such user
+     */
+    public UserDetails get(String username) {
+        if (users == null) {
+            return userDetailsService.loadUserByUsername(username);
+        }
+        return users.get(username, userDetailsService::loadUserByUsername);
+    }
+
+    /**
+     * @return true only if a token stamped with {@code authVersion} was issued after the
+     * user's latest role or active-flag change
+     */
+    public boolean isCurrent(String username, long authVersion) {
+        return authVersion >= authVersions.get(username);
+    }
+
+    public void authChanged(String username, long authVersion) {
+        authVersions.asMap().merge(username, authVersion, Math::max);
+        if (users != null) {
+            users.invalidate(username);
+        }
+    }
+}
@@ -16,6 +16,7 @@ import uk.gegc.kidsgptbackend.dto.user.RegisterUserRequest;
 import uk.gegc.kidsgptbackend.dto.user.UserDto;
 import uk.gegc.kidsgptbackend.dto.user.UserProfileDto;
 import uk.gegc.kidsgptbackend.exception.UnauthorizedException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
 import uk.gegc.kidsgptbackend.mapper.UserMapper;
 import uk.gegc.kidsgptbackend.model.user.Role;
 import uk.gegc.kidsgptbackend.model.user.RoleName;
@@ -82,6 +83,8 @@ public class AuthServiceImpl implements AuthService {
             return new AuthTokensResponse(accessToken, refreshToken, accessExpiresInMs, refreshExpiresInMs);
         } catch (AuthenticationException ex) {
             throw new UnauthorizedException("Invalid username or password");
+        } catch (UpstreamUnavailableException ex) {
+            throw ex;
         } catch (Exception exception) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid username or password");
         }
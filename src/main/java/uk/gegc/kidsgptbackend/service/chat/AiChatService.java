@@ -1,10 +1,28 @@
 package uk.gegc.kidsgptbackend.service.chat;
 
+import reactor.core.publisher.Flux;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageRequest;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageResponse;
+import uk.gegc.kidsgptbackend.dto.chat.ChatStreamEvent;
 
 import java.security.Principal;
+import java.util.concurrent.CompletableFuture;
 
 public interface AiChatService {
     ChatMessageResponse chat(ChatMessageRequest request, Principal principal);
+
+    /**
+     * {@link #chat} without holding the calling thread while the reply is generated. The
+     * future fails with the same exceptions {@code chat} throws.
+     */
+    CompletableFuture<ChatMessageResponse> chatAsync(ChatMessageRequest request, Principal principal);
+
+    /**
+     * Streams the reply as {@link ChatStreamEvent#TOKEN} events followed by a single
+     * {@link ChatStreamEvent#DONE} event carrying the persisted reply and its metadata.
+     * Tokens are released in moderated segments; if a later segment is flagged a
+     * {@link ChatStreamEvent#RETRACT} event tells the client to discard the text shown so
+     * far, and the {@code DONE} event carries the fallback reply instead.
+     */
+    Flux<ChatStreamEvent> chatStream(ChatMessageRequest request, Principal principal);
 }
@@ -0,0 +1,29 @@
+package uk.gegc.kidsgptbackend.service.chat;
+
+import uk.gegc.kidsgptbackend.model.chat.ChatContext;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Short, self-contained transactions around a chat turn. Callers must not hold a
+ * transaction of their own while talking to remote services.
+ */
+public interface ChatTranscriptService {
+
+    /**
+     * Resolves (or creates) the context and stores the user's message in one transaction.
+     */
+    ChatContext openTurn(String username, UUID contextId, String message);
+
+    /**
+     * Stores the assistant reply for a context returned by {@link #openTurn}.
+     */
+    void recordReply(ChatContext context, String reply);
+
+    /**
+     * Replaces the context's rolling summary; it now covers every message up to and
+     * including ({@code until}, {@code untilMessageId}).
+     */
+    void recordSummary(UUID contextId, String summary, LocalDateTime until, UUID untilMessageId);
+}
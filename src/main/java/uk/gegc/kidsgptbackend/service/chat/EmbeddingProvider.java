@@ -0,0 +1,32 @@
+package uk.gegc.kidsgptbackend.service.chat;
+
+/**
+ * Maps text to a fixed-length vector so that texts with similar meaning end up close
+ * together (high cosine similarity).
+ */
+public interface EmbeddingProvider {
+
+    int dimensions();
+
+    /**
+     * @return a unit-length vector of {@link #dimensions()} components
+     */
+    float[] embed(String text);
+
+    /**
+     * Scales {@code vector} in place to unit length, so cosine similarity is a dot product.
+     */
+    static float[] normalize(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += (double) v * v;
+        }
+        if (sum > 0) {
+            float scale = (float) (1.0 / Math.sqrt(sum));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,24 @@
+package uk.gegc.kidsgptbackend.service.chat;
+
+import uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry;
+
+import java.util.List;
+
+/**
+ * Condenses part of a conversation into a short summary.
+ */
+public interface SummaryModel {
+
+    /**
+     * @param previousSummary summary of everything before {@code messages}, or {@code null}
+     * @param messages        oldest first
+     * @return a summary covering both
+     */
+    Summary summarize(String previousSummary, List<ChatHistoryEntry> messages);
+
+    /**
+     * @param tokensUsed tokens the model spent producing it, 0 for local models
+     */
+    record Summary(String text, long tokensUsed) {
+    }
+}
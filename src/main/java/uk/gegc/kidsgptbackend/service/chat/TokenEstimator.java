@@ -0,0 +1,18 @@
+package uk.gegc.kidsgptbackend.service.chat;
+
+/**
+ * Estimates how many model tokens a piece of text costs before it is sent.
+ */
+public interface TokenEstimator {
+
+    /**
+     * Fixed per-message cost of the chat format (role and delimiters).
+     */
+    int MESSAGE_OVERHEAD = 4;
+
+    int estimate(String text);
+
+    default int estimateMessage(String content) {
+        return estimate(content) + MESSAGE_OVERHEAD;
+    }
+}
@@ -1,158 +1,674 @@
 package uk.gegc.kidsgptbackend.service.chat.impl;
 
 import lombok.RequiredArgsConstructor;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.messages.AbstractMessage;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
-import org.springframework.ai.moderation.ModerationModel;
-import org.springframework.ai.moderation.ModerationPrompt;
-import org.springframework.ai.moderation.ModerationResponse;
-import org.springframework.ai.moderation.ModerationResult;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.StreamUtils;
 import org.springframework.ai.chat.client.ChatClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageRequest;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageResponse;
-import uk.gegc.kidsgptbackend.exception.ModerationServiceException;
+import uk.gegc.kidsgptbackend.dto.chat.ChatStreamEvent;
 import uk.gegc.kidsgptbackend.exception.RateLimitException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
 import uk.gegc.kidsgptbackend.model.chat.ChatContext;
-import uk.gegc.kidsgptbackend.model.chat.ChatMessage;
-import uk.gegc.kidsgptbackend.model.user.User;
-import uk.gegc.kidsgptbackend.repository.chat.ChatContextRepository;
-import uk.gegc.kidsgptbackend.repository.chat.ChatMessageRepository;
+import uk.gegc.kidsgptbackend.model.user.AgeBand;
 import uk.gegc.kidsgptbackend.repository.user.UserRepository;
 import uk.gegc.kidsgptbackend.service.chat.AiChatService;
+import uk.gegc.kidsgptbackend.service.chat.ChatTranscriptService;
+import uk.gegc.kidsgptbackend.service.chat.TokenEstimator;
+import uk.gegc.kidsgptbackend.service.moderation.ModerationService;
+import uk.gegc.kidsgptbackend.service.usage.UsageLedger;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
-import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
+/**
+ * Deliberately not {@code @Transactional}: database work is delegated to
+ * {@link ChatTranscriptService} in short units so that no pooled connection is held
+ * while waiting on moderation or the LLM.
+ */
 @Service
 @RequiredArgsConstructor
-@Transactional
 public class AiChatServiceImpl implements AiChatService {
 
-    private final ChatContextRepository contextRepository;
-    private final ChatMessageRepository messageRepository;
+    private final ChatTranscriptService transcriptService;
     private final ChatClient chatClient;
-    private final ModerationModel moderationClient;
+    private final ModerationService moderationService;
     private final UserRepository userRepository;
+    private final ExecutorService chatPipelineExecutor;
+    private final ChatStageMetrics stageMetrics;
+    private final IncrementalReplyModerator replyModerator;
+    private final PromptTemplateRegistry promptTemplates;
+    private final ChatHistoryAssembler historyAssembler;
+    private final ConversationSummarizer summarizer;
+    private final AnswerCache answerCache;
+    private final SemanticAnswerCache semanticCache;
+    private final UsageLedger usageLedger;
+    private final LlmHedger llmHedger;
+    private final ModelRouter modelRouter;
+    private final TokenEstimator tokenEstimator;
+    private final ExecutorService chatAsyncExecutor;
 
-    @Value("classpath:system-prompt.txt")
-    private Resource systemPrompt;
+    @Value("${chat.speculative.enabled:false}")
+    private boolean speculativeEnabled;
+
+    @Value("${chat.coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+
+    @Value("${chat.async.timeout:PT40S}")
+    private Duration asyncTimeout;
+
+    /**
+     * Identical first turns that arrive while one is being answered share its LLM call
+     * and output moderation; each caller still persists its own turn.
+     */
+    private final SingleFlight<AnswerCache.Key, ModeratedReply> replyFlights = new SingleFlight<>();
+    private final ConcurrentHashMap<AnswerCache.Key, StreamFlight> streamFlights = new ConcurrentHashMap<>();
 
     private static final String[] TEMPLATES = {
             "%s Can you think of another example?",
             "Let's explore this: %s What else comes to mind?",
             "%s What do you think about it?"
     };
-    private final Random random = new Random();
-    private static final Logger logger = LoggerFactory.getLogger(AiChatServiceImpl.class);
+    private static final String FALLBACK_REPLY = "Oops, that topic's a bit tricky. Let's chat about something else fun!";
 
 
     @Override
     public ChatMessageResponse chat(ChatMessageRequest request, Principal principal) {
         Instant start = Instant.now();
+        String decorated = decorate(request.message());
+        PreparedTurn turn = prepareTurn(request, principal, decorated, speculativeEnabled);
+        if (turn.cachedAnswer() != null) {
+            return finishCachedTurn(turn, start);
+        }
+
+        // a speculative call is already in flight, so there is nothing left to share
+        AnswerCache.Key flightKey = turn.speculativeReply() == null ? turn.flightKey() : null;
+        SingleFlight.Outcome<ModeratedReply> outcome = flightKey == null
+                ? new SingleFlight.Outcome<>(generateReply(turn, decorated), true)
+                : replyFlights.execute(flightKey, () -> generateReply(turn, decorated), stageMetrics::coalesced);
+        ModeratedReply reply = outcome.value();
+
+        if (!outcome.leader()) {
+            return finishTurn(turn.context(), reply.text(), 0, reply.model(), start);
+        }
+        ChatMessageResponse response = finishTurn(turn, reply.text(), reply.response(), reply.model(), start);
+        if (!FALLBACK_REPLY.equals(response.reply())) {
+            rememberAnswer(turn, response);
+        }
+        return response;
+    }
+
+    /**
+     * The same turn as {@link #chat} without blocking the calling thread. The LLM reply is
+     * streamed and gathered, so no thread waits on it; the blocking steps before and after
+     * it run on {@code chatAsyncExecutor}, never on the calling thread.
+     * Never speculative. A turn that has not finished within {@code chat.async.timeout},
+     * or that the executor has no room for, fails with {@link UpstreamUnavailableException};
+     * a timed-out turn then records no reply and no usage (see {@link AsyncTurn}).
+     */
+    @Override
+    public CompletableFuture<ChatMessageResponse> chatAsync(ChatMessageRequest request, Principal principal) {
+        Instant start = Instant.now();
+        String decorated = decorate(request.message());
+        AsyncTurn async = new AsyncTurn();
+        CompletableFuture<ChatMessageResponse> result = new CompletableFuture<>();
+        prepareTurnAsync(request, principal, decorated)
+                .thenCompose(turn -> turn.cachedAnswer() != null
+                        ? CompletableFuture.supplyAsync(() -> {
+                            async.settle();
+                            return finishCachedTurn(turn, start);
+                        }, chatAsyncExecutor)
+                        : replyAsync(turn, decorated, start, async))
+                .whenComplete((response, e) -> {
+                    if (e == null) {
+                        result.complete(response);
+                    } else {
+                        result.completeExceptionally(e);
+                    }
+                });
+        CompletableFuture.delayedExecutor(asyncTimeout.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            if (async.expire()) {
+                // the caller's error first: cancelling fails the pending stages as well
+                result.completeExceptionally(new TimeoutException());
+                async.cancelCall();
+            }
+        });
+        return result.handle((response, e) -> {
+            if (e == null) {
+                return response;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof TimeoutException) {
+                throw timedOut();
+            }
+            if (cause instanceof RejectedExecutionException) {
+                throw new UpstreamUnavailableException("chat", "Too many chats in progress, please try again", 1);
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    /**
+     * Decides whether an async turn finished or timed out; whichever happens first wins.
+     * A turn that timed out records nothing: its reply is not persisted, charged or cached,
+     * and an LLM call it started on its own is cancelled.
+     */
+    private static final class AsyncTurn {
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private final AtomicBoolean expired = new AtomicBoolean();
+        private volatile Future<?> llmCall;
+
+        /**
+         * @throws CancellationException if the turn has already timed out
+         */
+        void settle() {
+            if (!settled.compareAndSet(false, true)) {
+                throw new CancellationException("Turn timed out");
+            }
+        }
+
+        boolean expire() {
+            if (!settled.compareAndSet(false, true)) {
+                return false;
+            }
+            expired.set(true);
+            return true;
+        }
+
+        void cancelCall() {
+            Future<?> call = llmCall;
+            if (call != null) {
+                call.cancel(true);
+            }
+        }
+
+        void track(Future<?> call) {
+            llmCall = call;
+            if (expired.get()) {
+                call.cancel(true);
+            }
+        }
+
+        boolean isExpired() {
+            return expired.get();
+        }
+    }
+
+    private CompletableFuture<ChatMessageResponse> replyAsync(PreparedTurn turn, String userText, Instant start,
+                                                             AsyncTurn async) {
+        if (async.isExpired()) {
+            return CompletableFuture.failedFuture(new CancellationException("Turn timed out"));
+        }
+        AnswerCache.Key flightKey = turn.flightKey();
+        // a shared call is not cancelled when one of the turns waiting on it times out
+        CompletableFuture<SingleFlight.Outcome<ModeratedReply>> outcome = flightKey == null
+                ? generateReplyAsync(turn, userText, async).thenApply(reply -> new SingleFlight.Outcome<>(reply, true))
+                : replyFlights.executeAsync(flightKey, () -> generateReplyAsync(turn, userText, null),
+                stageMetrics::coalesced);
+        return outcome.thenApplyAsync(result -> {
+            async.settle();
+            ModeratedReply reply = result.value();
+            if (!result.leader()) {
+                return finishTurn(turn.context(), reply.text(), 0, reply.model(), start);
+            }
+            ChatMessageResponse response = finishTurn(turn, reply.text(), reply.response(), reply.model(), start);
+            if (!FALLBACK_REPLY.equals(response.reply())) {
+                rememberAnswer(turn, response);
+            }
+            return response;
+        }, chatAsyncExecutor);
+    }
+
+    private UpstreamUnavailableException timedOut() {
+        return new UpstreamUnavailableException("llm", "The reply is taking too long, please try again", 1);
+    }
+
+    @Override
+    public Flux<ChatStreamEvent> chatStream(ChatMessageRequest request, Principal principal) {
+        Instant start = Instant.now();
+        // never speculative: the stream is only subscribed once input moderation has passed
+        String decorated = decorate(request.message());
+        PreparedTurn turn = prepareTurn(request, principal, decorated, false);
+        if (turn.cachedAnswer() != null) {
+            return Flux.just(ChatStreamEvent.token(turn.cachedAnswer().reply()))
+                    .concatWith(Mono.fromCallable(() -> ChatStreamEvent.done(finishCachedTurn(turn, start)))
+                            .subscribeOn(Schedulers.boundedElastic()));
+        }
+
+        StreamFlight own = new StreamFlight(turn, decorated);
+        StreamFlight joined = turn.flightKey() == null ? null : streamFlights.putIfAbsent(turn.flightKey(), own);
+        boolean leader = joined == null;
+        if (!leader) {
+            stageMetrics.coalesced();
+        }
+        StreamFlight shared = leader ? own : joined;
+
+        StringBuilder reply = new StringBuilder();
+        AtomicBoolean flagged = new AtomicBoolean();
+        Flux<ChatStreamEvent> tokens = shared.segments()
+                .map(segment -> {
+                    if (!segment.safe()) {
+                        flagged.set(true);
+                        return ChatStreamEvent.retract();
+                    }
+                    reply.append(segment.text());
+                    return ChatStreamEvent.token(segment.text());
+                });
+
+        // Persistence is blocking, so it runs once the stream has finished and off the
+        // HTTP client's event-loop thread.
+        Mono<ChatStreamEvent> done = Mono.fromCallable(() -> {
+                    String text = flagged.get() ? FALLBACK_REPLY : reply.toString();
+                    ChatResponse lastChunk = shared.lastChunk().get();
+                    String model = modelOf(lastChunk, shared.model().get());
+                    if (!leader) {
+                        return ChatStreamEvent.done(finishTurn(turn.context(), text, 0, model, start));
+                    }
+                    ChatMessageResponse response = finishTurn(turn, text, lastChunk, model, start);
+                    if (!flagged.get() && !response.reply().isEmpty()) {
+                        rememberAnswer(turn, response);
+                    }
+                    return ChatStreamEvent.done(response);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+
+        return tokens.concatWith(done);
+    }
+
+    /**
+     * Runs input moderation, the user lookup (and the system prompt built from it), the
+     * history read and the transcript write concurrently. History is limited to messages
+     * created before this turn started, so the concurrent write cannot leak into it. Only
+     * the LLM call needs moderation to have passed, so the pre-processing latency is that
+     * of the slowest branch rather than their sum. First turns are then looked up in the
+     * {@link AnswerCache} and, failing that, the {@link SemanticAnswerCache}, whose
+     * embedding is computed alongside the other branches. The history read waits for the
+     * user lookup, as its token budget depends on the model the {@link ModelRouter} picks
+     * for the child's age band; both are local reads, well within the moderation call.
+     * The prompt's size is then counted with the {@link TokenEstimator}, so a turn's cost
+     * is known before anything is sent.
+     * <p>
+     * When {@code speculative} is set the LLM call is started as soon as the system
+     * prompt is ready instead of after moderation. Its result is only handed out once
+     * moderation has passed and the answer was not cached; otherwise the future is
+     * cancelled and the reply discarded.
+     */
+    private PreparedTurn prepareTurn(ChatMessageRequest request, Principal principal, String userText,
+                                     boolean speculative) {
+        long started = System.nanoTime();
+        TurnStages stages = startStages(request, principal, chatPipelineExecutor);
+        CompletableFuture<LlmReply> speculativeReply = !speculative ? null
+                : stages.systemText().thenCombineAsync(stages.history(),
+                (text, messages) -> callLlm(join(stages.route()), text, messages, userText), chatPipelineExecutor);
+
+        try {
+            return resolveTurn(request, userText, stages, speculativeReply);
+        } catch (RuntimeException e) {
+            if (speculativeReply != null) {
+                // an upstream request that is already in flight cannot be recalled; cancelling
+                // guarantees its result is never released or persisted
+                speculativeReply.cancel(true);
+                stageMetrics.speculation("discarded");
+            }
+            throw e;
+        } finally {
+            stageMetrics.record("prepare", System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * {@link #prepareTurn} without waiting: the turn is resolved once every branch has
+     * completed. The branches run on {@code chatAsyncExecutor}, not on the pipeline
+     * executor, whose caller-runs fallback would put them on the request thread exactly
+     * when the server is saturated; a full queue fails the turn instead.
+     */
+    private CompletableFuture<PreparedTurn> prepareTurnAsync(ChatMessageRequest request, Principal principal,
+                                                             String userText) {
+        long started = System.nanoTime();
+        TurnStages stages;
+        try {
+            stages = startStages(request, principal, chatAsyncExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return CompletableFuture.allOf(stages.inputSafe(), stages.systemText(), stages.history(), stages.context(),
+                        stages.embedding())
+                .thenApplyAsync(ignored -> resolveTurn(request, userText, stages, null), chatAsyncExecutor)
+                .whenComplete((turn, e) -> stageMetrics.record("prepare", System.nanoTime() - started));
+    }
 
-        if (!validateSafety(request.message())) {
+    private record TurnStages(CompletableFuture<Boolean> inputSafe, CompletableFuture<AgeBand> ageBand,
+                              CompletableFuture<String> systemText, CompletableFuture<ModelRouter.Route> route,
+                              CompletableFuture<List<Message>> history, CompletableFuture<ChatContext> context,
+                              CompletableFuture<float[]> embedding) {
+    }
+
+    private TurnStages startStages(ChatMessageRequest request, Principal principal, Executor executor) {
+        String username = principal.getName();
+        LocalDateTime turnStart = LocalDateTime.now();
+
+        CompletableFuture<Boolean> inputSafe = supplyStage("moderation_input",
+                () -> moderationService.isSafe(request.message()), executor);
+        CompletableFuture<AgeBand> ageBand = supplyStage("user_lookup",
+                () -> AgeBand.of(userRepository.findByUsername(username)
+                        .orElseThrow(() -> new IllegalArgumentException("User not found"))
+                        .getAge()), executor);
+        CompletableFuture<String> systemText = ageBand.thenApply(band -> promptTemplates.systemPrompt(band, request.tone()));
+        CompletableFuture<ModelRouter.Route> route = ageBand.thenApply(band -> modelRouter.route(request.message(), band));
+        CompletableFuture<List<Message>> history = route.thenApplyAsync(chosen -> stageMetrics.time("history",
+                () -> historyAssembler.recentHistory(username, request.contextId(), turnStart, chosen.primary())),
+                executor);
+        CompletableFuture<ChatContext> context = supplyStage("open_turn",
+                () -> transcriptService.openTurn(username, request.contextId(), request.message()), executor);
+        CompletableFuture<float[]> embedding = request.contextId() == null && semanticCache.isEnabled()
+                ? supplyStage("embed", () -> semanticCache.embed(request.message()), executor)
+                : CompletableFuture.completedFuture(null);
+        return new TurnStages(inputSafe, ageBand, systemText, route, history, context, embedding);
+    }
+
+    private PreparedTurn resolveTurn(ChatMessageRequest request, String userText, TurnStages stages,
+                                     CompletableFuture<LlmReply> speculativeReply) {
+        if (!join(stages.inputSafe())) {
             throw new IllegalArgumentException("User input flagged as unsafe");
         }
+        AgeBand ageBand = join(stages.ageBand());
+        AnswerCache.Key flightKey = request.contextId() != null || !coalescingEnabled ? null
+                : new AnswerCache.Key(AnswerCache.normalize(request.message()), ageBand, request.tone(),
+                promptTemplates.version());
+        AnswerCache.Key cacheKey = request.contextId() != null ? null
+                : answerCache.key(request.message(), ageBand, request.tone(), promptTemplates.version());
+        SemanticAnswerCache.Query semanticQuery = semanticCache.query(
+                join(stages.embedding()), ageBand, request.tone(), promptTemplates.version());
+        AnswerCache.CachedAnswer cached = answerCache.get(cacheKey);
+        if (cached == null) {
+            cached = semanticCache.get(semanticQuery);
+            if (cached != null) {
+                answerCache.put(cacheKey, cached.reply(), cached.model());
+            }
+        }
+        if (cached != null && speculativeReply != null) {
+            speculativeReply.cancel(true);
+            stageMetrics.speculation("discarded");
+        } else if (speculativeReply != null) {
+            stageMetrics.speculation("used");
+        }
+        String systemText = join(stages.systemText());
+        List<Message> history = join(stages.history());
+        int promptTokens = cached != null ? 0 : estimatePrompt(systemText, history, userText);
+        return new PreparedTurn(join(stages.context()), join(stages.route()), systemText, history, promptTokens,
+                speculativeReply, flightKey, cacheKey, semanticQuery, cached);
+    }
+
+    private LlmReply callLlm(ModelRouter.Route route, String systemText, List<Message> history, String userText) {
+        return stageMetrics.time("llm", () -> {
+            try {
+                return modelRouter.call(route, model -> new LlmReply(llmHedger.call(() -> chatClient.prompt()
+                        .options(options(route, model))
+                        .system(systemText)
+                        .messages(history)
+                        .user(userText)
+                        .call()
+                        .chatResponse()), model));
+            } catch (UpstreamUnavailableException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RateLimitException("LLM rate-limited", e);
+            }
+        });
+    }
 
-        User user = userRepository.findByUsername(principal.getName())
-                .orElseThrow(() -> new IllegalArgumentException("User not found"));
+    /**
+     * {@link #callLlm} over the streaming API, so that waiting for the reply holds no
+     * thread. The chunks are gathered into one response carrying the last chunk's usage
+     * and model. Not hedged: hedging races blocking calls on threads of their own.
+     */
+    private CompletableFuture<LlmReply> callLlmAsync(ModelRouter.Route route, String systemText, List<Message> history,
+                                                     String userText) {
+        long started = System.nanoTime();
+        AtomicReference<String> model = new AtomicReference<>();
+        AtomicReference<ChatResponse> lastChunk = new AtomicReference<>();
+        StringBuilder text = new StringBuilder();
+        return modelRouter.stream(route, chosen -> {
+                    model.set(chosen);
+                    return chatClient.prompt()
+                            .options(options(route, chosen))
+                            .system(systemText)
+                            .messages(history)
+                            .user(userText)
+                            .stream()
+                            .chatResponse();
+                })
+                .doOnNext(chunk -> {
+                    text.append(extractText(chunk));
+                    lastChunk.set(chunk);
+                })
+                .then(Mono.fromSupplier(() -> new LlmReply(gathered(text.toString(), lastChunk.get()), model.get())))
+                .timeout(asyncTimeout)
+                .onErrorMap(e -> !(e instanceof UpstreamUnavailableException),
+                        e -> e instanceof TimeoutException ? timedOut() : new RateLimitException("LLM rate-limited", e))
+                .doFinally(signal -> stageMetrics.record("llm", System.nanoTime() - started))
+                .toFuture();
+    }
+
+    private static ChatResponse gathered(String text, ChatResponse lastChunk) {
+        ChatResponse.Builder builder = ChatResponse.builder()
+                .generations(List.of(new Generation(new AssistantMessage(text))));
+        if (lastChunk != null) {
+            builder.metadata(lastChunk.getMetadata());
+        }
+        return builder.build();
+    }
 
-        ChatContext context = resolveContext(request, principal);
+    private static ChatOptions options(ModelRouter.Route route, String model) {
+        return ChatOptions.builder().model(model).maxTokens(route.maxTokens()).build();
+    }
 
-        ChatMessage userMsg = new ChatMessage();
-        userMsg.setContext(context);
-        userMsg.setRole("USER");
-        userMsg.setContent(request.message());
-        messageRepository.save(userMsg);
+    private int estimatePrompt(String systemText, List<Message> history, String userText) {
+        int tokens = tokenEstimator.estimateMessage(systemText) + tokenEstimator.estimateMessage(userText);
+        for (Message message : history) {
+            tokens += tokenEstimator.estimateMessage(message.getText());
+        }
+        stageMetrics.promptTokens(tokens);
+        return tokens;
+    }
 
-        String decorated = String.format(TEMPLATES[random.nextInt(TEMPLATES.length)], request.message());
-        String systemText = loadSystemPrompt(user);
+    private <T> CompletableFuture<T> supplyStage(String stage, Supplier<T> body, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> stageMetrics.time(stage, body), executor);
+    }
 
-        ChatResponse chatResponse;
+    private static <T> T join(CompletableFuture<T> future) {
         try {
-            chatResponse = chatClient.prompt()
-                    .system(systemText)
-                    .user(decorated)
-                    .call()
-                    .chatResponse();
-        } catch (Exception e) {
-            throw new RateLimitException("LLM rate-limited", e);
-        }
-        String replyText = Optional.ofNullable(chatResponse)
-                .map(ChatResponse::getResult)
-                .map(Generation::getOutput)
-                .map(AbstractMessage::getText)
-                .orElse("");
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private record PreparedTurn(ChatContext context, ModelRouter.Route route, String systemText, List<Message> history,
+                                int promptTokens, CompletableFuture<LlmReply> speculativeReply,
+                                AnswerCache.Key flightKey, AnswerCache.Key cacheKey, SemanticAnswerCache.Query semanticQuery,
+                                AnswerCache.CachedAnswer cachedAnswer) {
+    }
+
+    private void rememberAnswer(PreparedTurn turn, ChatMessageResponse response) {
+        answerCache.put(turn.cacheKey(), response.reply(), response.model());
+        semanticCache.put(turn.semanticQuery(), response.reply(), response.model());
+    }
+
+    /**
+     * A completion and the model of the route that produced it.
+     */
+    private record LlmReply(ChatResponse response, String model) {
+    }
+
+    /**
+     * The reply as it may be shown: the generated text, or the fallback if output
+     * moderation flagged it.
+     */
+    private record ModeratedReply(String text, ChatResponse response, String model) {
+    }
+
+    private ModeratedReply generateReply(PreparedTurn turn, String userText) {
+        LlmReply llmReply = turn.speculativeReply() != null
+                ? join(turn.speculativeReply())
+                : callLlm(turn.route(), turn.systemText(), turn.history(), userText);
+        return moderateReply(llmReply);
+    }
+
+    /**
+     * @param async the turn to cancel the call with when it times out, or {@code null}
+     */
+    private CompletableFuture<ModeratedReply> generateReplyAsync(PreparedTurn turn, String userText, AsyncTurn async) {
+        CompletableFuture<LlmReply> call = callLlmAsync(turn.route(), turn.systemText(), turn.history(), userText);
+        if (async != null) {
+            async.track(call);
+        }
+        return call.thenApplyAsync(this::moderateReply, chatAsyncExecutor);
+    }
+
+    private ModeratedReply moderateReply(LlmReply llmReply) {
+        ChatResponse chatResponse = llmReply.response();
+        String generatedText = extractText(chatResponse);
+        boolean safe = stageMetrics.time("moderation_output", () -> moderationService.isSafe(generatedText));
+        return new ModeratedReply(safe ? generatedText : FALLBACK_REPLY, chatResponse,
+                modelOf(chatResponse, llmReply.model()));
+    }
 
-        if (!validateSafety(replyText)) {
-            replyText = "Oops, that topic's a bit tricky. Let's chat about something else fun!";
+    /**
+     * A streamed reply, cut into moderated segments. Only segments that passed output
+     * moderation are released; the first flagged segment ends the stream (cancelling
+     * generation) so the caller can retract what was already sent. For a first turn the
+     * segments are replayed to every identical stream that joins while it is in flight.
+     */
+    private final class StreamFlight {
+        private final AtomicReference<ChatResponse> lastChunk = new AtomicReference<>();
+        private final AtomicReference<String> model = new AtomicReference<>();
+        private final Flux<IncrementalReplyModerator.Segment> segments;
+
+        StreamFlight(PreparedTurn turn, String userText) {
+            Flux<String> deltas = modelRouter.stream(turn.route(), chosen -> {
+                        model.set(chosen);
+                        return chatClient.prompt()
+                                .options(options(turn.route(), chosen))
+                                .system(turn.systemText())
+                                .messages(turn.history())
+                                .user(userText)
+                                .stream()
+                                .chatResponse();
+                    })
+                    .doOnNext(lastChunk::set)
+                    .map(AiChatServiceImpl::extractText)
+                    .filter(delta -> !delta.isEmpty())
+                    .onErrorMap(e -> !(e instanceof UpstreamUnavailableException),
+                            e -> new RateLimitException("LLM rate-limited", e));
+            Flux<IncrementalReplyModerator.Segment> moderated = replyModerator.moderate(deltas)
+                    .takeUntil(segment -> !segment.safe());
+            AnswerCache.Key key = turn.flightKey();
+            this.segments = key == null ? moderated
+                    : moderated.doFinally(signal -> streamFlights.remove(key, this)).cache();
         }
 
-        ChatMessage assistantMsg = new ChatMessage();
-        assistantMsg.setContext(context);
-        assistantMsg.setRole("ASSISTANT");
-        assistantMsg.setContent(replyText);
-        messageRepository.save(assistantMsg);
+        Flux<IncrementalReplyModerator.Segment> segments() {
+            return segments;
+        }
 
-        long latency = Duration.between(start, Instant.now()).toMillis();
+        AtomicReference<ChatResponse> lastChunk() {
+            return lastChunk;
+        }
+
+        AtomicReference<String> model() {
+            return model;
+        }
+    }
+
+    /**
+     * A cached answer was moderated when it was stored; it is still recorded as the
+     * turn's reply, with no tokens spent.
+     */
+    private ChatMessageResponse finishCachedTurn(PreparedTurn turn, Instant start) {
+        AnswerCache.CachedAnswer cached = turn.cachedAnswer();
+        return finishTurn(turn.context(), cached.reply(), 0, AnswerCache.CACHED_MODEL_PREFIX + cached.model(), start);
+    }
+
+    /**
+     * Takes the token count from the response's usage; a response without one (a stream
+     * cut short before its final chunk, say) is charged the estimated prompt plus reply.
+     */
+    private ChatMessageResponse finishTurn(PreparedTurn turn, String replyText, ChatResponse chatResponse,
+                                           String modelUsed, Instant start) {
         int tokensUsed = Optional.ofNullable(chatResponse)
                 .map(ChatResponse::getMetadata)
                 .map(meta -> meta.getUsage().getTotalTokens())
-                .orElse(0);
-        String modelUsed = Optional.ofNullable(chatResponse)
-                .map(resp -> resp.getMetadata().getModel())
-                .orElse("gpt-4o-mini");
-        return new ChatMessageResponse(replyText, modelUsed, latency, tokensUsed, context.getId());    }
+                .filter(total -> total > 0)
+                .orElseGet(() -> turn.promptTokens() + tokenEstimator.estimate(replyText));
+        return finishTurn(turn.context(), replyText, tokensUsed, modelUsed, start);
+    }
 
-    private ChatContext resolveContext(ChatMessageRequest request, Principal principal) {
-        if (request.contextId() != null) {
-            Optional<ChatContext> opt = contextRepository.findById(request.contextId());
-            return opt.orElseThrow(() -> new IllegalArgumentException("Context not found"));
-        }
-        ChatContext context = new ChatContext();
-        context.setUsername(principal.getName());
-        contextRepository.save(context);
-        return context;
+    /**
+     * The model named in the response (the exact snapshot that answered), else the routed
+     * model it was requested from.
+     */
+    private static String modelOf(ChatResponse chatResponse, String requestedModel) {
+        return Optional.ofNullable(chatResponse)
+                .map(ChatResponse::getMetadata)
+                .map(ChatResponseMetadata::getModel)
+                .filter(model -> !model.isBlank())
+                .orElse(requestedModel);
     }
 
-    private String loadSystemPrompt(User user) {
-        String ageBasedPrompt = "You are talking to a " + user.getAge() + "-year-old child. ";
-        try {
-            String basePrompt = StreamUtils.copyToString(systemPrompt.getInputStream(), StandardCharsets.UTF_8);
-            return ageBasedPrompt + basePrompt;
-        } catch (IOException e) {
-            return ageBasedPrompt + "You are KidsGPT, keep replies friendly.";
-        }
+    private ChatMessageResponse finishTurn(ChatContext context, String replyText, int tokensUsed, String modelUsed,
+                                           Instant start) {
+        stageMetrics.run("persist_reply", () -> transcriptService.recordReply(context, replyText));
+        summarizer.requestSummary(context.getId(), context.getUsername());
+        usageLedger.record(context.getUsername(), tokensUsed);
+
+        long latency = Duration.between(start, Instant.now()).toMillis();
+        return new ChatMessageResponse(replyText, modelUsed, latency, tokensUsed, context.getId());
     }
 
-    private boolean validateSafety(String text) {
-        ModerationResponse response;
-        try {
-            response = moderationClient.call(new ModerationPrompt(text));
-        } catch (Exception ex) {
-            logger.error("Moderation service call failed", ex);
-            throw new ModerationServiceException("Moderation service unavailable", ex);
-        }
-        boolean safe = response.getResult().getOutput().getResults().stream()
-                .noneMatch(ModerationResult::isFlagged);
-        if (!safe) {
-            response.getResult().getOutput().getResults().stream()
-                    .filter(ModerationResult::isFlagged)
-                    .forEach(r -> logger.warn("Moderation violation: {}", r.getCategories()));
-        }
-        return safe;
+    private static String extractText(ChatResponse chatResponse) {
+        return Optional.ofNullable(chatResponse)
+                .map(ChatResponse::getResult)
+                .map(Generation::getOutput)
+                .map(AbstractMessage::getText)
+                .orElse("");
+    }
+
+    private static String decorate(String message) {
+        return String.format(TEMPLATES[ThreadLocalRandom.current().nextInt(TEMPLATES.length)], message);
     }
 }
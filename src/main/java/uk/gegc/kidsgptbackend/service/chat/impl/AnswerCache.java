@@ -0,0 +1,83 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.dto.chat.Tone;
+import uk.gegc.kidsgptbackend.model.user.AgeBand;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Replies to first-turn questions, keyed by the normalised question, age band, tone and
+ * prompt template version, so that a template edit never serves answers written for the
+ * old prompt. Only moderated (safe) replies are stored. Bounded by size with a fixed TTL;
+ * statistics are published as {@code cache.*{cache=chat.answers}}.
+ */
+@Component
+public class AnswerCache {
+
+    public static final String CACHED_MODEL_PREFIX = "cached:";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s?!.]+$");
+
+    private final boolean enabled;
+    private final int maxQuestionLength;
+    private final Cache<Key, CachedAnswer> answers;
+
+    public AnswerCache(
+            @Value("${chat.answer-cache.enabled:true}") boolean enabled,
+            @Value("${chat.answer-cache.max-size:10000}") long maxSize,
+            @Value("${chat.answer-cache.ttl:PT6H}") Duration ttl,
+            @Value("${chat.answer-cache.max-question-length:200}") int maxQuestionLength,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.maxQuestionLength = maxQuestionLength;
+        this.answers = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, answers, "chat.answers");
+    }
+
+    public record CachedAnswer(String reply, String model) {
+    }
+
+    public record Key(String question, AgeBand ageBand, Tone tone, String promptVersion) {
+    }
+
+    /**
+     * @return the key for a cacheable question, or {@code null} if it must not be cached
+     */
+    public Key key(String question, AgeBand ageBand, Tone tone, String promptVersion) {
+        if (!enabled || question == null || question.length() > maxQuestionLength) {
+            return null;
+        }
+        return new Key(normalize(question), ageBand, tone, promptVersion);
+    }
+
+    public CachedAnswer get(Key key) {
+        return key == null ? null : answers.getIfPresent(key);
+    }
+
+    public void put(Key key, String reply, String model) {
+        if (key != null) {
+            answers.put(key, new CachedAnswer(reply, model));
+        }
+    }
+
+    static String normalize(String question) {
+        String folded = Normalizer.normalize(question, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        String collapsed = WHITESPACE.matcher(folded).replaceAll(" ").strip();
+        return TRAILING_PUNCTUATION.matcher(collapsed).replaceAll("");
+    }
+}
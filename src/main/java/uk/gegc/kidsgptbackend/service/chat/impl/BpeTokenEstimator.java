@@ -0,0 +1,64 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.service.chat.TokenEstimator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Counts tokens with a local {@link BpeTokenizer} for the encoding of the configured chat
+ * model ({@code chat.tokenizer.encoding} overrides it). The tiktoken vocabulary is read
+ * from {@code chat.tokenizer.vocabulary}; by default the copy bundled with JTokkit, which
+ * Spring AI already depends on. If it cannot be loaded the estimator falls back to the
+ * {@link HeuristicTokenEstimator} rather than stopping the application.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.tokenizer.provider", havingValue = "bpe", matchIfMissing = true)
+public class BpeTokenEstimator implements TokenEstimator {
+
+    private static final Logger logger = LoggerFactory.getLogger(BpeTokenEstimator.class);
+
+    private final BpeTokenizer tokenizer;
+    private final TokenEstimator fallback = new HeuristicTokenEstimator();
+
+    public BpeTokenEstimator(
+            @Value("${spring.ai.openai.chat.options.model:gpt-4o-mini}") String model,
+            @Value("${chat.tokenizer.encoding:}") String encoding,
+            @Value("${chat.tokenizer.vocabulary:}") String vocabulary,
+            @Value("${chat.tokenizer.cache-size:8192}") int cacheSize,
+            ResourceLoader resourceLoader
+    ) {
+        BpeTokenizer.Encoding chosen = encoding.isBlank()
+                ? BpeTokenizer.Encoding.forModel(model)
+                : BpeTokenizer.Encoding.valueOf(encoding.strip().toUpperCase(Locale.ROOT));
+        String location = vocabulary.isBlank()
+                ? "classpath:com/knuddels/jtokkit/" + chosen.vocabularyName() + ".tiktoken"
+                : vocabulary;
+        this.tokenizer = load(resourceLoader.getResource(location), chosen, cacheSize);
+    }
+
+    @Override
+    public int estimate(String text) {
+        return tokenizer != null ? tokenizer.count(text) : fallback.estimate(text);
+    }
+
+    private static BpeTokenizer load(Resource resource, BpeTokenizer.Encoding encoding, int cacheSize) {
+        try (InputStream in = resource.getInputStream()) {
+            BpeTokenizer tokenizer = BpeTokenizer.load(in, encoding, cacheSize);
+            logger.info("Counting tokens with {} from {}", encoding.vocabularyName(), resource);
+            return tokenizer;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not load the {} vocabulary from {}, estimating tokens from character counts: {}",
+                    encoding.vocabularyName(), resource, e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Byte-pair encoding token counter for OpenAI's tiktoken vocabularies, giving the same
+ * counts as the API for ordinary text (special tokens are not recognised).
+ * <p>
+ * Text is split into chunks by the encoding's pre-tokenizer pattern, each chunk is
+ * UTF-8 encoded and merged pair by pair in rank order, exactly as tiktoken does. Merges
+ * never cross chunk boundaries, so the token count of a short chunk (a word with its
+ * leading space, mostly) is cached and repeated words cost a lookup. The cache is
+ * direct-mapped and unsynchronised: two threads filling the same slot simply leave one of
+ * their entries.
+ * <p>
+ * Counting allocates nothing on a cache hit: a call borrows a matcher and byte and merge
+ * buffers from a small striped pool, and ranks are looked up by byte range. The pool is
+ * keyed by thread id rather than held in a {@link ThreadLocal}, because with virtual
+ * threads every request runs on a fresh thread and per-thread buffers would never be
+ * reused; a call that finds its stripe taken allocates a buffer and drops it afterwards.
+ */
+public final class BpeTokenizer {
+
+    public enum Encoding {
+        CL100K_BASE("'(?i:[sdmt]|ll|ve|re)|[^\\r\\n\\p{L}\\p{N}]?+\\p{L}+|\\p{N}{1,3}"
+                + "| ?[^\\s\\p{L}\\p{N}]++[\\r\\n]*|\\s*[\\r\\n]|\\s+(?!\\S)|\\s+"),
+        O200K_BASE("[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+"
+                + "(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+                + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*"
+                + "(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+                + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+        private final Pattern pattern;
+
+        Encoding(String pattern) {
+            this.pattern = Pattern.compile(pattern, Pattern.UNICODE_CHARACTER_CLASS);
+        }
+
+        Pattern pattern() {
+            return pattern;
+        }
+
+        /**
+         * @return the vocabulary's usual name, e.g. {@code o200k_base}
+         */
+        public String vocabularyName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * The encoding used by an OpenAI chat model: {@code o200k_base} from GPT-4o on,
+         * {@code cl100k_base} for GPT-4 and GPT-3.5.
+         */
+        public static Encoding forModel(String model) {
+            String name = model == null ? "" : model.toLowerCase(Locale.ROOT);
+            if (name.startsWith("gpt-4o") || name.startsWith("gpt-4.1") || name.startsWith("gpt-4.5")
+                    || name.startsWith("gpt-5") || name.matches("^o\\d.*")) {
+                return O200K_BASE;
+            }
+            if (name.startsWith("gpt-4") || name.startsWith("gpt-3.5")) {
+                return CL100K_BASE;
+            }
+            return O200K_BASE;
+        }
+    }
+
+    private static final int MAX_CACHED_CHARS = 32;
+
+    private final Ranks ranks;
+    private final Entry[] cache;
+    private final int cacheMask;
+    private final Pattern pattern;
+    private final AtomicReferenceArray<Scratch> scratch;
+    private final int scratchMask;
+
+    BpeTokenizer(Ranks ranks, Pattern pattern, int cacheSize) {
+        this.ranks = ranks;
+        this.pattern = pattern;
+        int slots = Integer.highestOneBit(Math.max(1, cacheSize - 1)) << 1;
+        this.cache = new Entry[slots];
+        this.cacheMask = slots - 1;
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.scratch = new AtomicReferenceArray<>(stripes);
+        this.scratchMask = stripes - 1;
+    }
+
+    /**
+     * Reads a tiktoken rank file: one {@code <base64 token> <rank>} pair per line.
+     */
+    public static BpeTokenizer load(InputStream vocabulary, Encoding encoding, int cacheSize) throws IOException {
+        return new BpeTokenizer(Ranks.parse(vocabulary), encoding.pattern(), cacheSize);
+    }
+
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int stripe = (int) Thread.currentThread().threadId() & scratchMask;
+        Scratch buffers = scratch.getAndSet(stripe, null);
+        if (buffers == null) {
+            buffers = new Scratch(pattern.matcher(""));
+        }
+        Matcher matcher = buffers.matcher.reset(text);
+        int tokens = 0;
+        try {
+            while (matcher.find()) {
+                tokens += countChunk(text, matcher.start(), matcher.end(), buffers);
+            }
+        } finally {
+            // do not keep the caller's text reachable from the pool
+            matcher.reset("");
+            scratch.compareAndSet(stripe, null, buffers);
+        }
+        return tokens;
+    }
+
+    private int countChunk(String text, int start, int end, Scratch buffers) {
+        int length = end - start;
+        if (length > MAX_CACHED_CHARS) {
+            return merge(text, start, end, buffers);
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & cacheMask;
+        Entry entry = cache[slot];
+        if (entry != null && entry.hash == hash && entry.chunk.length() == length
+                && entry.chunk.regionMatches(0, text, start, length)) {
+            return entry.tokens;
+        }
+        int tokens = merge(text, start, end, buffers);
+        cache[slot] = new Entry(text.substring(start, end), hash, tokens);
+        return tokens;
+    }
+
+    /**
+     * tiktoken's byte pair merge: repeatedly joins the adjacent pair of parts whose
+     * concatenation has the lowest rank, until no pair is in the vocabulary.
+     */
+    private int merge(String text, int start, int end, Scratch buffers) {
+        int length = buffers.utf8(text, start, end);
+        byte[] bytes = buffers.bytes;
+        if (length == 1 || ranks.rank(bytes, 0, length) != Ranks.MISSING) {
+            return 1;
+        }
+        int parts = length + 1;
+        buffers.ensureParts(parts);
+        int[] bounds = buffers.bounds;
+        int[] pairRanks = buffers.pairRanks;
+        for (int i = 0; i < parts; i++) {
+            bounds[i] = i;
+        }
+        for (int i = 0; i < parts - 2; i++) {
+            pairRanks[i] = ranks.rank(bytes, i, i + 2);
+        }
+        pairRanks[parts - 2] = Ranks.MISSING;
+
+        while (true) {
+            int best = -1;
+            int bestRank = Ranks.MISSING;
+            for (int i = 0; i < parts - 2; i++) {
+                if (pairRanks[i] < bestRank) {
+                    bestRank = pairRanks[i];
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                return parts - 1;
+            }
+            // drop the boundary between part best and best + 1
+            System.arraycopy(bounds, best + 2, bounds, best + 1, parts - best - 2);
+            System.arraycopy(pairRanks, best + 2, pairRanks, best + 1, parts - best - 2);
+            parts--;
+            pairRanks[best] = best + 2 < parts ? ranks.rank(bytes, bounds[best], bounds[best + 2]) : Ranks.MISSING;
+            if (best > 0) {
+                pairRanks[best - 1] = ranks.rank(bytes, bounds[best - 1], bounds[best + 1]);
+            }
+        }
+    }
+
+    private record Entry(String chunk, int hash, int tokens) {
+    }
+
+    /**
+     * Buffers for one call at a time, grown on demand and never shrunk.
+     */
+    private static final class Scratch {
+        private final Matcher matcher;
+        private byte[] bytes = new byte[128];
+        private int[] bounds = new int[129];
+        private int[] pairRanks = new int[129];
+
+        Scratch(Matcher matcher) {
+            this.matcher = matcher;
+        }
+
+        /**
+         * Encodes {@code text[start, end)} into {@link #bytes}; an unpaired surrogate
+         * becomes {@code ?}, as {@link String#getBytes} does.
+         *
+         * @return the number of bytes written
+         */
+        int utf8(String text, int start, int end) {
+            int needed = (end - start) * 3;
+            if (bytes.length < needed) {
+                bytes = new byte[Math.max(needed, bytes.length * 2)];
+            }
+            byte[] out = bytes;
+            int n = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    out[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    out[n++] = (byte) (0xC0 | (c >> 6));
+                    out[n++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, text.charAt(++i));
+                    out[n++] = (byte) (0xF0 | (cp >> 18));
+                    out[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    out[n++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    out[n++] = '?';
+                } else {
+                    out[n++] = (byte) (0xE0 | (c >> 12));
+                    out[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    out[n++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return n;
+        }
+
+        void ensureParts(int parts) {
+            if (bounds.length < parts) {
+                int size = Math.max(parts, bounds.length * 2);
+                bounds = new int[size];
+                pairRanks = new int[size];
+            }
+        }
+    }
+
+    /**
+     * Token byte sequences to merge ranks, in an open-addressing table probed by byte
+     * range so that lookups need no key object.
+     */
+    static final class Ranks {
+        static final int MISSING = Integer.MAX_VALUE;
+
+        private final byte[][] keys;
+        private final int[] values;
+        private final int mask;
+
+        Ranks(List<byte[]> tokens, List<Integer> ranks) {
+            int capacity = Integer.highestOneBit(Math.max(2, tokens.size() * 2 - 1)) << 1;
+            this.keys = new byte[capacity][];
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+            for (int i = 0; i < tokens.size(); i++) {
+                byte[] key = tokens.get(i);
+                int slot = hash(key, 0, key.length) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = ranks.get(i);
+            }
+        }
+
+        static Ranks parse(InputStream in) throws IOException {
+            List<byte[]> tokens = new ArrayList<>();
+            List<Integer> ranks = new ArrayList<>();
+            Base64.Decoder decoder = Base64.getDecoder();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    int space = line.indexOf(' ');
+                    if (space < 0) {
+                        throw new IOException("Expected '<base64 token> <rank>' in vocabulary: " + line);
+                    }
+                    tokens.add(decoder.decode(line.substring(0, space)));
+                    ranks.add(Integer.parseInt(line.substring(space + 1).strip()));
+                }
+            }
+            if (tokens.isEmpty()) {
+                throw new IOException("Empty vocabulary");
+            }
+            return new Ranks(tokens, ranks);
+        }
+
+        int rank(byte[] bytes, int from, int to) {
+            int length = to - from;
+            int slot = hash(bytes, from, to) & mask;
+            byte[] key;
+            while ((key = keys[slot]) != null) {
+                if (key.length == length && Arrays.equals(key, 0, length, bytes, from, to)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return MISSING;
+        }
+
+        private static int hash(byte[] bytes, int from, int to) {
+            int h = 0x811C9DC5;
+            for (int i = from; i < to; i++) {
+                h = (h ^ bytes[i]) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry;
+import uk.gegc.kidsgptbackend.model.chat.ChatSummary;
+import uk.gegc.kidsgptbackend.repository.chat.ChatContextRepository;
+import uk.gegc.kidsgptbackend.repository.chat.ChatMessageRepository;
+import uk.gegc.kidsgptbackend.service.chat.TokenEstimator;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Builds the conversation history sent with a turn: the context's rolling summary (see
+ * {@link ConversationSummarizer}) followed by the most recent messages it does not cover,
+ * newest first, for as long as they fit the token budget of the model (and at most
+ * {@code chat.history.max-messages}), returned in chronological order. Messages are read
+ * in keyset pages, so the cost depends on the budget and not on how long the conversation
+ * has been going.
+ */
+@Component
+public class ChatHistoryAssembler {
+
+    static final int PAGE_SIZE = 16;
+    static final String SUMMARY_PREFIX = "Summary of the earlier conversation: ";
+    private static final UUID MAX_ID = new UUID(-1L, -1L);
+
+    private final ChatContextRepository contextRepository;
+    private final ChatMessageRepository messageRepository;
+    private final TokenEstimator tokenEstimator;
+    private final int defaultBudget;
+    private final Map<String, Integer> modelBudgets;
+    private final int maxMessages;
+
+    public ChatHistoryAssembler(
+            ChatContextRepository contextRepository,
+            ChatMessageRepository messageRepository,
+            TokenEstimator tokenEstimator,
+            @Value("${chat.history.token-budget:1500}") int defaultBudget,
+            @Value("${chat.history.model-budgets:}") String modelBudgets,
+            @Value("${chat.history.max-messages:40}") int maxMessages
+    ) {
+        this.contextRepository = contextRepository;
+        this.messageRepository = messageRepository;
+        this.tokenEstimator = tokenEstimator;
+        this.defaultBudget = defaultBudget;
+        this.modelBudgets = parseBudgets(modelBudgets);
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * @param before only messages created before this instant are considered, which keeps
+     *               the turn's own user message out of its history
+     */
+    public List<Message> recentHistory(String username, UUID contextId, LocalDateTime before, String model) {
+        if (contextId == null) {
+            return List.of();
+        }
+        ChatSummary summary = contextRepository.findSummary(contextId, username).orElse(null);
+        if (summary == null) {
+            return List.of(); // unknown or someone else's context; openTurn rejects it
+        }
+        int budget = budgetFor(model);
+        int used = 0;
+        Message summaryMessage = null;
+        if (summary.text() != null) {
+            summaryMessage = new SystemMessage(SUMMARY_PREFIX + summary.text());
+            used = tokenEstimator.estimateMessage(summaryMessage.getText());
+        }
+
+        List<ChatHistoryEntry> newestFirst = new ArrayList<>();
+        LocalDateTime cursorTime = before;
+        UUID cursorId = MAX_ID;
+        page:
+        while (newestFirst.size() < maxMessages) {
+            int pageSize = Math.min(PAGE_SIZE, maxMessages - newestFirst.size());
+            List<ChatHistoryEntry> page = messageRepository.findHistoryBetween(contextId,
+                    summary.afterTime(), summary.afterId(), cursorTime, cursorId, Limit.of(pageSize));
+            for (ChatHistoryEntry entry : page) {
+                int cost = tokenEstimator.estimateMessage(entry.content());
+                if (used + cost > budget) {
+                    break page;
+                }
+                used += cost;
+                newestFirst.add(entry);
+            }
+            if (page.size() < pageSize) {
+                break;
+            }
+            ChatHistoryEntry last = page.get(page.size() - 1);
+            cursorTime = last.createdAt();
+            cursorId = last.id();
+        }
+        Collections.reverse(newestFirst);
+        List<Message> history = new ArrayList<>(newestFirst.size() + 1);
+        if (summaryMessage != null) {
+            history.add(summaryMessage);
+        }
+        newestFirst.forEach(entry -> history.add(toMessage(entry)));
+        return history;
+    }
+
+    int budgetFor(String model) {
+        return model == null ? defaultBudget : modelBudgets.getOrDefault(model, defaultBudget);
+    }
+
+    private static Message toMessage(ChatHistoryEntry entry) {
+        return "ASSISTANT".equals(entry.role())
+                ? new AssistantMessage(entry.content())
+                : new UserMessage(entry.content());
+    }
+
+    /**
+     * Parses {@code model=tokens} pairs separated by commas.
+     */
+    static Map<String, Integer> parseBudgets(String spec) {
+        Map<String, Integer> budgets = new HashMap<>();
+        for (String pair : spec.split(",")) {
+            if (pair.isBlank()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected model=tokens in chat.history.model-budgets: " + pair);
+            }
+            budgets.put(pair.substring(0, eq).strip(), Integer.parseInt(pair.substring(eq + 1).strip()));
+        }
+        return Map.copyOf(budgets);
+    }
+}
@@ -0,0 +1,71 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Per-stage latency of a chat turn, published as {@code kidsgpt.chat.stage{stage=...}}.
+ * The {@code prepare} stage is the wall-clock time of the concurrent pre-processing
+ * fan-out, so it can be compared against the sum of the individual branches.
+ */
+@Component
+public class ChatStageMetrics {
+
+    public static final String METRIC = "kidsgpt.chat.stage";
+    public static final String SPECULATION_METRIC = "kidsgpt.chat.speculative";
+    public static final String COALESCED_METRIC = "kidsgpt.chat.coalesced";
+    public static final String PROMPT_TOKENS_METRIC = "kidsgpt.chat.prompt_tokens";
+
+    private final MeterRegistry registry;
+
+    public ChatStageMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public <T> T time(String stage, Supplier<T> body) {
+        return timer(stage).record(body);
+    }
+
+    public void run(String stage, Runnable body) {
+        timer(stage).record(body);
+    }
+
+    public void record(String stage, long nanos) {
+        timer(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts speculative LLM calls by outcome: {@code used} or {@code discarded}.
+     */
+    public void speculation(String outcome) {
+        registry.counter(SPECULATION_METRIC, "outcome", outcome).increment();
+    }
+
+    /**
+     * Counts first turns that shared an identical in-flight turn's LLM call.
+     */
+    public void coalesced() {
+        registry.counter(COALESCED_METRIC).increment();
+    }
+
+    /**
+     * Records the estimated size of a prompt about to be sent.
+     */
+    public void promptTokens(int tokens) {
+        DistributionSummary.builder(PROMPT_TOKENS_METRIC)
+                .baseUnit("tokens")
+                .register(registry)
+                .record(tokens);
+    }
+
+    private Timer timer(String stage) {
+        return Timer.builder(METRIC)
+                .tag("stage", stage)
+                .register(registry);
+    }
+}
@@ -0,0 +1,61 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import uk.gegc.kidsgptbackend.model.chat.ChatContext;
+import uk.gegc.kidsgptbackend.model.chat.ChatMessage;
+import uk.gegc.kidsgptbackend.repository.chat.ChatContextRepository;
+import uk.gegc.kidsgptbackend.repository.chat.ChatMessageRepository;
+import uk.gegc.kidsgptbackend.service.chat.ChatTranscriptService;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Service
+@RequiredArgsConstructor
+public class ChatTranscriptServiceImpl implements ChatTranscriptService {
+
+    private final ChatContextRepository contextRepository;
+    private final ChatMessageRepository messageRepository;
+
+    @Override
+    @Transactional
+    public ChatContext openTurn(String username, UUID contextId, String message) {
+        ChatContext context = resolveContext(username, contextId);
+        saveMessage(context, "USER", message);
+        return context;
+    }
+
+    @Override
+    @Transactional
+    public void recordReply(ChatContext context, String reply) {
+        saveMessage(context, "ASSISTANT", reply);
+    }
+
+    @Override
+    @Transactional
+    public void recordSummary(UUID contextId, String summary, LocalDateTime until, UUID untilMessageId) {
+        contextRepository.updateSummary(contextId, summary, until, untilMessageId);
+    }
+
+    private ChatContext resolveContext(String username, UUID contextId) {
+        if (contextId != null) {
+            // another user's context is reported exactly like a missing one
+            return contextRepository.findByIdAndUsername(contextId, username)
+                    .orElseThrow(() -> new IllegalArgumentException("Context not found"));
+        }
+        ChatContext context = new ChatContext();
+        context.setUsername(username);
+        contextRepository.save(context);
+        return context;
+    }
+
+    private void saveMessage(ChatContext context, String role, String content) {
+        ChatMessage message = new ChatMessage();
+        message.setContext(context);
+        message.setRole(role);
+        message.setContent(content);
+        messageRepository.save(message);
+    }
+}
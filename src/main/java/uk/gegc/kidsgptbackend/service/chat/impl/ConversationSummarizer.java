@@ -0,0 +1,168 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry;
+import uk.gegc.kidsgptbackend.model.chat.ChatSummary;
+import uk.gegc.kidsgptbackend.repository.chat.ChatContextRepository;
+import uk.gegc.kidsgptbackend.repository.chat.ChatMessageRepository;
+import uk.gegc.kidsgptbackend.service.chat.ChatTranscriptService;
+import uk.gegc.kidsgptbackend.service.chat.SummaryModel;
+import uk.gegc.kidsgptbackend.service.chat.TokenEstimator;
+import uk.gegc.kidsgptbackend.service.moderation.ModerationService;
+import uk.gegc.kidsgptbackend.service.usage.UsageLedger;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folds the older part of long conversations into {@link uk.gegc.kidsgptbackend.model.chat.ChatContext#getSummary()}
+ * in the background. Once the messages not yet covered by the summary cost more than
+ * {@code trigger-tokens}, everything except the newest {@code keep-recent-tokens} is
+ * summarised together with the previous summary.
+ * <p>
+ * A model-written summary is moderated before it is saved, and the tokens it cost are
+ * charged to the context's owner like any other turn.
+ * <p>
+ * Requests for the same context coalesce: while a context is queued or being summarised,
+ * further requests only mark it dirty so that it is checked once more afterwards.
+ */
+@Component
+public class ConversationSummarizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationSummarizer.class);
+    static final int MAX_PENDING_MESSAGES = 200;
+
+    private final ChatContextRepository contextRepository;
+    private final ChatMessageRepository messageRepository;
+    private final ChatTranscriptService transcriptService;
+    private final SummaryModel summaryModel;
+    private final TokenEstimator tokenEstimator;
+    private final ModerationService moderationService;
+    private final UsageLedger usageLedger;
+    private final boolean enabled;
+    private final int triggerTokens;
+    private final int keepRecentTokens;
+    private final ThreadPoolExecutor executor;
+
+    /** context and its owner -> dirty; present while the context is queued or running */
+    private final ConcurrentHashMap<Target, Boolean> scheduled = new ConcurrentHashMap<>();
+
+    private record Target(UUID contextId, String username) {
+    }
+
+    public ConversationSummarizer(
+            ChatContextRepository contextRepository,
+            ChatMessageRepository messageRepository,
+            ChatTranscriptService transcriptService,
+            SummaryModel summaryModel,
+            TokenEstimator tokenEstimator,
+            ModerationService moderationService,
+            UsageLedger usageLedger,
+            @Value("${chat.summary.enabled:true}") boolean enabled,
+            @Value("${chat.summary.trigger-tokens:2000}") int triggerTokens,
+            @Value("${chat.summary.keep-recent-tokens:600}") int keepRecentTokens,
+            @Value("${chat.summary.threads:2}") int threads
+    ) {
+        this.contextRepository = contextRepository;
+        this.messageRepository = messageRepository;
+        this.transcriptService = transcriptService;
+        this.summaryModel = summaryModel;
+        this.tokenEstimator = tokenEstimator;
+        this.moderationService = moderationService;
+        this.usageLedger = usageLedger;
+        this.enabled = enabled;
+        this.triggerTokens = triggerTokens;
+        this.keepRecentTokens = keepRecentTokens;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1024), new CustomizableThreadFactory("chat-summary-"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Asks for the context to be checked after a turn of {@code username}; returns
+     * immediately. Nothing happens unless the context belongs to that user, whose budget
+     * the summary is charged to.
+     */
+    public void requestSummary(UUID contextId, String username) {
+        if (!enabled || contextId == null || username == null) {
+            return;
+        }
+        Target target = new Target(contextId, username);
+        if (scheduled.put(target, Boolean.TRUE) != null) {
+            return; // already queued or running; it will look again
+        }
+        try {
+            executor.execute(() -> drain(target));
+        } catch (RejectedExecutionException e) {
+            scheduled.remove(target);
+            logger.debug("Summary queue full, skipping context {}", contextId);
+        }
+    }
+
+    private void drain(Target target) {
+        do {
+            scheduled.put(target, Boolean.FALSE);
+            try {
+                summarizeIfNeeded(target.contextId(), target.username());
+            } catch (Exception e) {
+                logger.warn("Could not summarise context {}", target.contextId(), e);
+            }
+        } while (!scheduled.remove(target, Boolean.FALSE));
+    }
+
+    void summarizeIfNeeded(UUID contextId, String username) {
+        ChatSummary state = contextRepository.findSummary(contextId, username).orElse(null);
+        if (state == null) {
+            return;
+        }
+        List<ChatHistoryEntry> pending = messageRepository.findHistoryAfter(
+                contextId, state.afterTime(), state.afterId(), Limit.of(MAX_PENDING_MESSAGES));
+        int[] costs = pending.stream().mapToInt(m -> tokenEstimator.estimateMessage(m.content())).toArray();
+        int total = 0;
+        for (int cost : costs) {
+            total += cost;
+        }
+        if (total < triggerTokens) {
+            return;
+        }
+        int cut = pending.size();
+        int tail = 0;
+        while (cut > 0 && tail + costs[cut - 1] <= keepRecentTokens) {
+            tail += costs[--cut];
+        }
+        if (cut == 0) {
+            return;
+        }
+        List<ChatHistoryEntry> older = pending.subList(0, cut);
+        SummaryModel.Summary summary = summaryModel.summarize(state.text(), older);
+        if (summary.tokensUsed() > 0) {
+            usageLedger.record(username, summary.tokensUsed());
+        }
+        String text = summary.text();
+        if (!moderationService.isSafe(text)) {
+            // keep the old summary but still move past these messages, so the same
+            // batch is not re-summarised (and re-charged) after every turn
+            logger.warn("Flagged summary for context {} discarded", contextId);
+            text = state.text();
+        }
+        ChatHistoryEntry last = older.get(older.size() - 1);
+        transcriptService.recordSummary(contextId, text, last.createdAt(), last.id());
+        logger.debug("Summarised {} messages of context {}", older.size(), contextId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
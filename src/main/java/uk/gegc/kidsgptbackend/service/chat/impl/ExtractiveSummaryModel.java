@@ -0,0 +1,62 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry;
+import uk.gegc.kidsgptbackend.service.chat.SummaryModel;
+
+import java.util.List;
+
+/**
+ * Local, deterministic stand-in for {@link LlmSummaryModel}: keeps the first sentence of
+ * each message and, once over {@code chat.summary.max-chars}, drops the oldest text.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.summary.provider", havingValue = "local")
+public class ExtractiveSummaryModel implements SummaryModel {
+
+    private static final int MAX_SENTENCE_CHARS = 160;
+
+    private final int maxChars;
+
+    public ExtractiveSummaryModel(@Value("${chat.summary.max-chars:1200}") int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    @Override
+    public Summary summarize(String previousSummary, List<ChatHistoryEntry> messages) {
+        StringBuilder sb = new StringBuilder();
+        if (previousSummary != null) {
+            sb.append(previousSummary);
+        }
+        for (ChatHistoryEntry message : messages) {
+            if (!sb.isEmpty()) {
+                sb.append(' ');
+            }
+            sb.append("ASSISTANT".equals(message.role()) ? "KidsGPT said: " : "The child said: ")
+                    .append(firstSentence(message.content()));
+        }
+        if (sb.length() <= maxChars) {
+            return new Summary(sb.toString(), 0);
+        }
+        int start = sb.length() - maxChars;
+        int space = sb.indexOf(" ", start);
+        return new Summary(sb.substring(space >= 0 && space < sb.length() - 1 ? space + 1 : start), 0);
+    }
+
+    private static String firstSentence(String text) {
+        String stripped = text.strip();
+        int end = stripped.length();
+        for (int i = 0; i < stripped.length(); i++) {
+            char c = stripped.charAt(i);
+            if (c == '.' || c == '!' || c == '?' || c == '\n') {
+                end = i + 1;
+                break;
+            }
+        }
+        end = Math.min(end, MAX_SENTENCE_CHARS);
+        String sentence = stripped.substring(0, end).strip();
+        return sentence.endsWith(".") || sentence.endsWith("!") || sentence.endsWith("?") ? sentence : sentence + ".";
+    }
+}
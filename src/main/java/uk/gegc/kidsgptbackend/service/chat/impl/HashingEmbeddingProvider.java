@@ -0,0 +1,64 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.service.chat.EmbeddingProvider;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic local stand-in for an embedding model: words and their character
+ * trigrams are hashed into signed buckets (the "hashing trick"). It captures shared
+ * vocabulary and spelling variants ("color"/"colour") but not synonyms, so it needs a
+ * higher similarity threshold than a real model. No API calls; used in tests and offline.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.semantic-cache.provider", havingValue = "local")
+public class HashingEmbeddingProvider implements EmbeddingProvider {
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "the", "is", "are", "s", "of", "to", "do", "does");
+    private static final float TRIGRAM_WEIGHT = 0.5f;
+
+    private final int dimensions;
+
+    public HashingEmbeddingProvider(@Value("${chat.semantic-cache.dimensions:256}") int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        for (String word : NON_WORD.split(AnswerCache.normalize(text))) {
+            if (word.isEmpty() || STOP_WORDS.contains(word)) {
+                continue;
+            }
+            add(vector, word, 1f);
+            String padded = "#" + word + "#";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                add(vector, padded.substring(i, i + 3), TRIGRAM_WEIGHT);
+            }
+        }
+        return EmbeddingProvider.normalize(vector);
+    }
+
+    private void add(float[] vector, String feature, float weight) {
+        int hash = mix(feature.hashCode());
+        vector[Math.floorMod(hash, dimensions)] += (hash & 0x8000_0000) == 0 ? weight : -weight;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85eb_ca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2_ae35;
+        return h ^ (h >>> 16);
+    }
+}
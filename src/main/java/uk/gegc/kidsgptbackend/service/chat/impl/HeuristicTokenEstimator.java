@@ -0,0 +1,24 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.service.chat.TokenEstimator;
+
+/**
+ * Character-count estimate (about four characters per token for English text). Cheap and
+ * deliberately rounded up, so budgets err on the side of sending less. Used with
+ * {@code chat.tokenizer.provider=heuristic}, and by {@link BpeTokenEstimator} when no
+ * vocabulary is available.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.tokenizer.provider", havingValue = "heuristic")
+public class HeuristicTokenEstimator implements TokenEstimator {
+
+    @Override
+    public int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return (text.length() + 3) / 4;
+    }
+}
@@ -0,0 +1,194 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Hierarchical navigable small world graph (Malkov &amp; Yashunin) for approximate
+ * maximum-inner-product search over unit vectors. The graph only stores links; vectors
+ * are read through {@link Vectors} so they can live off-heap.
+ * <p>
+ * Not thread-safe: concurrent {@link #search} calls are fine, but {@link #add} must be
+ * guarded by the caller.
+ */
+final class HnswGraph {
+
+    interface Vectors {
+        float similarity(int node, float[] query);
+
+        float[] vector(int node);
+    }
+
+    record Match(int node, float similarity) {
+    }
+
+    private static final Comparator<Match> WORST_FIRST = Comparator.comparingDouble(Match::similarity);
+    private static final Comparator<Match> BEST_FIRST = WORST_FIRST.reversed();
+    private static final int MAX_LEVEL = 16;
+
+    private final Vectors vectors;
+    private final int m;
+    private final int efConstruction;
+    private final double levelFactor;
+    private final SplittableRandom random;
+    private final Map<Integer, Node> nodes = new HashMap<>();
+    private int entryPoint = -1;
+    private int topLevel = -1;
+
+    HnswGraph(Vectors vectors, int m, int efConstruction, long seed) {
+        this.vectors = vectors;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levelFactor = 1 / Math.log(m);
+        this.random = new SplittableRandom(seed);
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    void add(int id) {
+        float[] vector = vectors.vector(id);
+        int level = Math.min(MAX_LEVEL, (int) (-Math.log(1 - random.nextDouble()) * levelFactor));
+        nodes.put(id, new Node(level, m));
+        if (entryPoint < 0) {
+            entryPoint = id;
+            topLevel = level;
+            return;
+        }
+        int current = entryPoint;
+        for (int l = topLevel; l > level; l--) {
+            current = greedy(vector, current, l);
+        }
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            List<Match> candidates = searchLayer(vector, current, efConstruction, l);
+            for (Match neighbour : candidates.subList(0, Math.min(capacity(l), candidates.size()))) {
+                connect(id, neighbour.node(), l, vector);
+                connect(neighbour.node(), id, l, null);
+            }
+            current = candidates.get(0).node();
+        }
+        if (level > topLevel) {
+            entryPoint = id;
+            topLevel = level;
+        }
+    }
+
+    /**
+     * @return up to {@code k} nodes, most similar first
+     */
+    List<Match> search(float[] query, int k, int ef) {
+        if (entryPoint < 0) {
+            return List.of();
+        }
+        int current = entryPoint;
+        for (int l = topLevel; l > 0; l--) {
+            current = greedy(query, current, l);
+        }
+        List<Match> found = searchLayer(query, current, Math.max(ef, k), 0);
+        return found.subList(0, Math.min(k, found.size()));
+    }
+
+    private int greedy(float[] query, int start, int level) {
+        int current = start;
+        float best = vectors.similarity(current, query);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            Node node = nodes.get(current);
+            for (int i = 0; i < node.sizes[level]; i++) {
+                int candidate = node.links[level][i];
+                float similarity = vectors.similarity(candidate, query);
+                if (similarity > best) {
+                    best = similarity;
+                    current = candidate;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private List<Match> searchLayer(float[] query, int entry, int ef, int level) {
+        BitSet visited = new BitSet();
+        PriorityQueue<Match> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Match> results = new PriorityQueue<>(WORST_FIRST);
+        Match start = new Match(entry, vectors.similarity(entry, query));
+        visited.set(entry);
+        candidates.add(start);
+        results.add(start);
+        while (!candidates.isEmpty()) {
+            Match closest = candidates.poll();
+            if (results.size() >= ef && closest.similarity() < results.peek().similarity()) {
+                break;
+            }
+            Node node = nodes.get(closest.node());
+            for (int i = 0; i < node.sizes[level]; i++) {
+                int neighbour = node.links[level][i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float similarity = vectors.similarity(neighbour, query);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Match match = new Match(neighbour, similarity);
+                    candidates.add(match);
+                    results.add(match);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Match> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * Adds a link {@code from -> to}; when {@code from} is full, keeps its closest links.
+     */
+    private void connect(int from, int to, int level, float[] fromVector) {
+        Node node = nodes.get(from);
+        int[] links = node.links[level];
+        int size = node.sizes[level];
+        if (size < capacity(level)) {
+            links[size] = to;
+            node.sizes[level] = size + 1;
+            return;
+        }
+        float[] origin = fromVector != null ? fromVector : vectors.vector(from);
+        List<Match> all = new ArrayList<>(size + 1);
+        for (int i = 0; i < size; i++) {
+            all.add(new Match(links[i], vectors.similarity(links[i], origin)));
+        }
+        all.add(new Match(to, vectors.similarity(to, origin)));
+        all.sort(BEST_FIRST);
+        for (int i = 0; i < size; i++) {
+            links[i] = all.get(i).node();
+        }
+    }
+
+    private int capacity(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private static final class Node {
+        final int[][] links;
+        final int[] sizes;
+
+        Node(int level, int m) {
+            links = new int[level + 1][];
+            sizes = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[l == 0 ? 2 * m : m];
+            }
+        }
+    }
+}
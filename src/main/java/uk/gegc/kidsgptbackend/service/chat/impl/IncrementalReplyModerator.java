@@ -0,0 +1,126 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import uk.gegc.kidsgptbackend.service.moderation.ModerationService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moderates a streamed reply while it is still being generated. Deltas are buffered into
+ * sentence-sized segments (or a window of at most {@code max-segment-chars} when the model
+ * does not end a sentence) and each segment is moderated as soon as it is complete,
+ * together with the segment before it so that content split across a boundary is still
+ * seen. Up to {@code concurrency} segments are moderated at once while generation carries
+ * on; verdicts are released strictly in reply order.
+ */
+@Component
+public class IncrementalReplyModerator {
+
+    private final ModerationService moderationService;
+    private final int minSegmentChars;
+    private final int maxSegmentChars;
+    private final int concurrency;
+
+    public IncrementalReplyModerator(
+            ModerationService moderationService,
+            @Value("${chat.stream.moderation.min-segment-chars:40}") int minSegmentChars,
+            @Value("${chat.stream.moderation.max-segment-chars:400}") int maxSegmentChars,
+            @Value("${chat.stream.moderation.concurrency:2}") int concurrency
+    ) {
+        this.moderationService = moderationService;
+        this.minSegmentChars = minSegmentChars;
+        this.maxSegmentChars = maxSegmentChars;
+        this.concurrency = concurrency;
+    }
+
+    public record Segment(String text, boolean safe) {
+    }
+
+    /**
+     * @return the reply as moderated segments in order; callers should stop releasing text
+     * at the first segment that is not {@link Segment#safe() safe}
+     */
+    public Flux<Segment> moderate(Flux<String> deltas) {
+        return Flux.defer(() -> {
+            Segmenter segmenter = new Segmenter(minSegmentChars, maxSegmentChars);
+            Flux<String> segments = deltas
+                    .concatMapIterable(segmenter::append)
+                    .concatWith(Mono.fromSupplier(segmenter::flush));
+            StringBuilder previous = new StringBuilder();
+            return segments
+                    .map(segment -> {
+                        String window = previous + segment;
+                        previous.setLength(0);
+                        previous.append(segment);
+                        return new Window(segment, window);
+                    })
+                    .flatMapSequential(window -> Mono.fromCallable(
+                                            () -> new Segment(window.segment(), moderationService.isSafe(window.text())))
+                                    .subscribeOn(Schedulers.boundedElastic()),
+                            concurrency);
+        });
+    }
+
+    private record Window(String segment, String text) {
+    }
+
+    /**
+     * Splits text at sentence ends once at least {@code min} characters are buffered, or at
+     * the last whitespace before {@code max} characters when no sentence end arrives.
+     */
+    static final class Segmenter {
+
+        private final int min;
+        private final int max;
+        private final StringBuilder buffer = new StringBuilder();
+
+        Segmenter(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        List<String> append(String delta) {
+            buffer.append(delta);
+            List<String> out = new ArrayList<>(1);
+            int cut;
+            while ((cut = nextCut()) > 0) {
+                out.add(buffer.substring(0, cut));
+                buffer.delete(0, cut);
+            }
+            return out;
+        }
+
+        /**
+         * @return what is left in the buffer, or {@code null} (no element) when empty
+         */
+        String flush() {
+            if (buffer.isEmpty()) {
+                return null;
+            }
+            String rest = buffer.toString();
+            buffer.setLength(0);
+            return rest;
+        }
+
+        private int nextCut() {
+            for (int i = Math.max(min - 1, 0); i < buffer.length() && i < max; i++) {
+                char c = buffer.charAt(i);
+                if ((c == '.' || c == '!' || c == '?' || c == '\n')
+                        && (i + 1 == buffer.length() || Character.isWhitespace(buffer.charAt(i + 1)))) {
+                    // a terminator at the very end may still be followed by more (e.g. "...")
+                    return i + 1 == buffer.length() ? 0 : i + 1;
+                }
+            }
+            if (buffer.length() < max) {
+                return 0;
+            }
+            int space = buffer.lastIndexOf(" ", max - 1);
+            return space > 0 ? space + 1 : max;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Hedged requests for blocking LLM calls: if the call has not answered within the
+ * {@code chat.hedging.percentile} of recent call latencies, an identical second call is
+ * started and whichever answers first is used; the other is cancelled (its thread is
+ * interrupted, which aborts the blocking HTTP exchange).
+ * <p>
+ * Hedges are paid for from a budget that every call tops up by
+ * {@code chat.hedging.budget-ratio} of a hedge, so they never add more than that share of
+ * extra upstream requests, even when everything is slow during an incident.
+ * <p>
+ * Calls run on a pool owned by this class with no queue: when it is full the call simply
+ * runs on the caller's thread, unhedged, instead of waiting for a slot. With
+ * {@code spring.threads.virtual.enabled} the pool's threads are virtual; the pool size
+ * still caps how many calls are in flight.
+ */
+@Component
+public class LlmHedger {
+
+    private static final long BUDGET_UNIT = 1000;
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long budgetPerCall;
+    private final long budgetCap;
+    private final int minSamples;
+    private final ThreadPoolExecutor executor;
+
+    private final long[] latencies;
+    private final AtomicLong samples = new AtomicLong();
+    private volatile long hedgeDelayNanos = -1;
+    private final AtomicLong budget;
+
+    private final Counter fired;
+    private final Counter won;
+    private final Counter skipped;
+
+    public LlmHedger(
+            @Value("${chat.hedging.enabled:false}") boolean enabled,
+            @Value("${chat.hedging.percentile:95}") double percentile,
+            @Value("${chat.hedging.min-delay:PT1S}") Duration minDelay,
+            @Value("${chat.hedging.budget-ratio:0.05}") double budgetRatio,
+            @Value("${chat.hedging.budget-burst:10}") int budgetBurst,
+            @Value("${chat.hedging.window:512}") int window,
+            @Value("${chat.hedging.min-samples:50}") int minSamples,
+            @Value("${chat.hedging.pool-size:64}") int poolSize,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelayNanos = minDelay.toNanos();
+        this.budgetPerCall = Math.round(budgetRatio * BUDGET_UNIT);
+        this.budgetCap = (long) budgetBurst * BUDGET_UNIT;
+        this.budget = new AtomicLong(budgetCap);
+        this.minSamples = Math.min(minSamples, window);
+        this.latencies = new long[window];
+        this.executor = enabled
+                ? new ThreadPoolExecutor(0, poolSize, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                virtualThreads ? Thread.ofVirtual().name("llm-call-", 0).factory() : new CustomizableThreadFactory("llm-call-"),
+                new ThreadPoolExecutor.AbortPolicy())
+                : null;
+        this.fired = meterRegistry.counter("kidsgpt.chat.hedges.fired");
+        this.won = meterRegistry.counter("kidsgpt.chat.hedges.won");
+        this.skipped = meterRegistry.counter("kidsgpt.chat.hedges.skipped");
+        Gauge.builder("kidsgpt.chat.hedges.delay", this, h -> h.hedgeDelayNanos / 1e6)
+                .description("Milliseconds a call may take before it is hedged (-1 while warming up)")
+                .register(meterRegistry);
+    }
+
+    public <T> T call(Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        earn();
+        long delay = hedgeDelayNanos;
+        if (delay < 0) {
+            return timed(call);
+        }
+        Race<T> race = new Race<>();
+        Future<?> primary;
+        try {
+            primary = race.start(call, false);
+        } catch (RejectedExecutionException e) {
+            return timed(call);
+        }
+        Future<?> hedge = null;
+        try {
+            try {
+                return race.result(delay).value();
+            } catch (TimeoutException e) {
+                // no answer within the usual latency; try a second call if the budget allows
+            }
+            if (!race.done() && spend()) {
+                try {
+                    hedge = race.start(call, true);
+                    fired.increment();
+                } catch (RejectedExecutionException e) {
+                    refund();
+                    skipped.increment();
+                }
+            } else if (!race.done()) {
+                skipped.increment();
+            }
+            Outcome<T> outcome = race.result();
+            if (outcome.hedge()) {
+                won.increment();
+            }
+            return outcome.value();
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return nanos a call may run before it is hedged, or -1 until enough calls have been seen
+     */
+    long hedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private <T> T timed(Supplier<T> call) {
+        long started = System.nanoTime();
+        T value = call.get();
+        record(System.nanoTime() - started);
+        return value;
+    }
+
+    /**
+     * Unsynchronised on purpose: two calls finishing together may overwrite each other's
+     * slot, which costs one sample out of a window of hundreds.
+     */
+    private void record(long latencyNanos) {
+        long n = samples.getAndIncrement();
+        latencies[(int) (n % latencies.length)] = latencyNanos;
+        if (n + 1 >= minSamples && (n + 1) % RECOMPUTE_EVERY == 0) {
+            int size = (int) Math.min(n + 1, latencies.length);
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.min(size - 1, Math.ceil(percentile / 100.0 * size) - 1);
+            hedgeDelayNanos = Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+        }
+    }
+
+    private void earn() {
+        budget.accumulateAndGet(budgetPerCall, (current, add) -> Math.min(budgetCap, current + add));
+    }
+
+    private boolean spend() {
+        while (true) {
+            long current = budget.get();
+            if (current < BUDGET_UNIT) {
+                return false;
+            }
+            if (budget.compareAndSet(current, current - BUDGET_UNIT)) {
+                return true;
+            }
+        }
+    }
+
+    private void refund() {
+        budget.accumulateAndGet(BUDGET_UNIT, (current, add) -> Math.min(budgetCap, current + add));
+    }
+
+    private record Outcome<T>(T value, boolean hedge) {
+    }
+
+    /**
+     * The first attempt to succeed completes the race; it only fails once every attempt
+     * started has failed, with the first error seen.
+     */
+    private final class Race<T> {
+        private final CompletableFuture<Outcome<T>> winner = new CompletableFuture<>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+
+        Future<?> start(Supplier<T> call, boolean hedge) {
+            running.incrementAndGet();
+            try {
+                return executor.submit(() -> {
+                    long started = System.nanoTime();
+                    try {
+                        T value = call.get();
+                        record(System.nanoTime() - started);
+                        winner.complete(new Outcome<>(value, hedge));
+                    } catch (Throwable e) {
+                        firstError.compareAndSet(null, e);
+                        if (running.decrementAndGet() == 0) {
+                            winner.completeExceptionally(firstError.get());
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.decrementAndGet();
+                throw e;
+            }
+        }
+
+        boolean done() {
+            return winner.isDone();
+        }
+
+        Outcome<T> result() {
+            try {
+                return winner.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the LLM", e);
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+
+        Outcome<T> result(long timeoutNanos) throws TimeoutException {
+            try {
+                return winner.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the LLM", e);
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+
+        private RuntimeException unwrap(ExecutionException e) {
+            return e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry;
+import uk.gegc.kidsgptbackend.service.chat.SummaryModel;
+
+import java.util.List;
+
+/**
+ * Summarises with a (cheap) chat model, {@code chat.summary.model}.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.summary.provider", havingValue = "llm", matchIfMissing = true)
+public class LlmSummaryModel implements SummaryModel {
+
+    private static final String INSTRUCTIONS = """
+            You summarise a conversation between a child and KidsGPT for KidsGPT's own memory.
+            Keep the child's name, interests, facts they shared and any open questions.
+            Write plain third-person sentences, no more than %d words.""";
+
+    private final ChatClient chatClient;
+    private final String model;
+    private final int maxWords;
+
+    public LlmSummaryModel(
+            ChatClient chatClient,
+            @Value("${chat.summary.model:gpt-4o-mini}") String model,
+            @Value("${chat.summary.max-words:150}") int maxWords
+    ) {
+        this.chatClient = chatClient;
+        this.model = model;
+        this.maxWords = maxWords;
+    }
+
+    @Override
+    public Summary summarize(String previousSummary, List<ChatHistoryEntry> messages) {
+        StringBuilder transcript = new StringBuilder();
+        if (previousSummary != null) {
+            transcript.append("Summary so far: ").append(previousSummary).append("\n\n");
+        }
+        for (ChatHistoryEntry message : messages) {
+            transcript.append("ASSISTANT".equals(message.role()) ? "KidsGPT: " : "Child: ")
+                    .append(message.content())
+                    .append('\n');
+        }
+        ChatResponse response = chatClient.prompt()
+                .options(ChatOptions.builder().model(model).maxTokens(maxWords * 2).build())
+                .system(INSTRUCTIONS.formatted(maxWords))
+                .user(transcript.toString())
+                .call()
+                .chatResponse();
+        if (response == null || response.getResult() == null) {
+            throw new IllegalStateException("The summary model returned no result");
+        }
+        long tokensUsed = response.getMetadata() != null && response.getMetadata().getUsage() != null
+                && response.getMetadata().getUsage().getTotalTokens() != null
+                ? response.getMetadata().getUsage().getTotalTokens()
+                : 0;
+        return new Summary(response.getResult().getOutput().getText(), tokensUsed);
+    }
+}
@@ -0,0 +1,246 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+import uk.gegc.kidsgptbackend.model.user.AgeBand;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the chat model for a turn. A local classifier scores the message by length, the
+ * child's age band and the kind of question; simple turns (the majority: short factual
+ * questions from younger children) go to the {@code chat.routing.fast-models} chain,
+ * the rest to {@code chat.routing.strong-models}.
+ * <p>
+ * Each chain is tried in order: if a model fails, or a stream produces nothing within
+ * {@code chat.routing.first-token-timeout}, the turn moves on to the next one. A refusal
+ * by the {@link uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard} is not retried,
+ * since every model sits behind the same upstream, and neither is a call whose thread was
+ * interrupted (a hedge that lost). Blocking calls time out through the HTTP client's read
+ * timeout, {@code spring.http.client.read-timeout}.
+ * <p>
+ * Disabled, every turn uses {@code spring.ai.openai.chat.options.model} alone. Either way
+ * the reply is capped at {@code chat.reply.max-tokens} for the child's age band.
+ */
+@Component
+public class ModelRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelRouter.class);
+
+    public enum Tier {FAST, STRONG}
+
+    enum QuestionType {FACTUAL, OPEN, CREATIVE, REASONING}
+
+    /**
+     * @param models    the model to try first, followed by its fallbacks
+     * @param maxTokens reply length cap, or {@code null} for the model's default
+     */
+    public record Route(Tier tier, List<String> models, Integer maxTokens) {
+        public String primary() {
+            return models.get(0);
+        }
+    }
+
+    private static final Pattern REASONING = Pattern.compile(
+            "\\b(why|explain|compare|difference|prove|solve|calculate|work out|step by step|what would happen|what if"
+                    + "|how (does|do|did|can|could|would|is|are))\\b|\\d+\\s*[-+*/x×÷^]\\s*\\d+");
+    private static final Pattern CREATIVE = Pattern.compile(
+            "\\b(write|story|poem|song|rhyme|imagine|invent|pretend|make up)\\b");
+    private static final Pattern FACTUAL = Pattern.compile(
+            "^(what|what's|who|who's|when|where|which|how (many|much|old|big|far|long|tall)|is|are|was|were|do|does"
+                    + "|did|can|define|name)\\b");
+
+    private final boolean enabled;
+    private final int shortWords;
+    private final int longWords;
+    private final int strongThreshold;
+    private final Duration firstTokenTimeout;
+    private final Map<Tier, List<String>> chains = new EnumMap<>(Tier.class);
+    private final Map<AgeBand, Integer> maxTokens;
+    private final Map<Tier, Counter> routed = new EnumMap<>(Tier.class);
+    private final MeterRegistry meterRegistry;
+
+    public ModelRouter(
+            @Value("${chat.routing.enabled:true}") boolean enabled,
+            @Value("${spring.ai.openai.chat.options.model:gpt-4o-mini}") String defaultModel,
+            @Value("${chat.routing.fast-models:gpt-4o-mini}") String[] fastModels,
+            @Value("${chat.routing.strong-models:gpt-4o,gpt-4o-mini}") String[] strongModels,
+            @Value("${chat.routing.short-message-words:12}") int shortWords,
+            @Value("${chat.routing.long-message-words:40}") int longWords,
+            @Value("${chat.routing.strong-threshold:2}") int strongThreshold,
+            @Value("${chat.routing.first-token-timeout:PT10S}") Duration firstTokenTimeout,
+            @Value("${chat.reply.max-tokens:}") String maxTokens,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.shortWords = shortWords;
+        this.longWords = longWords;
+        this.strongThreshold = strongThreshold;
+        this.firstTokenTimeout = firstTokenTimeout;
+        this.meterRegistry = meterRegistry;
+        this.maxTokens = parseMaxTokens(maxTokens);
+        chains.put(Tier.FAST, enabled ? chain(fastModels) : List.of(defaultModel));
+        chains.put(Tier.STRONG, enabled ? chain(strongModels) : List.of(defaultModel));
+        for (Tier tier : Tier.values()) {
+            routed.put(tier, meterRegistry.counter("kidsgpt.chat.routes", "tier", tier.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    public Route route(String message, AgeBand ageBand) {
+        Tier tier = enabled ? classify(message, ageBand) : Tier.FAST;
+        routed.get(tier).increment();
+        return new Route(tier, chains.get(tier), maxTokens.get(ageBand));
+    }
+
+    /**
+     * Calls {@code attempt} with each model of the route until one succeeds.
+     */
+    public <T> T call(Route route, Function<String, T> attempt) {
+        List<String> models = route.models();
+        for (int i = 0; ; i++) {
+            try {
+                return attempt.apply(models.get(i));
+            } catch (RuntimeException e) {
+                if (i == models.size() - 1 || e instanceof UpstreamUnavailableException
+                        || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                fellBack(models.get(i), models.get(i + 1), e);
+            }
+        }
+    }
+
+    /**
+     * Subscribes to {@code attempt} with each model of the route until one emits. Once
+     * anything has been emitted the stream is committed to that model and its errors are
+     * passed on.
+     */
+    public <T> Flux<T> stream(Route route, Function<String, Flux<T>> attempt) {
+        return stream(route.models(), 0, attempt);
+    }
+
+    private <T> Flux<T> stream(List<String> models, int index, Function<String, Flux<T>> attempt) {
+        String model = models.get(index);
+        Flux<T> source = Flux.defer(() -> attempt.apply(model))
+                .timeout(Mono.delay(firstTokenTimeout), item -> Mono.never());
+        if (index == models.size() - 1) {
+            return source;
+        }
+        return Flux.defer(() -> {
+            AtomicBoolean emitted = new AtomicBoolean();
+            return source
+                    .doOnNext(item -> emitted.set(true))
+                    .onErrorResume(e -> !emitted.get() && !(e instanceof UpstreamUnavailableException), e -> {
+                        fellBack(model, models.get(index + 1), e);
+                        return stream(models, index + 1, attempt);
+                    });
+        });
+    }
+
+    /**
+     * Scores the message; a score of {@code chat.routing.strong-threshold} or more needs the
+     * strong model.
+     */
+    Tier classify(String message, AgeBand ageBand) {
+        String text = message == null ? "" : message.strip().toLowerCase(Locale.ROOT);
+        int words = countWords(text);
+        int score = 0;
+        if (words <= shortWords) {
+            score--;
+        } else if (words >= longWords) {
+            score += 2;
+        }
+        score += switch (ageBand) {
+            case EARLY -> -1;
+            case MIDDLE, PRETEEN -> 0;
+            case TEEN -> 1;
+        };
+        score += switch (questionType(text)) {
+            case FACTUAL -> -1;
+            case OPEN -> 0;
+            case CREATIVE -> 1;
+            case REASONING -> 2;
+        };
+        if (text.indexOf('?') != text.lastIndexOf('?')) {
+            // several questions in one message
+            score++;
+        }
+        return score >= strongThreshold ? Tier.STRONG : Tier.FAST;
+    }
+
+    static QuestionType questionType(String text) {
+        if (REASONING.matcher(text).find()) {
+            return QuestionType.REASONING;
+        }
+        if (CREATIVE.matcher(text).find()) {
+            return QuestionType.CREATIVE;
+        }
+        if (FACTUAL.matcher(text).find()) {
+            return QuestionType.FACTUAL;
+        }
+        return QuestionType.OPEN;
+    }
+
+    private static int countWords(String text) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean letter = !Character.isWhitespace(text.charAt(i));
+            if (letter && !inWord) {
+                words++;
+            }
+            inWord = letter;
+        }
+        return words;
+    }
+
+    private void fellBack(String from, String to, Throwable cause) {
+        logger.warn("Model {} failed ({}), falling back to {}", from, cause.toString(), to);
+        meterRegistry.counter("kidsgpt.chat.model_fallbacks", "from", from, "to", to).increment();
+    }
+
+    /**
+     * Parses {@code BAND=tokens} pairs separated by commas; bands left out are not capped.
+     */
+    static Map<AgeBand, Integer> parseMaxTokens(String spec) {
+        Map<AgeBand, Integer> caps = new EnumMap<>(AgeBand.class);
+        if (spec == null || spec.isBlank()) {
+            return caps;
+        }
+        for (String pair : spec.split(",")) {
+            String[] parts = pair.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected BAND=tokens in chat.reply.max-tokens: " + pair);
+            }
+            caps.put(AgeBand.valueOf(parts[0].strip().toUpperCase(Locale.ROOT)), Integer.parseInt(parts[1].strip()));
+        }
+        return caps;
+    }
+
+    private static List<String> chain(String[] models) {
+        List<String> chain = Arrays.stream(models)
+                .map(String::strip)
+                .filter(model -> !model.isEmpty())
+                .distinct()
+                .toList();
+        if (chain.isEmpty()) {
+            throw new IllegalArgumentException("chat.routing needs at least one model per tier");
+        }
+        return chain;
+    }
+}
@@ -0,0 +1,180 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import uk.gegc.kidsgptbackend.dto.chat.Tone;
+import uk.gegc.kidsgptbackend.model.user.AgeBand;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HexFormat;
+import java.util.Locale;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * System prompts for every age band and {@link Tone}, composed once from
+ * {@code base.txt}, {@code age-band/<band>.txt} and {@code tone/<tone>.txt} under
+ * {@code chat.prompts.location} and served from an immutable table, so building a prompt
+ * on the request path is an array lookup.
+ * <p>
+ * When the location is a directory on disk it is watched and the whole table is rebuilt
+ * and swapped in on any change. If the base template cannot be read the previous table
+ * stays in place.
+ */
+@Component
+public class PromptTemplateRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(PromptTemplateRegistry.class);
+
+    static final String DEFAULT_BASE = "You are KidsGPT, keep replies friendly.";
+
+    private final Resource root;
+    private volatile Compiled compiled;
+    private WatchService watchService;
+
+    public PromptTemplateRegistry(
+            @Value("${chat.prompts.location:classpath:prompts/}") String location,
+            ResourceLoader resourceLoader
+    ) {
+        this.root = resourceLoader.getResource(location.endsWith("/") ? location : location + "/");
+        this.compiled = compile(DEFAULT_BASE, new String[AgeBand.values().length], new String[Tone.values().length]);
+        reload();
+        watch();
+    }
+
+    public String systemPrompt(AgeBand band, Tone tone) {
+        Tone effective = tone != null ? tone : Tone.FRIENDLY;
+        return compiled.prompts()[band.ordinal()][effective.ordinal()];
+    }
+
+    /**
+     * Content hash of the current templates; changes whenever a reload changes any prompt.
+     */
+    public String version() {
+        return compiled.version();
+    }
+
+    public void reload() {
+        String base;
+        try {
+            base = read("base.txt");
+        } catch (IOException e) {
+            logger.warn("Could not load prompt templates from {}, keeping version {}", root, compiled.version(), e);
+            return;
+        }
+        String[] bands = new String[AgeBand.values().length];
+        for (AgeBand band : AgeBand.values()) {
+            bands[band.ordinal()] = readOptional("age-band/" + band.name().toLowerCase(Locale.ROOT) + ".txt");
+        }
+        String[] tones = new String[Tone.values().length];
+        for (Tone tone : Tone.values()) {
+            tones[tone.ordinal()] = readOptional("tone/" + tone.name().toLowerCase(Locale.ROOT) + ".txt");
+        }
+        compiled = compile(base, bands, tones);
+        logger.info("Loaded prompt templates from {} (version {})", root, compiled.version());
+    }
+
+    private static Compiled compile(String base, String[] bands, String[] tones) {
+        String[][] prompts = new String[bands.length][tones.length];
+        int hash = 1;
+        for (int b = 0; b < bands.length; b++) {
+            for (int t = 0; t < tones.length; t++) {
+                StringBuilder sb = new StringBuilder();
+                appendSection(sb, bands[b]);
+                appendSection(sb, base);
+                appendSection(sb, tones[t]);
+                prompts[b][t] = sb.toString();
+                hash = 31 * hash + prompts[b][t].hashCode();
+            }
+        }
+        return new Compiled(prompts, HexFormat.of().toHexDigits(hash));
+    }
+
+    private static void appendSection(StringBuilder sb, String section) {
+        if (section == null || section.isBlank()) {
+            return;
+        }
+        if (!sb.isEmpty()) {
+            sb.append('\n');
+        }
+        sb.append(section.strip());
+    }
+
+    private String read(String name) throws IOException {
+        return StreamUtils.copyToString(root.createRelative(name).getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    private String readOptional(String name) {
+        try {
+            Resource resource = root.createRelative(name);
+            return resource.exists() ? StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8) : null;
+        } catch (IOException e) {
+            logger.warn("Could not read prompt template {}", name, e);
+            return null;
+        }
+    }
+
+    private void watch() {
+        Path dir;
+        try {
+            if (!root.isFile()) {
+                return; // e.g. inside the application jar: nothing to watch
+            }
+            dir = root.getFile().toPath();
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (Path path : new Path[]{dir, dir.resolve("age-band"), dir.resolve("tone")}) {
+                if (Files.isDirectory(path)) {
+                    path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not watch prompt templates in {}", dir, e);
+            return;
+        }
+        Thread watcher = new Thread(this::awaitChanges, "prompt-template-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void awaitChanges() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                key.pollEvents();
+                key.reset();
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private record Compiled(String[][] prompts, String version) {
+    }
+}
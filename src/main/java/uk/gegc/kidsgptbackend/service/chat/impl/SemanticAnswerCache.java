@@ -0,0 +1,415 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.dto.chat.Tone;
+import uk.gegc.kidsgptbackend.model.user.AgeBand;
+import uk.gegc.kidsgptbackend.service.chat.EmbeddingProvider;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Answers first-turn questions that mean the same as an earlier one ("why's the sky blue",
+ * "what makes the sky blue colour"). Questions are embedded by the configured
+ * {@link EmbeddingProvider} and looked up in an {@link HnswGraph} per age band and tone;
+ * the nearest earlier answer is reused when its cosine similarity reaches
+ * {@code chat.semantic-cache.threshold} and it was written for the current prompt version.
+ * <p>
+ * Entries live in a memory-mapped file laid out as fixed-size slots used as a ring
+ * buffer (vectors, then metadata, then replies), so a restart reopens the same answers
+ * and only rebuilds the graphs. When the ring is full the oldest quarter is dropped and
+ * the graphs are rebuilt from the rest. Inserts run on a single writer thread; lookups
+ * only take a read lock.
+ * <p>
+ * A near match can be another child's question, so questions that carry personal details
+ * (a name, an age, family or school) are never embedded: the reply to them may repeat
+ * those details. Off by default; see {@code chat.semantic-cache.enabled}.
+ */
+@Component
+public class SemanticAnswerCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    private static final int MAGIC = 0x4B475343; // "KGSC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int META_BYTES = 24;
+    private static final int MODEL_BYTES = 64;
+    private static final int SEARCH_K = 4;
+    private static final long GRAPH_SEED = 42;
+    private static final Pattern PERSONAL_DETAILS = Pattern.compile(
+            "\\b(my name|i'?m called|call me|i am \\d|i'?m \\d|\\d+ (years?|yrs?) old|my (mum|mom|dad|parents?"
+                    + "|brother|sister|friend|teacher|school|class|birthday|address))\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    public record Query(float[] embedding, AgeBand ageBand, Tone tone, String promptVersion) {
+    }
+
+    private final boolean enabled;
+    private final EmbeddingProvider embeddingProvider;
+    private final int maxQuestionLength;
+    private final float threshold;
+    private final long maxAgeMillis;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int dimensions;
+    private final int capacity;
+    private final int maxReplyBytes;
+    private final long metaOffset;
+    private final long payloadOffset;
+    private final int payloadBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Counter hits;
+    private final Counter misses;
+    private final DistributionSummary bestSimilarity;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private ThreadPoolExecutor writer;
+    private HnswGraph[] graphs;
+    private int oldest;
+    private int count;
+
+    public SemanticAnswerCache(
+            @Value("${chat.semantic-cache.enabled:false}") boolean enabled,
+            @Value("${chat.semantic-cache.file:data/semantic-answer-cache.bin}") Path file,
+            @Value("${chat.semantic-cache.capacity:10000}") int capacity,
+            @Value("${chat.semantic-cache.max-reply-bytes:4096}") int maxReplyBytes,
+            @Value("${chat.semantic-cache.threshold:0.92}") float threshold,
+            @Value("${chat.semantic-cache.max-age:P7D}") Duration maxAge,
+            @Value("${chat.semantic-cache.max-question-length:200}") int maxQuestionLength,
+            @Value("${chat.semantic-cache.hnsw.m:16}") int m,
+            @Value("${chat.semantic-cache.hnsw.ef-construction:100}") int efConstruction,
+            @Value("${chat.semantic-cache.hnsw.ef-search:64}") int efSearch,
+            EmbeddingProvider embeddingProvider,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.embeddingProvider = embeddingProvider;
+        this.maxQuestionLength = maxQuestionLength;
+        this.threshold = threshold;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.dimensions = embeddingProvider.dimensions();
+        this.capacity = capacity;
+        this.maxReplyBytes = maxReplyBytes;
+        this.metaOffset = HEADER_BYTES + (long) capacity * dimensions * Float.BYTES;
+        this.payloadOffset = metaOffset + (long) capacity * META_BYTES;
+        this.payloadBytes = Short.BYTES + maxReplyBytes + 1 + MODEL_BYTES;
+        this.hits = meterRegistry.counter("chat.semantic_cache.lookups", "result", "hit");
+        this.misses = meterRegistry.counter("chat.semantic_cache.lookups", "result", "miss");
+        this.bestSimilarity = DistributionSummary.builder("chat.semantic_cache.similarity")
+                .description("Similarity of the nearest cached question, for tuning the threshold")
+                .register(meterRegistry);
+        if (enabled) {
+            open(file);
+            this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(256), new CustomizableThreadFactory("semantic-cache-writer-"));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the question's embedding, or {@code null} if it is not cacheable (too long,
+     * or personal) or the provider failed; a cache problem never fails the turn
+     */
+    public float[] embed(String question) {
+        if (!enabled || question == null || question.length() > maxQuestionLength || isPersonal(question)) {
+            return null;
+        }
+        try {
+            return embeddingProvider.embed(question);
+        } catch (RuntimeException e) {
+            logger.warn("Could not embed question for the semantic cache", e);
+            return null;
+        }
+    }
+
+    static boolean isPersonal(String question) {
+        return PERSONAL_DETAILS.matcher(question).find();
+    }
+
+    public Query query(float[] embedding, AgeBand ageBand, Tone tone, String promptVersion) {
+        return embedding == null ? null : new Query(embedding, ageBand, tone, promptVersion);
+    }
+
+    public AnswerCache.CachedAnswer get(Query query) {
+        if (query == null) {
+            return null;
+        }
+        long versionHash = hash(query.promptVersion());
+        long now = System.currentTimeMillis();
+        lock.readLock().lock();
+        try {
+            List<HnswGraph.Match> nearest = graphs[scope(query.ageBand(), query.tone())]
+                    .search(query.embedding(), SEARCH_K, efSearch);
+            if (!nearest.isEmpty()) {
+                bestSimilarity.record(nearest.get(0).similarity());
+            }
+            for (HnswGraph.Match match : nearest) {
+                if (match.similarity() < threshold) {
+                    break;
+                }
+                long meta = metaOffset + (long) match.node() * META_BYTES;
+                if (buffer.getLong((int) meta + 8) == versionHash
+                        && now - buffer.getLong((int) meta + 16) <= maxAgeMillis) {
+                    hits.increment();
+                    return readAnswer(match.node());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Queues a safe answer for insertion; returns immediately. Replies longer than
+     * {@code chat.semantic-cache.max-reply-bytes} are not cached.
+     */
+    public void put(Query query, String reply, String model) {
+        if (query == null) {
+            return;
+        }
+        byte[] replyBytes = reply.getBytes(StandardCharsets.UTF_8);
+        if (replyBytes.length > maxReplyBytes) {
+            return;
+        }
+        byte[] modelBytes = model.getBytes(StandardCharsets.UTF_8);
+        byte[] storedModel = Arrays.copyOf(modelBytes, Math.min(modelBytes.length, MODEL_BYTES));
+        try {
+            writer.execute(() -> insert(query, replyBytes, storedModel));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Semantic cache writer busy, dropping entry");
+        }
+    }
+
+    /**
+     * Waits for queued inserts; for tests.
+     */
+    void awaitWrites() throws Exception {
+        writer.submit(() -> { }).get();
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(Query query, byte[] reply, byte[] model) {
+        if (count == capacity) {
+            evictOldest(Math.max(1, capacity / 4));
+        }
+        lock.writeLock().lock();
+        try {
+            int slot = (oldest + count) % capacity;
+            int vector = vectorOffset(slot);
+            float[] embedding = query.embedding();
+            for (int i = 0; i < dimensions; i++) {
+                buffer.putFloat(vector + i * Float.BYTES, embedding[i]);
+            }
+            int meta = (int) (metaOffset + (long) slot * META_BYTES);
+            buffer.put(meta, (byte) query.ageBand().ordinal());
+            buffer.put(meta + 1, (byte) query.tone().ordinal());
+            buffer.putLong(meta + 8, hash(query.promptVersion()));
+            buffer.putLong(meta + 16, System.currentTimeMillis());
+            int payload = (int) (payloadOffset + (long) slot * payloadBytes);
+            buffer.putShort(payload, (short) reply.length);
+            buffer.put(payload + Short.BYTES, reply);
+            buffer.put(payload + Short.BYTES + maxReplyBytes, (byte) model.length);
+            buffer.put(payload + Short.BYTES + maxReplyBytes + 1, model);
+            graphs[scope(query.ageBand(), query.tone())].add(slot);
+            count++;
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the graphs without the oldest {@code evict} entries, then swaps them in.
+     * Only the writer thread modifies the file, so building can read it without the lock.
+     */
+    private void evictOldest(int evict) {
+        HnswGraph[] rebuilt = newGraphs();
+        for (int i = evict; i < count; i++) {
+            addToGraph(rebuilt, (oldest + i) % capacity);
+        }
+        lock.writeLock().lock();
+        try {
+            graphs = rebuilt;
+            oldest = (oldest + evict) % capacity;
+            count -= evict;
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void open(Path file) {
+        long size = payloadOffset + (long) capacity * payloadBytes;
+        if (maxReplyBytes > 0xFFFF) {
+            throw new IllegalArgumentException("chat.semantic-cache.max-reply-bytes must not exceed 65535");
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Semantic cache file would be " + size
+                    + " bytes; lower chat.semantic-cache.capacity or max-reply-bytes");
+        }
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean reuse = channel.size() == size;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            graphs = newGraphs();
+            if (reuse && buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT_VERSION
+                    && buffer.getInt(8) == dimensions && buffer.getInt(12) == capacity
+                    && buffer.getInt(16) == maxReplyBytes) {
+                oldest = buffer.getInt(20);
+                count = buffer.getInt(24);
+                for (int i = 0; i < count; i++) {
+                    addToGraph(graphs, (oldest + i) % capacity);
+                }
+                logger.info("Loaded {} semantic cache entries from {}", count, file);
+            } else {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, FORMAT_VERSION);
+                buffer.putInt(8, dimensions);
+                buffer.putInt(12, capacity);
+                buffer.putInt(16, maxReplyBytes);
+                oldest = 0;
+                count = 0;
+                writeHeader();
+                logger.info("Created semantic cache file {} ({} slots)", file, capacity);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open semantic cache file " + file, e);
+        }
+    }
+
+    private HnswGraph[] newGraphs() {
+        HnswGraph.Vectors vectors = new HnswGraph.Vectors() {
+            @Override
+            public float similarity(int node, float[] query) {
+                int base = vectorOffset(node);
+                float dot = 0;
+                for (int i = 0; i < dimensions; i++) {
+                    dot += buffer.getFloat(base + i * Float.BYTES) * query[i];
+                }
+                return dot;
+            }
+
+            @Override
+            public float[] vector(int node) {
+                int base = vectorOffset(node);
+                float[] vector = new float[dimensions];
+                for (int i = 0; i < dimensions; i++) {
+                    vector[i] = buffer.getFloat(base + i * Float.BYTES);
+                }
+                return vector;
+            }
+        };
+        HnswGraph[] fresh = new HnswGraph[AgeBand.values().length * Tone.values().length];
+        for (int i = 0; i < fresh.length; i++) {
+            fresh[i] = new HnswGraph(vectors, m, efConstruction, GRAPH_SEED + i);
+        }
+        return fresh;
+    }
+
+    private void addToGraph(HnswGraph[] target, int slot) {
+        int meta = (int) (metaOffset + (long) slot * META_BYTES);
+        target[buffer.get(meta) * Tone.values().length + buffer.get(meta + 1)].add(slot);
+    }
+
+    private AnswerCache.CachedAnswer readAnswer(int slot) {
+        int payload = (int) (payloadOffset + (long) slot * payloadBytes);
+        byte[] reply = new byte[buffer.getShort(payload) & 0xFFFF];
+        buffer.get(payload + Short.BYTES, reply);
+        byte[] model = new byte[buffer.get(payload + Short.BYTES + maxReplyBytes) & 0xFF];
+        buffer.get(payload + Short.BYTES + maxReplyBytes + 1, model);
+        return new AnswerCache.CachedAnswer(new String(reply, StandardCharsets.UTF_8),
+                new String(model, StandardCharsets.UTF_8));
+    }
+
+    private void writeHeader() {
+        buffer.putInt(20, oldest);
+        buffer.putInt(24, count);
+    }
+
+    private int vectorOffset(int slot) {
+        return HEADER_BYTES + slot * dimensions * Float.BYTES;
+    }
+
+    private static int scope(AgeBand ageBand, Tone tone) {
+        return ageBand.ordinal() * Tone.values().length + tone.ordinal();
+    }
+
+    /**
+     * 64-bit FNV-1a, so entries written for another prompt version can be recognised.
+     */
+    private static long hash(String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+            lock.writeLock().lock();
+            try {
+                buffer.force();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warn("Could not close semantic cache file", e);
+        }
+    }
+}
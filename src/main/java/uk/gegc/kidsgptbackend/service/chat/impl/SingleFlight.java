@@ -0,0 +1,79 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one computation per key at a time. Callers that arrive while it is in
+ * flight wait for the leader's result (or exception) instead of starting their own;
+ * nothing is kept once the leader finishes.
+ */
+final class SingleFlight<K, V> {
+
+    record Outcome<V>(V value, boolean leader) {
+    }
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param onCoalesced run before a follower starts waiting for the leader
+     */
+    Outcome<V> execute(K key, Supplier<V> work, Runnable onCoalesced) {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, own);
+        if (leader != null) {
+            onCoalesced.run();
+            try {
+                return new Outcome<>(leader.join(), false);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+        try {
+            V value = work.get();
+            own.complete(value);
+            return new Outcome<>(value, true);
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    /**
+     * As {@link #execute}, for work that completes asynchronously: the key stays in flight
+     * until the future returned by {@code work} completes, and followers of either method
+     * share its result; asynchronous followers without blocking.
+     */
+    CompletableFuture<Outcome<V>> executeAsync(K key, Supplier<CompletableFuture<V>> work, Runnable onCoalesced) {
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, own);
+        if (leader != null) {
+            onCoalesced.run();
+            return leader.thenApply(value -> new Outcome<>(value, false));
+        }
+        CompletableFuture<V> started;
+        try {
+            started = work.get();
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            inFlight.remove(key, own);
+            throw e;
+        }
+        started.whenComplete((value, e) -> {
+            if (e != null) {
+                own.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                own.complete(value);
+            }
+            inFlight.remove(key, own);
+        });
+        return own.thenApply(value -> new Outcome<>(value, true));
+    }
+}
@@ -0,0 +1,42 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import uk.gegc.kidsgptbackend.service.chat.EmbeddingProvider;
+
+/**
+ * Embeds with the configured Spring AI embedding model
+ * ({@code spring.ai.openai.embedding.options.model}).
+ */
+@Component
+@ConditionalOnProperty(name = "chat.semantic-cache.provider", havingValue = "openai", matchIfMissing = true)
+public class SpringAiEmbeddingProvider implements EmbeddingProvider {
+
+    private final EmbeddingModel embeddingModel;
+    private final int dimensions;
+
+    public SpringAiEmbeddingProvider(
+            EmbeddingModel embeddingModel,
+            @Value("${chat.semantic-cache.dimensions:1536}") int dimensions
+    ) {
+        this.embeddingModel = embeddingModel;
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = embeddingModel.embed(text);
+        if (vector.length != dimensions) {
+            throw new IllegalStateException("Embedding model returned " + vector.length
+                    + " dimensions, chat.semantic-cache.dimensions is " + dimensions);
+        }
+        return EmbeddingProvider.normalize(vector);
+    }
+}
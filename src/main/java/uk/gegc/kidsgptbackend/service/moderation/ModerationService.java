@@ -0,0 +1,10 @@
+package uk.gegc.kidsgptbackend.service.moderation;
+
+public interface ModerationService {
+
+    /**
+     * @return {@code true} when the text may be shown to or accepted from a child
+     * @throws uk.gegc.kidsgptbackend.exception.ModerationServiceException when no verdict can be obtained
+     */
+    boolean isSafe(String text);
+}
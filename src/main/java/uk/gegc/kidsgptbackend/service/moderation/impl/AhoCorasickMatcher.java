@@ -0,0 +1,272 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable multi-pattern matcher compiled once from a word list into a dense Aho-Corasick
+ * automaton (failure links folded into the transition table), so a scan is a single pass
+ * with one array lookup per character and no allocation for ASCII input.
+ * <p>
+ * Text and patterns go through the same folding: lower-casing, common leetspeak digits and
+ * symbols, compatibility decomposition with diacritics and zero-width characters removed,
+ * and Cyrillic/Greek look-alikes mapped to Latin. Anything that is not a letter or digit is
+ * a separator and runs of separators collapse to one. Patterns only match whole words
+ * unless the entry ends with {@code *}, which makes it a word-prefix match; entries may be
+ * multi-word phrases.
+ */
+public final class AhoCorasickMatcher {
+
+    static final int MAX_PATTERN_LENGTH = 63;
+
+    private static final char SEPARATOR = ' ';
+    private static final char[] ASCII_FOLD = new char[128];
+    private static final Map<Character, Character> CONFUSABLES = Map.ofEntries(
+            // Cyrillic
+            Map.entry('а', 'a'), Map.entry('в', 'b'), Map.entry('е', 'e'), Map.entry('ё', 'e'),
+            Map.entry('к', 'k'), Map.entry('м', 'm'), Map.entry('н', 'h'), Map.entry('о', 'o'),
+            Map.entry('р', 'p'), Map.entry('с', 'c'), Map.entry('т', 't'), Map.entry('у', 'y'),
+            Map.entry('х', 'x'), Map.entry('і', 'i'), Map.entry('ї', 'i'), Map.entry('ј', 'j'),
+            Map.entry('ѕ', 's'), Map.entry('ԁ', 'd'), Map.entry('ɡ', 'g'),
+            // Greek
+            Map.entry('α', 'a'), Map.entry('β', 'b'), Map.entry('ε', 'e'), Map.entry('η', 'n'),
+            Map.entry('ι', 'i'), Map.entry('κ', 'k'), Map.entry('ν', 'v'), Map.entry('ο', 'o'),
+            Map.entry('ρ', 'p'), Map.entry('τ', 't'), Map.entry('υ', 'u'), Map.entry('χ', 'x')
+    );
+
+    static {
+        Arrays.fill(ASCII_FOLD, SEPARATOR);
+        for (char c = 'a'; c <= 'z'; c++) {
+            ASCII_FOLD[c] = c;
+            ASCII_FOLD[Character.toUpperCase(c)] = c;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            ASCII_FOLD[c] = c;
+        }
+        ASCII_FOLD['0'] = 'o';
+        ASCII_FOLD['1'] = 'i';
+        ASCII_FOLD['3'] = 'e';
+        ASCII_FOLD['4'] = 'a';
+        ASCII_FOLD['5'] = 's';
+        ASCII_FOLD['7'] = 't';
+        ASCII_FOLD['8'] = 'b';
+        ASCII_FOLD['9'] = 'g';
+        ASCII_FOLD['@'] = 'a';
+        ASCII_FOLD['$'] = 's';
+    }
+
+    private final short[] symbolOf;
+    private final int symbolCount;
+    private final int[] next;
+    private final int[][] matches;
+    private final String[] entries;
+    private final int[] lengths;
+    private final boolean[] prefix;
+
+    private AhoCorasickMatcher(short[] symbolOf, int symbolCount, int[] next, int[][] matches,
+                               String[] entries, int[] lengths, boolean[] prefix) {
+        this.symbolOf = symbolOf;
+        this.symbolCount = symbolCount;
+        this.next = next;
+        this.matches = matches;
+        this.entries = entries;
+        this.lengths = lengths;
+        this.prefix = prefix;
+    }
+
+    public static AhoCorasickMatcher compile(Collection<String> wordList) {
+        List<String> patterns = new ArrayList<>();
+        List<String> originals = new ArrayList<>();
+        List<Boolean> prefixFlags = new ArrayList<>();
+        for (String raw : wordList) {
+            String entry = raw.strip();
+            boolean isPrefix = entry.endsWith("*");
+            String pattern = normalize(isPrefix ? entry.substring(0, entry.length() - 1) : entry);
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            if (pattern.length() > MAX_PATTERN_LENGTH) {
+                throw new IllegalArgumentException("Blocklist entry longer than " + MAX_PATTERN_LENGTH + " characters: " + entry);
+            }
+            patterns.add(pattern);
+            originals.add(entry);
+            prefixFlags.add(isPrefix);
+        }
+
+        short[] symbolOf = new short[Character.MAX_VALUE + 1];
+        int symbolCount = 1; // symbol 0: any character no pattern uses
+        int totalLength = 0;
+        for (String pattern : patterns) {
+            totalLength += pattern.length();
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (symbolOf[c] == 0) {
+                    symbolOf[c] = (short) symbolCount++;
+                }
+            }
+        }
+
+        int maxStates = totalLength + 1;
+        int[] next = new int[maxStates * symbolCount];
+        Arrays.fill(next, -1);
+        List<List<Integer>> out = new ArrayList<>();
+        out.add(new ArrayList<>());
+        int states = 1;
+        for (int id = 0; id < patterns.size(); id++) {
+            String pattern = patterns.get(id);
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int idx = state * symbolCount + symbolOf[pattern.charAt(i)];
+                if (next[idx] == -1) {
+                    next[idx] = states++;
+                    out.add(new ArrayList<>());
+                }
+                state = next[idx];
+            }
+            out.get(state).add(id);
+        }
+
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int sym = 0; sym < symbolCount; sym++) {
+            int child = next[sym];
+            if (child == -1) {
+                next[sym] = 0;
+            } else {
+                fail[child] = 0;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int sym = 0; sym < symbolCount; sym++) {
+                int idx = state * symbolCount + sym;
+                int child = next[idx];
+                int fallback = next[fail[state] * symbolCount + sym];
+                if (child == -1) {
+                    next[idx] = fallback;
+                } else {
+                    fail[child] = fallback;
+                    out.get(child).addAll(out.get(fallback));
+                    queue.add(child);
+                }
+            }
+        }
+
+        int[][] matches = new int[states][];
+        for (int state = 0; state < states; state++) {
+            matches[state] = out.get(state).stream().mapToInt(Integer::intValue).toArray();
+        }
+        int[] lengths = patterns.stream().mapToInt(String::length).toArray();
+        boolean[] prefix = new boolean[patterns.size()];
+        for (int i = 0; i < prefix.length; i++) {
+            prefix[i] = prefixFlags.get(i);
+        }
+        return new AhoCorasickMatcher(symbolOf, symbolCount, Arrays.copyOf(next, states * symbolCount), matches,
+                originals.toArray(String[]::new), lengths, prefix);
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @return the first blocklist entry found in {@code text}, or {@code null} if none matches
+     */
+    public String findFirst(String text) {
+        if (entries.length == 0 || text == null) {
+            return null;
+        }
+        String input = isAscii(text) ? text : foldNonAscii(text);
+
+        int state = 0;
+        long separators = -1L; // bit k: the k-th previous symbol was a separator; text start counts as one
+        boolean lastWasSeparator = true;
+        int pending = -1;      // whole-word match waiting for a trailing separator
+        for (int i = 0, n = input.length(); i < n; i++) {
+            char c = fold(input.charAt(i));
+            boolean separator = c == SEPARATOR;
+            if (separator) {
+                if (pending >= 0) {
+                    return entries[pending];
+                }
+                if (lastWasSeparator) {
+                    continue;
+                }
+            }
+            lastWasSeparator = separator;
+            pending = -1;
+            separators = (separators << 1) | (separator ? 1L : 0L);
+            state = next[state * symbolCount + symbolOf[c]];
+            for (int id : matches[state]) {
+                if (((separators >>> lengths[id]) & 1L) == 0) {
+                    continue; // does not start at a word boundary
+                }
+                if (prefix[id]) {
+                    return entries[id];
+                }
+                pending = id;
+            }
+        }
+        return pending >= 0 ? entries[pending] : null;
+    }
+
+    /**
+     * Applies the same folding used for matching, collapsing and trimming separators.
+     */
+    static String normalize(String text) {
+        String input = isAscii(text) ? text : foldNonAscii(text);
+        StringBuilder sb = new StringBuilder(input.length());
+        boolean lastWasSeparator = true;
+        for (int i = 0; i < input.length(); i++) {
+            char c = fold(input.charAt(i));
+            boolean separator = c == SEPARATOR;
+            if (separator && lastWasSeparator) {
+                continue;
+            }
+            sb.append(c);
+            lastWasSeparator = separator;
+        }
+        int end = sb.length();
+        if (end > 0 && sb.charAt(end - 1) == SEPARATOR) {
+            sb.setLength(end - 1);
+        }
+        return sb.toString();
+    }
+
+    private static char fold(char c) {
+        if (c < 128) {
+            return ASCII_FOLD[c];
+        }
+        return Character.isLetterOrDigit(c) ? c : SEPARATOR;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            if (text.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String foldNonAscii(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            int type = Character.getType(c);
+            if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK || type == Character.FORMAT) {
+                continue;
+            }
+            char lower = Character.toLowerCase(c);
+            sb.append(CONFUSABLES.getOrDefault(lower, lower));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Local "bad words" pre-filter that runs ahead of remote moderation. The word list is
+ * compiled once into an {@link AhoCorasickMatcher}; when it points at a file the list is
+ * re-read whenever the file changes and the new matcher is swapped in atomically. A
+ * list that fails to load leaves the previous matcher in place.
+ */
+@Component
+public class BlocklistFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlocklistFilter.class);
+
+    private final Resource location;
+    private final Counter hits;
+
+    private volatile AhoCorasickMatcher matcher = AhoCorasickMatcher.compile(List.of());
+    private volatile long loadedLastModified = Long.MIN_VALUE;
+
+    public BlocklistFilter(
+            @Value("${moderation.blocklist.location:classpath:moderation/blocklist.txt}") Resource location,
+            MeterRegistry meterRegistry
+    ) {
+        this.location = location;
+        this.hits = meterRegistry.counter("moderation.blocklist.hits");
+        reload();
+    }
+
+    public Optional<String> findBlockedTerm(String text) {
+        String term = matcher.findFirst(text);
+        if (term != null) {
+            hits.increment();
+        }
+        return Optional.ofNullable(term);
+    }
+
+    @Scheduled(fixedDelayString = "${moderation.blocklist.reload-interval-ms:30000}")
+    public void reloadIfChanged() {
+        long lastModified;
+        try {
+            lastModified = location.lastModified();
+        } catch (IOException e) {
+            return; // not a file-backed resource, nothing to watch
+        }
+        if (lastModified != loadedLastModified) {
+            reload();
+        }
+    }
+
+    public void reload() {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(location.getInputStream(), StandardCharsets.UTF_8))) {
+            List<String> entries = reader.lines()
+                    .map(String::strip)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .toList();
+            AhoCorasickMatcher compiled = AhoCorasickMatcher.compile(entries);
+            matcher = compiled;
+            loadedLastModified = lastModifiedOrZero();
+            logger.info("Loaded {} blocklist entries from {}", compiled.size(), location);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Could not load blocklist from {}, keeping {} previous entries", location, matcher.size(), e);
+        }
+    }
+
+    private long lastModifiedOrZero() {
+        try {
+            return location.lastModified();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+}
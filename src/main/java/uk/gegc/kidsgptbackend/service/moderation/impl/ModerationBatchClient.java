@@ -0,0 +1,17 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import java.util.List;
+
+/**
+ * Upstream moderation call that classifies several inputs in one request.
+ */
+public interface ModerationBatchClient {
+
+    /**
+     * @return one verdict per input, in input order
+     */
+    List<Verdict> moderate(List<String> inputs);
+
+    record Verdict(boolean flagged, List<String> categories) {
+    }
+}
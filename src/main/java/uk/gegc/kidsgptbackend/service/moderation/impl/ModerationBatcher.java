@@ -0,0 +1,193 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import uk.gegc.kidsgptbackend.exception.ModerationServiceException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces concurrent moderation requests into one upstream call. The first request opens
+ * a batch; the batch is sent when it reaches {@code max-size} (by the caller that filled
+ * it) or when {@code max-wait-ms} has passed since it opened. A single dispatcher thread
+ * only keeps that time: batches it flushes are sent on a bounded sender pool
+ * ({@code sender-threads}, virtual threads with {@code spring.threads.virtual.enabled}),
+ * and when its {@code sender-queue} is full the batch fails at once with
+ * {@link UpstreamUnavailableException} instead of waiting behind a slow upstream.
+ * <p>
+ * If a multi-item batch is rejected by the upstream as a bad request, every item is
+ * retried on its own (again through the sender pool) so that one input the upstream
+ * rejects cannot fail the others. Any other failure (timeouts, 5xx, 429) says nothing
+ * about individual inputs, so the whole batch fails with
+ * {@link ModerationServiceException} without adding retries to a struggling upstream.
+ */
+@Component
+public class ModerationBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModerationBatcher.class);
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final long maxWaitMicros;
+    private final ModerationBatchClient batchClient;
+    private final ScheduledThreadPoolExecutor dispatcher;
+    private final ThreadPoolExecutor sender;
+    private final DistributionSummary batchSizes;
+    private final Counter failedBatches;
+    private final Counter rejectedBatches;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private List<Pending> open;
+
+    public ModerationBatcher(
+            @Value("${moderation.batch.enabled:false}") boolean enabled,
+            @Value("${moderation.batch.max-size:32}") int maxSize,
+            @Value("${moderation.batch.max-wait-ms:5}") long maxWaitMs,
+            @Value("${moderation.batch.sender-threads:4}") int senderThreads,
+            @Value("${moderation.batch.sender-queue:64}") int senderQueue,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            ModerationBatchClient batchClient,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.maxSize = maxSize;
+        this.maxWaitMicros = TimeUnit.MILLISECONDS.toMicros(maxWaitMs);
+        this.batchClient = batchClient;
+        this.dispatcher = enabled
+                ? new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("moderation-batch-"))
+                : null;
+        if (enabled) {
+            ThreadFactory threads = virtualThreads
+                    ? Thread.ofVirtual().name("moderation-send-", 0).factory()
+                    : new CustomizableThreadFactory("moderation-send-");
+            this.sender = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(senderQueue), threads);
+            this.sender.allowCoreThreadTimeOut(true);
+        } else {
+            this.sender = null;
+        }
+        this.batchSizes = DistributionSummary.builder("moderation.batch.size")
+                .description("Inputs per upstream moderation call")
+                .register(meterRegistry);
+        this.failedBatches = meterRegistry.counter("moderation.batch.failures");
+        this.rejectedBatches = meterRegistry.counter("moderation.batch.rejected");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CompletableFuture<ModerationBatchClient.Verdict> submit(String text) {
+        Pending pending = new Pending(text, new CompletableFuture<>());
+        List<Pending> full = null;
+        lock.lock();
+        try {
+            if (open == null) {
+                List<Pending> batch = new ArrayList<>(maxSize);
+                open = batch;
+                dispatcher.schedule(() -> flushIfOpen(batch), maxWaitMicros, TimeUnit.MICROSECONDS);
+            }
+            open.add(pending);
+            if (open.size() >= maxSize) {
+                full = open;
+                open = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (full != null) {
+            send(full);
+        }
+        return pending.verdict();
+    }
+
+    private void flushIfOpen(List<Pending> batch) {
+        lock.lock();
+        try {
+            if (open != batch) {
+                return; // already sent because it filled up
+            }
+            open = null;
+        } finally {
+            lock.unlock();
+        }
+        sendLater(batch);
+    }
+
+    private void sendLater(List<Pending> batch) {
+        try {
+            sender.execute(() -> send(batch));
+        } catch (RejectedExecutionException e) {
+            rejectedBatches.increment();
+            UpstreamUnavailableException ex = new UpstreamUnavailableException("moderation",
+                    "Too many moderation batches waiting to be sent", 1);
+            batch.forEach(item -> item.verdict().completeExceptionally(ex));
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        batchSizes.record(batch.size());
+        List<ModerationBatchClient.Verdict> verdicts;
+        try {
+            verdicts = batchClient.moderate(batch.stream().map(Pending::text).toList());
+        } catch (UpstreamUnavailableException ex) {
+            // refused without being sent; retrying items one by one would only be refused again
+            batch.forEach(item -> item.verdict().completeExceptionally(ex));
+            return;
+        } catch (Exception ex) {
+            failedBatches.increment();
+            if (batch.size() > 1 && isRejectedInput(ex)) {
+                logger.warn("Moderation batch of {} rejected, retrying items individually", batch.size(), ex);
+                batch.forEach(item -> sendLater(List.of(item)));
+            } else {
+                logger.error("Moderation service call failed for {} inputs", batch.size(), ex);
+                ModerationServiceException failure = new ModerationServiceException("Moderation service unavailable", ex);
+                batch.forEach(item -> item.verdict().completeExceptionally(failure));
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).verdict().complete(verdicts.get(i));
+        }
+    }
+
+    /**
+     * A 4xx other than 429 is about what was sent; anything else is about the upstream.
+     */
+    private static boolean isRejectedInput(Exception ex) {
+        return ex instanceof HttpClientErrorException clientError
+                && clientError.getStatusCode().value() != HttpStatus.TOO_MANY_REQUESTS.value();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        if (sender != null) {
+            sender.shutdown();
+        }
+    }
+
+    private record Pending(String text, CompletableFuture<ModerationBatchClient.Verdict> verdict) {
+    }
+}
@@ -0,0 +1,128 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.moderation.ModerationModel;
+import org.springframework.ai.moderation.ModerationPrompt;
+import org.springframework.ai.moderation.ModerationResponse;
+import org.springframework.ai.moderation.ModerationResult;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import uk.gegc.kidsgptbackend.exception.ModerationServiceException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+import uk.gegc.kidsgptbackend.service.moderation.ModerationService;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+public class ModerationServiceImpl implements ModerationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModerationServiceImpl.class);
+
+    private final ModerationModel moderationClient;
+    private final ModerationVerdictCache verdictCache;
+    private final BlocklistFilter blocklistFilter;
+    private final ModerationBatcher batcher;
+    private final UpstreamGuard moderationGuard;
+    private final Counter coalesced;
+    /**
+     * Upstream checks in progress, keyed like the verdict cache, so identical texts
+     * arriving together (a whole class asking the same question) share one call.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    public ModerationServiceImpl(ModerationModel moderationClient, ModerationVerdictCache verdictCache,
+                                 BlocklistFilter blocklistFilter, ModerationBatcher batcher,
+                                 @Qualifier("moderationGuard") UpstreamGuard moderationGuard,
+                                 MeterRegistry meterRegistry) {
+        this.moderationClient = moderationClient;
+        this.verdictCache = verdictCache;
+        this.blocklistFilter = blocklistFilter;
+        this.batcher = batcher;
+        this.moderationGuard = moderationGuard;
+        this.coalesced = meterRegistry.counter("moderation.coalesced");
+    }
+
+    @Override
+    public boolean isSafe(String text) {
+        Optional<String> blocked = blocklistFilter.findBlockedTerm(text);
+        if (blocked.isPresent()) {
+            logger.warn("Blocklist violation: {}", blocked.get());
+            return false;
+        }
+
+        Boolean cached = verdictCache.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        String key = ModerationVerdictCache.normalize(text);
+        CompletableFuture<Boolean> own = new CompletableFuture<>();
+        CompletableFuture<Boolean> leader = inFlight.putIfAbsent(key, own);
+        if (leader != null) {
+            coalesced.increment();
+            return unwrap(leader);
+        }
+        try {
+            boolean safe = callUpstream(text);
+            verdictCache.put(text, safe);
+            own.complete(safe);
+            return safe;
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    private boolean callUpstream(String text) {
+        if (batcher.isEnabled()) {
+            return callBatched(text);
+        }
+        ModerationResponse response;
+        try {
+            response = moderationGuard.call(() -> moderationClient.call(new ModerationPrompt(text)));
+        } catch (UpstreamUnavailableException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            logger.error("Moderation service call failed", ex);
+            throw new ModerationServiceException("Moderation service unavailable", ex);
+        }
+        boolean safe = response.getResult().getOutput().getResults().stream()
+                .noneMatch(ModerationResult::isFlagged);
+        if (!safe) {
+            response.getResult().getOutput().getResults().stream()
+                    .filter(ModerationResult::isFlagged)
+                    .forEach(r -> logger.warn("Moderation violation: {}", r.getCategories()));
+        }
+        return safe;
+    }
+
+    private boolean callBatched(String text) {
+        ModerationBatchClient.Verdict verdict = unwrap(batcher.submit(text));
+        if (verdict.flagged()) {
+            logger.warn("Moderation violation: {}", verdict.categories());
+        }
+        return !verdict.flagged();
+    }
+
+    private static <T> T unwrap(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof ModerationServiceException mse) {
+                throw mse;
+            }
+            if (ex.getCause() instanceof UpstreamUnavailableException uue) {
+                throw uue;
+            }
+            throw new ModerationServiceException("Moderation service unavailable", ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Size-bounded (W-TinyLFU) cache of moderation verdicts keyed by the SHA-256 of the
+ * normalised text. Safe and flagged verdicts expire independently so that a false positive
+ * does not stick for as long as a safe verdict; flagged caching can also be switched off.
+ * Hit/miss statistics are published as {@code cache.*{cache=moderation.verdicts}}.
+ */
+@Component
+public class ModerationVerdictCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final boolean enabled;
+    private final boolean cacheFlagged;
+    private final int maxTextLength;
+    private final Cache<String, Boolean> verdicts;
+
+    public ModerationVerdictCache(
+            @Value("${moderation.cache.enabled:true}") boolean enabled,
+            @Value("${moderation.cache.max-size:50000}") long maxSize,
+            @Value("${moderation.cache.max-text-length:1000}") int maxTextLength,
+            @Value("${moderation.cache.safe-ttl:PT24H}") Duration safeTtl,
+            @Value("${moderation.cache.flagged.enabled:true}") boolean cacheFlagged,
+            @Value("${moderation.cache.flagged-ttl:PT10M}") Duration flaggedTtl,
+            MeterRegistry meterRegistry
+    ) {
+        this.enabled = enabled;
+        this.cacheFlagged = cacheFlagged;
+        this.maxTextLength = maxTextLength;
+        this.verdicts = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new VerdictExpiry(safeTtl, flaggedTtl))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verdicts, "moderation.verdicts");
+    }
+
+    /**
+     * @return the cached verdict ({@code true} = safe), or {@code null} on a miss
+     */
+    public Boolean get(String text) {
+        if (!cacheable(text)) {
+            return null;
+        }
+        return verdicts.getIfPresent(key(text));
+    }
+
+    public void put(String text, boolean safe) {
+        if (!cacheable(text) || (!safe && !cacheFlagged)) {
+            return;
+        }
+        verdicts.put(key(text), safe);
+    }
+
+    private boolean cacheable(String text) {
+        return enabled && text != null && text.length() <= maxTextLength;
+    }
+
+    static String normalize(String text) {
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return WHITESPACE.matcher(folded).replaceAll(" ").strip();
+    }
+
+    static String key(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(normalize(text).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record VerdictExpiry(Duration safeTtl, Duration flaggedTtl) implements Expiry<String, Boolean> {
+
+        @Override
+        public long expireAfterCreate(String key, Boolean safe, long currentTime) {
+            return (safe ? safeTtl : flaggedTtl).toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Boolean safe, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, safe, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Boolean safe, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
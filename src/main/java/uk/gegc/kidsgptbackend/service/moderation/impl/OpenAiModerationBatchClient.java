@@ -0,0 +1,78 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calls OpenAI's {@code /v1/moderations} with an array {@code input}. Spring AI's
+ * {@code ModerationModel} only sends a single string per request, which is why batches go
+ * through this client instead.
+ */
+@Component
+public class OpenAiModerationBatchClient implements ModerationBatchClient {
+
+    private final RestClient restClient;
+    private final String model;
+    private final UpstreamGuard moderationGuard;
+
+    public OpenAiModerationBatchClient(
+            RestClient.Builder restClientBuilder,
+            @Value("${spring.ai.openai.base-url:https://api.openai.com}") String baseUrl,
+            @Value("${spring.ai.openai.api-key:}") String apiKey,
+            @Value("${spring.ai.openai.moderation.options.model:omni-moderation-latest}") String model,
+            @Qualifier("moderationGuard") UpstreamGuard moderationGuard
+    ) {
+        this.restClient = restClientBuilder
+                .baseUrl(baseUrl)
+                .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
+                .build();
+        this.model = model;
+        this.moderationGuard = moderationGuard;
+    }
+
+    @Override
+    public List<Verdict> moderate(List<String> inputs) {
+        ModerationsResponse response = moderationGuard.call(() -> restClient.post()
+                .uri("/v1/moderations")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new ModerationsRequest(inputs, model))
+                .retrieve()
+                .body(ModerationsResponse.class));
+        if (response == null || response.results() == null || response.results().size() != inputs.size()) {
+            throw new IllegalStateException("Moderation response does not match the " + inputs.size() + " inputs sent");
+        }
+        return response.results().stream()
+                .map(r -> new Verdict(r.flagged(), flaggedCategories(r.categories())))
+                .toList();
+    }
+
+    private static List<String> flaggedCategories(Map<String, Boolean> categories) {
+        if (categories == null) {
+            return List.of();
+        }
+        return categories.entrySet().stream()
+                .filter(e -> Boolean.TRUE.equals(e.getValue()))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    record ModerationsRequest(List<String> input, String model) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record ModerationsResponse(List<Result> results) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Result(boolean flagged, Map<String, Boolean> categories) {
+    }
+}
@@ -0,0 +1,38 @@
+package uk.gegc.kidsgptbackend.service.ratelimit;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Outcome of a rate-limit check, with the values for the {@code RateLimit-*} headers
+ * (IETF draft "RateLimit header fields for HTTP") and {@code Retry-After}.
+ *
+ * @param limit             requests allowed per window
+ * @param remaining         requests still allowed right now
+ * @param resetSeconds      seconds until the quota is full again
+ * @param retryAfterSeconds seconds until the next request would be admitted; 0 when allowed
+ * @param windowSeconds     length of the window
+ */
+public record RateLimitDecision(boolean allowed, int limit, int remaining, long resetSeconds,
+                                long retryAfterSeconds, long windowSeconds) {
+
+    /**
+     * Returned when rate limiting is switched off; produces no headers.
+     */
+    public static final RateLimitDecision UNLIMITED =
+            new RateLimitDecision(true, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0, 0);
+
+    public HttpHeaders headers() {
+        HttpHeaders headers = new HttpHeaders();
+        if (limit == Integer.MAX_VALUE) {
+            return headers;
+        }
+        headers.set("RateLimit-Limit", Integer.toString(limit));
+        headers.set("RateLimit-Remaining", Integer.toString(remaining));
+        headers.set("RateLimit-Reset", Long.toString(resetSeconds));
+        headers.set("RateLimit-Policy", limit + ";w=" + windowSeconds);
+        if (!allowed) {
+            headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,19 @@
+package uk.gegc.kidsgptbackend.service.ratelimit;
+
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.Collection;
+
+/**
+ * Admits or rejects requests per key (a username today, a family later) against the
+ * limit configured for the caller's roles.
+ */
+public interface RateLimiter {
+
+    /**
+     * Takes one request from the key's quota.
+     *
+     * @param authorities used to pick the limit when the key has no bucket yet
+     */
+    RateLimitDecision tryAcquire(String key, Collection<? extends GrantedAuthority> authorities);
+}
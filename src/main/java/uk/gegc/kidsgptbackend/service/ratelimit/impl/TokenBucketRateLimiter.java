@@ -0,0 +1,183 @@
+package uk.gegc.kidsgptbackend.service.ratelimit.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Service;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimitDecision;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimiter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process token bucket per key, implemented as GCRA (generic cell rate algorithm): the
+ * whole bucket state is one "theoretical arrival time" updated with a CAS, so admitting a
+ * request is a map lookup plus one compare-and-set with no locks. A key gets
+ * {@code limit} requests per {@code chat.rate-limit.period}, all of which may be used as
+ * a burst. The limit comes from the caller's roles ({@code chat.rate-limit.role-limits},
+ * highest wins) when the bucket is created.
+ * <p>
+ * Buckets that have refilled completely carry no state worth keeping, so a periodic sweep
+ * drops them. A request racing with the sweep may land on the dropped bucket and go
+ * uncounted; that is at most one extra request for a key that was idle anyway.
+ */
+@Service
+public class TokenBucketRateLimiter implements RateLimiter {
+
+    private final boolean enabled;
+    private final long periodNanos;
+    private final int defaultLimit;
+    private final Map<String, Integer> roleLimits;
+    private final long idleNanos;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Counter rejected;
+
+    @Autowired
+    public TokenBucketRateLimiter(
+            @Value("${chat.rate-limit.enabled:true}") boolean enabled,
+            @Value("${chat.rate-limit.period:PT1M}") Duration period,
+            @Value("${chat.rate-limit.default-limit:10}") int defaultLimit,
+            @Value("${chat.rate-limit.role-limits:}") String roleLimits,
+            @Value("${chat.rate-limit.idle-after:PT10M}") Duration idleAfter,
+            MeterRegistry meterRegistry
+    ) {
+        this(enabled, period, defaultLimit, parseLimits(roleLimits), idleAfter, System::nanoTime, meterRegistry);
+    }
+
+    TokenBucketRateLimiter(boolean enabled, Duration period, int defaultLimit, Map<String, Integer> roleLimits,
+                           Duration idleAfter, LongSupplier clock, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.periodNanos = period.toNanos();
+        this.defaultLimit = defaultLimit;
+        this.roleLimits = Map.copyOf(roleLimits);
+        this.idleNanos = idleAfter.toNanos();
+        this.clock = clock;
+        this.rejected = meterRegistry.counter("chat.rate_limit.rejected");
+        meterRegistry.gaugeMapSize("chat.rate_limit.buckets", Tags.empty(), buckets);
+    }
+
+    @Override
+    public RateLimitDecision tryAcquire(String key, Collection<? extends GrantedAuthority> authorities) {
+        if (!enabled) {
+            return RateLimitDecision.UNLIMITED;
+        }
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new Bucket(limitFor(authorities), periodNanos));
+        }
+        RateLimitDecision decision = bucket.tryAcquire(clock.getAsLong());
+        if (!decision.allowed()) {
+            rejected.increment();
+        }
+        return decision;
+    }
+
+    /**
+     * Drops buckets that have been full for {@code chat.rate-limit.idle-after}.
+     */
+    @Scheduled(fixedDelayString = "${chat.rate-limit.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long idleBefore = clock.getAsLong() - idleNanos;
+        buckets.values().removeIf(bucket -> bucket.idleSince(idleBefore));
+    }
+
+    int size() {
+        return buckets.size();
+    }
+
+    private int limitFor(Collection<? extends GrantedAuthority> authorities) {
+        int limit = -1;
+        if (authorities != null) {
+            for (GrantedAuthority authority : authorities) {
+                Integer roleLimit = roleLimits.get(authority.getAuthority());
+                if (roleLimit != null && roleLimit > limit) {
+                    limit = roleLimit;
+                }
+            }
+        }
+        return limit < 0 ? defaultLimit : limit;
+    }
+
+    /**
+     * Parses {@code ROLE_PARENT=30,ROLE_ADMIN=120}.
+     */
+    static Map<String, Integer> parseLimits(String spec) {
+        Map<String, Integer> limits = new HashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return limits;
+        }
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid chat.rate-limit.role-limits entry: " + entry);
+            }
+            limits.put(parts[0].strip(), Integer.parseInt(parts[1].strip()));
+        }
+        return limits;
+    }
+
+    static final class Bucket {
+
+        private static final VarHandle TAT;
+
+        static {
+            try {
+                TAT = MethodHandles.lookup().findVarHandle(Bucket.class, "tat", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final int limit;
+        private final long emissionNanos;
+        private final long periodNanos;
+        @SuppressWarnings("unused") // accessed through TAT
+        private volatile long tat = Long.MIN_VALUE;
+
+        Bucket(int limit, long periodNanos) {
+            this.limit = limit;
+            this.periodNanos = periodNanos;
+            this.emissionNanos = Math.max(1, periodNanos / Math.max(1, limit));
+        }
+
+        RateLimitDecision tryAcquire(long now) {
+            while (true) {
+                long current = (long) TAT.getVolatile(this);
+                long next = Math.max(current, now) + emissionNanos;
+                long admitAt = next - periodNanos;
+                if (limit <= 0 || admitAt > now) {
+                    long retryAfter = limit <= 0 ? periodNanos : admitAt - now;
+                    return new RateLimitDecision(false, limit, 0, seconds(Math.max(current, now) - now),
+                            Math.max(1, seconds(retryAfter)), seconds(periodNanos));
+                }
+                if (TAT.compareAndSet(this, current, next)) {
+                    int remaining = (int) ((now - admitAt) / emissionNanos);
+                    return new RateLimitDecision(true, limit, remaining, seconds(next - now), 0, seconds(periodNanos));
+                }
+            }
+        }
+
+        /**
+         * @return whether the bucket was already full at {@code time}
+         */
+        boolean idleSince(long time) {
+            return (long) TAT.getVolatile(this) < time;
+        }
+
+        private static long seconds(long nanos) {
+            return (nanos + 999_999_999L) / 1_000_000_000L;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package uk.gegc.kidsgptbackend.service.resilience;
+
+import reactor.core.publisher.Flux;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+
+import java.util.function.Supplier;
+
+/**
+ * Admission control for one upstream service (the LLM, moderation): a concurrency limit
+ * that adapts to the upstream's latency, and a circuit breaker that stops calling it
+ * while it is failing. Refused calls fail immediately instead of tying up a request
+ * thread.
+ */
+public interface UpstreamGuard {
+
+    String name();
+
+    /**
+     * @throws UpstreamUnavailableException if the call is refused
+     */
+    <T> T call(Supplier<T> call);
+
+    /**
+     * Guards a stream from subscription until it terminates or is cancelled; latency is
+     * measured to the first element. A refusal is signalled as an
+     * {@link UpstreamUnavailableException} error.
+     */
+    <T> Flux<T> stream(Supplier<Flux<T>> stream);
+
+    UpstreamStatus status();
+}
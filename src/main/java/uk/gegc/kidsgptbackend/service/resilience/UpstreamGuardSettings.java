@@ -0,0 +1,19 @@
+package uk.gegc.kidsgptbackend.service.resilience;
+
+import java.time.Duration;
+
+/**
+ * @param initialLimit         concurrent calls admitted at startup
+ * @param minLimit             floor the limit never drops below
+ * @param maxConcurrency       bulkhead: hard ceiling on concurrent calls, however fast the upstream is
+ * @param tolerance            how far latency may rise above its long-run average before the limit shrinks
+ * @param slidingWindow        number of recent calls the failure rate is computed over
+ * @param minimumCalls         calls needed in the window before the circuit may open
+ * @param failureRateThreshold failure rate (0..1) that opens the circuit
+ * @param openDuration         how long an open circuit refuses calls before letting trial calls through
+ * @param halfOpenCalls        trial calls that must all succeed to close the circuit again
+ */
+public record UpstreamGuardSettings(boolean enabled, int initialLimit, int minLimit, int maxConcurrency,
+                                    double tolerance, int slidingWindow, int minimumCalls,
+                                    double failureRateThreshold, Duration openDuration, int halfOpenCalls) {
+}
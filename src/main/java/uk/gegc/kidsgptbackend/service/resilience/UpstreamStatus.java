@@ -0,0 +1,13 @@
+package uk.gegc.kidsgptbackend.service.resilience;
+
+/**
+ * @param circuit        {@code CLOSED}, {@code OPEN} or {@code HALF_OPEN}
+ * @param limit          concurrent calls currently admitted
+ * @param maxConcurrency ceiling the limit can grow to
+ * @param latencyMillis  long-run average latency the limit is steered by
+ * @param rejected       calls refused since startup
+ * @param shedding       whether new calls would be refused right now
+ */
+public record UpstreamStatus(String circuit, int limit, int inFlight, int maxConcurrency, long latencyMillis,
+                             long rejected, boolean shedding) {
+}
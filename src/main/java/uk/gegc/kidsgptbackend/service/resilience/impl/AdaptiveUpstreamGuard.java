@@ -0,0 +1,174 @@
+package uk.gegc.kidsgptbackend.service.resilience.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuardSettings;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamStatus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * {@link UpstreamGuard} combining a {@link CircuitBreaker} with a
+ * {@link GradientConcurrencyLimit} capped at {@code maxConcurrency}, which acts as the
+ * bulkhead: however the limit moves, no more than that many request threads are ever
+ * waiting on this upstream. Admission never blocks; a call is either let through or
+ * refused on the spot.
+ */
+public class AdaptiveUpstreamGuard implements UpstreamGuard {
+
+    private final String name;
+    private final boolean enabled;
+    private final int maxConcurrency;
+    private final GradientConcurrencyLimit limit;
+    private final CircuitBreaker breaker;
+    private final LongSupplier clock;
+    private final Counter rejectedOpen;
+    private final Counter rejectedLimit;
+
+    public AdaptiveUpstreamGuard(String name, UpstreamGuardSettings settings, MeterRegistry meterRegistry) {
+        this(name, settings, System::nanoTime, meterRegistry);
+    }
+
+    AdaptiveUpstreamGuard(String name, UpstreamGuardSettings settings, LongSupplier clock, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.enabled = settings.enabled();
+        this.maxConcurrency = settings.maxConcurrency();
+        this.limit = new GradientConcurrencyLimit(settings.initialLimit(), settings.minLimit(),
+                settings.maxConcurrency(), settings.tolerance());
+        this.breaker = new CircuitBreaker(settings.slidingWindow(), settings.minimumCalls(),
+                settings.failureRateThreshold(), settings.openDuration().toNanos(), settings.halfOpenCalls());
+        this.clock = clock;
+        this.rejectedOpen = meterRegistry.counter("upstream.rejected", "upstream", name, "reason", "circuit_open");
+        this.rejectedLimit = meterRegistry.counter("upstream.rejected", "upstream", name, "reason", "limit");
+        Gauge.builder("upstream.limit", limit, GradientConcurrencyLimit::limit)
+                .tag("upstream", name)
+                .register(meterRegistry);
+        Gauge.builder("upstream.in_flight", limit, GradientConcurrencyLimit::inFlight)
+                .tag("upstream", name)
+                .register(meterRegistry);
+        Gauge.builder("upstream.circuit_open", breaker, b -> b.state() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .tag("upstream", name)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public <T> T call(Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        Permit permit = acquire();
+        boolean succeeded = false;
+        try {
+            T result = call.get();
+            succeeded = true;
+            return result;
+        } finally {
+            // a caller that gave up on the call (a hedge that lost) says nothing about the upstream
+            permit.finish(succeeded ? SignalType.ON_COMPLETE
+                    : Thread.currentThread().isInterrupted() ? SignalType.CANCEL : SignalType.ON_ERROR);
+        }
+    }
+
+    @Override
+    public <T> Flux<T> stream(Supplier<Flux<T>> stream) {
+        if (!enabled) {
+            return Flux.defer(stream);
+        }
+        return Flux.defer(() -> {
+            Permit permit = acquire();
+            Flux<T> source;
+            try {
+                source = stream.get();
+            } catch (RuntimeException e) {
+                permit.finish(SignalType.ON_ERROR);
+                throw e;
+            }
+            return source
+                    .doOnNext(item -> permit.sample())
+                    .doFinally(permit::finish);
+        });
+    }
+
+    @Override
+    public UpstreamStatus status() {
+        CircuitBreaker.State state = breaker.state();
+        int currentLimit = limit.limit();
+        int inFlight = limit.inFlight();
+        return new UpstreamStatus(state.name(), currentLimit, inFlight, maxConcurrency,
+                TimeUnit.NANOSECONDS.toMillis(limit.latencyNanos()),
+                (long) (rejectedOpen.count() + rejectedLimit.count()),
+                enabled && (state == CircuitBreaker.State.OPEN || inFlight >= currentLimit));
+    }
+
+    private Permit acquire() {
+        long now = clock.getAsLong();
+        long generation = breaker.tryAcquire(now);
+        if (generation == CircuitBreaker.REJECTED) {
+            rejectedOpen.increment();
+            throw new UpstreamUnavailableException(name, "The " + name + " service is unavailable, please try again shortly",
+                    Math.max(1, TimeUnit.NANOSECONDS.toSeconds(breaker.remainingOpenNanos(now))));
+        }
+        if (!limit.tryAcquire()) {
+            breaker.onIgnored(generation);
+            rejectedLimit.increment();
+            throw new UpstreamUnavailableException(name, "The " + name + " service is busy, please try again shortly", 1);
+        }
+        return new Permit(generation, now, limit.inFlight());
+    }
+
+    /**
+     * One admitted call. The latency sample is taken once, at the first response (or at
+     * the end for a call); the permit is returned once, whichever way the call ends.
+     */
+    private final class Permit {
+        private final long generation;
+        private final long started;
+        private final int inFlightAtStart;
+        private final AtomicBoolean sampled = new AtomicBoolean();
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Permit(long generation, long started, int inFlightAtStart) {
+            this.generation = generation;
+            this.started = started;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        void sample() {
+            if (sampled.compareAndSet(false, true)) {
+                limit.onSample(clock.getAsLong() - started, inFlightAtStart);
+            }
+        }
+
+        void finish(SignalType signal) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            limit.release();
+            long now = clock.getAsLong();
+            switch (signal) {
+                case ON_COMPLETE -> {
+                    sample();
+                    breaker.onSuccess(generation, now);
+                }
+                case ON_ERROR -> {
+                    limit.onDrop();
+                    breaker.onFailure(generation, now);
+                }
+                default -> breaker.onIgnored(generation);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package uk.gegc.kidsgptbackend.service.resilience.impl;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Count-based circuit breaker. Closed, it records the outcome of the last
+ * {@code windowSize} calls and opens once at least {@code minimumCalls} have been seen
+ * and the failure rate reaches the threshold. Open, it refuses everything until
+ * {@code openNanos} have passed, then lets {@code halfOpenCalls} trial calls through:
+ * one failure reopens it, all succeeding closes it with a fresh window.
+ * <p>
+ * Every admitted call carries the generation it was admitted in, so outcomes of calls
+ * that started before a state change do not count towards the new state.
+ */
+final class CircuitBreaker {
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    static final long REJECTED = -1;
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final boolean[] window;
+    private int next;
+    private int recorded;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAt;
+    private int trialsAdmitted;
+    private int trialsSucceeded;
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openNanos, int halfOpenCalls) {
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openNanos;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.window = new boolean[this.windowSize];
+    }
+
+    /**
+     * @return the generation to report the outcome against, or {@link #REJECTED}
+     */
+    long tryAcquire(long now) {
+        lock.lock();
+        try {
+            if (state == State.OPEN && now - openedAt >= openNanos) {
+                transition(State.HALF_OPEN, now);
+            }
+            return switch (state) {
+                case CLOSED -> generation;
+                case OPEN -> REJECTED;
+                case HALF_OPEN -> {
+                    if (trialsAdmitted >= halfOpenCalls) {
+                        yield REJECTED;
+                    }
+                    trialsAdmitted++;
+                    yield generation;
+                }
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onSuccess(long admittedIn, long now) {
+        lock.lock();
+        try {
+            if (admittedIn != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                if (++trialsSucceeded >= halfOpenCalls) {
+                    transition(State.CLOSED, now);
+                }
+            } else if (state == State.CLOSED) {
+                record(false, now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onFailure(long admittedIn, long now) {
+        lock.lock();
+        try {
+            if (admittedIn != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                transition(State.OPEN, now);
+            } else if (state == State.CLOSED) {
+                record(true, now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The call ended without a verdict on the upstream (cancelled); frees its trial slot.
+     */
+    void onIgnored(long admittedIn) {
+        lock.lock();
+        try {
+            if (admittedIn == generation && state == State.HALF_OPEN) {
+                trialsAdmitted--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    State state() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return nanos until an open circuit lets trial calls through, 0 otherwise
+     */
+    long remainingOpenNanos(long now) {
+        lock.lock();
+        try {
+            return state == State.OPEN ? Math.max(0, openedAt + openNanos - now) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(boolean failed, long now) {
+        if (recorded == windowSize && window[next]) {
+            failures--;
+        }
+        window[next] = failed;
+        next = (next + 1) % windowSize;
+        recorded = Math.min(windowSize, recorded + 1);
+        if (failed) {
+            failures++;
+        }
+        if (recorded >= minimumCalls && failures > 0 && failures >= failureRateThreshold * recorded) {
+            transition(State.OPEN, now);
+        }
+    }
+
+    private void transition(State target, long now) {
+        state = target;
+        generation++;
+        trialsAdmitted = 0;
+        trialsSucceeded = 0;
+        if (target == State.OPEN) {
+            openedAt = now;
+        }
+        if (target == State.CLOSED) {
+            next = 0;
+            recorded = 0;
+            failures = 0;
+        }
+    }
+}
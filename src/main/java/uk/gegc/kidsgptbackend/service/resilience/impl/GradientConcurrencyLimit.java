@@ -0,0 +1,111 @@
+package uk.gegc.kidsgptbackend.service.resilience.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit steered by latency, in the style of Netflix's gradient limiter: each
+ * sample is compared with a slow-moving average, and while latency stays within
+ * {@code tolerance} of it the limit grows by about its square root (the queue the upstream
+ * is allowed to build). When latency rises the gradient drops below one and the limit
+ * shrinks proportionally; a failed call cuts it multiplicatively (AIMD).
+ * <p>
+ * Admission is a CAS on the in-flight count; only samples take the lock.
+ */
+final class GradientConcurrencyLimit {
+
+    private static final int LONG_WINDOW = 100;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private double estimate;
+    private double longRttNanos;
+    private volatile int limit;
+
+    GradientConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.estimate = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.limit = (int) estimate;
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @param inFlightAtStart calls in flight when this one was admitted; a limit that was
+     *                        not being used is not grown
+     */
+    void onSample(long rttNanos, int inFlightAtStart) {
+        lock.lock();
+        try {
+            if (longRttNanos == 0) {
+                longRttNanos = rttNanos;
+            } else {
+                longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+            }
+            if (longRttNanos > 2.0 * rttNanos) {
+                // the average lags behind a recovery; let it come back down quickly
+                longRttNanos *= 0.95;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRttNanos / Math.max(1, rttNanos)));
+            double target = estimate * gradient + Math.sqrt(estimate);
+            if (target > estimate && inFlightAtStart < estimate / 2) {
+                return;
+            }
+            update(estimate * (1 - SMOOTHING) + target * SMOOTHING);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onDrop() {
+        lock.lock();
+        try {
+            update(estimate * BACKOFF);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    long latencyNanos() {
+        lock.lock();
+        try {
+            return (long) longRttNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void update(double next) {
+        estimate = Math.min(maxLimit, Math.max(minLimit, next));
+        limit = (int) estimate;
+    }
+}
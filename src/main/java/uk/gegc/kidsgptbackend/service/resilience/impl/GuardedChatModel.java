@@ -0,0 +1,38 @@
+package uk.gegc.kidsgptbackend.service.resilience.impl;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard;
+
+/**
+ * Puts every completion, blocking or streamed, behind an {@link UpstreamGuard}, so all
+ * users of the {@code ChatClient} share one limit and one circuit.
+ */
+public class GuardedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final UpstreamGuard guard;
+
+    public GuardedChatModel(ChatModel delegate, UpstreamGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return guard.call(() -> delegate.call(prompt));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return guard.stream(() -> delegate.stream(prompt));
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+}
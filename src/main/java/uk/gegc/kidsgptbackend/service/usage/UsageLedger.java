@@ -0,0 +1,24 @@
+package uk.gegc.kidsgptbackend.service.usage;
+
+import org.springframework.security.core.GrantedAuthority;
+import uk.gegc.kidsgptbackend.exception.TokenBudgetExceededException;
+
+import java.util.Collection;
+
+public interface UsageLedger {
+
+    /**
+     * Counts one chat turn and the tokens it spent. Never touches the database.
+     */
+    void record(String username, long tokens);
+
+    /**
+     * @return tokens used today, including usage not yet flushed
+     */
+    long usedToday(String username);
+
+    /**
+     * @throws TokenBudgetExceededException when today's usage has reached the daily budget
+     */
+    void ensureWithinBudget(String username, Collection<? extends GrantedAuthority> authorities);
+}
@@ -0,0 +1,276 @@
+package uk.gegc.kidsgptbackend.service.usage.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Service;
+import uk.gegc.kidsgptbackend.exception.TokenBudgetExceededException;
+import uk.gegc.kidsgptbackend.model.usage.TokenUsage;
+import uk.gegc.kidsgptbackend.repository.usage.TokenUsageBatchRepository.UsageDelta;
+import uk.gegc.kidsgptbackend.repository.usage.TokenUsageRepository;
+import uk.gegc.kidsgptbackend.service.usage.UsageLedger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps each user's daily token usage in memory and writes it behind: chat turns only add
+ * to {@link LongAdder}s, and a scheduled flush sends the accumulated deltas as one batched
+ * upsert, then reads the stored totals back so usage recorded by other instances is
+ * picked up too.
+ * <p>
+ * Budgets are checked against the in-memory total before a turn starts. A turn's tokens
+ * are only known once it finishes, so concurrent turns can overshoot the budget by up to
+ * one turn each. Usage that has not been flushed is lost if the process dies.
+ */
+@Service
+public class WriteBehindUsageLedger implements UsageLedger {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindUsageLedger.class);
+
+    private final boolean enabled;
+    private final long defaultBudget;
+    private final Map<String, Long> roleBudgets;
+    private final TokenUsageRepository repository;
+    private final Clock clock;
+    private final ConcurrentHashMap<Key, Tally> tallies = new ConcurrentHashMap<>();
+    private final Counter rejected;
+    private final Counter flushFailures;
+
+    @Autowired
+    public WriteBehindUsageLedger(
+            @Value("${chat.usage.enabled:true}") boolean enabled,
+            @Value("${chat.usage.daily-token-budget:50000}") long defaultBudget,
+            @Value("${chat.usage.role-budgets:}") String roleBudgets,
+            TokenUsageRepository repository,
+            MeterRegistry meterRegistry
+    ) {
+        this(enabled, defaultBudget, parseBudgets(roleBudgets), repository, Clock.systemUTC(), meterRegistry);
+    }
+
+    WriteBehindUsageLedger(boolean enabled, long defaultBudget, Map<String, Long> roleBudgets,
+                           TokenUsageRepository repository, Clock clock, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.defaultBudget = defaultBudget;
+        this.roleBudgets = Map.copyOf(roleBudgets);
+        this.repository = repository;
+        this.clock = clock;
+        this.rejected = meterRegistry.counter("chat.usage.budget_rejected");
+        this.flushFailures = meterRegistry.counter("chat.usage.flush_failures");
+        meterRegistry.gaugeMapSize("chat.usage.tallies", Tags.empty(), tallies);
+    }
+
+    @Override
+    public void record(String username, long tokens) {
+        if (!enabled) {
+            return;
+        }
+        Tally tally = tally(new Key(username, today()));
+        tally.pendingRequests.increment();
+        if (tokens > 0) {
+            tally.pendingTokens.add(tokens);
+        }
+    }
+
+    @Override
+    public long usedToday(String username) {
+        Key key = new Key(username, today());
+        Tally tally = tally(key);
+        if (!tally.loaded) {
+            long stored = repository.findById(new TokenUsage.Key(username, key.date()))
+                    .map(TokenUsage::getTokens)
+                    .orElse(0L);
+            tally.load(stored);
+        }
+        return tally.total();
+    }
+
+    @Override
+    public void ensureWithinBudget(String username, Collection<? extends GrantedAuthority> authorities) {
+        if (!enabled) {
+            return;
+        }
+        if (usedToday(username) >= budgetFor(authorities)) {
+            rejected.increment();
+            throw new TokenBudgetExceededException("Daily chat allowance used up, come back tomorrow",
+                    secondsUntilTomorrow());
+        }
+    }
+
+    /**
+     * Writes pending usage in one batch and refreshes the flushed totals from the table.
+     * Tallies for earlier days are dropped once they have nothing left to write.
+     */
+    @Scheduled(fixedDelayString = "${chat.usage.flush-interval-ms:10000}")
+    public void flush() {
+        LocalDate today = today();
+        Map<Key, Tally> batch = new HashMap<>();
+        List<UsageDelta> deltas = new ArrayList<>();
+        for (Map.Entry<Key, Tally> entry : tallies.entrySet()) {
+            Key key = entry.getKey();
+            Tally tally = entry.getValue();
+            long tokens = tally.pendingTokens.sum();
+            long requests = tally.pendingRequests.sum();
+            if (tokens == 0 && requests == 0) {
+                if (key.date().isBefore(today)) {
+                    retire(key, tally);
+                }
+                continue;
+            }
+            // count the delta as flushed before taking it out of pending, so the total never dips
+            tally.flushed.addAndGet(tokens);
+            tally.pendingTokens.add(-tokens);
+            tally.pendingRequests.add(-requests);
+            batch.put(key, tally);
+            deltas.add(new UsageDelta(key.username(), key.date(), tokens, requests));
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            repository.addUsage(deltas);
+        } catch (RuntimeException e) {
+            flushFailures.increment();
+            logger.warn("Could not flush token usage for {} users, retrying next time", deltas.size(), e);
+            for (UsageDelta delta : deltas) {
+                Tally tally = batch.get(new Key(delta.username(), delta.usageDate()));
+                tally.pendingTokens.add(delta.tokens());
+                tally.pendingRequests.add(delta.requests());
+                tally.flushed.addAndGet(-delta.tokens());
+            }
+            return;
+        }
+        refresh(today, batch);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    int size() {
+        return tallies.size();
+    }
+
+    private void refresh(LocalDate today, Map<Key, Tally> flushed) {
+        List<String> usernames = flushed.keySet().stream()
+                .filter(key -> key.date().equals(today))
+                .map(Key::username)
+                .toList();
+        if (usernames.isEmpty()) {
+            return;
+        }
+        try {
+            for (TokenUsage usage : repository.findByUsageDateAndUsernameIn(today, usernames)) {
+                Tally tally = flushed.get(new Key(usage.getUsername(), today));
+                if (tally != null) {
+                    tally.load(usage.getTokens());
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not read back token usage totals", e);
+        }
+    }
+
+    /**
+     * Removes an idle tally; anything recorded against it while it was being removed is
+     * moved to a fresh tally for the same key so the next flush still writes it.
+     */
+    private void retire(Key key, Tally tally) {
+        if (!tallies.remove(key, tally)) {
+            return;
+        }
+        long tokens = tally.pendingTokens.sum();
+        long requests = tally.pendingRequests.sum();
+        if (tokens != 0 || requests != 0) {
+            Tally replacement = tally(key);
+            replacement.pendingTokens.add(tokens);
+            replacement.pendingRequests.add(requests);
+        }
+    }
+
+    private Tally tally(Key key) {
+        Tally tally = tallies.get(key);
+        return tally != null ? tally : tallies.computeIfAbsent(key, k -> new Tally());
+    }
+
+    private long budgetFor(Collection<? extends GrantedAuthority> authorities) {
+        long budget = -1;
+        if (authorities != null) {
+            for (GrantedAuthority authority : authorities) {
+                Long roleBudget = roleBudgets.get(authority.getAuthority());
+                if (roleBudget != null && roleBudget > budget) {
+                    budget = roleBudget;
+                }
+            }
+        }
+        return budget < 0 ? defaultBudget : budget;
+    }
+
+    private LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    private long secondsUntilTomorrow() {
+        return Math.max(1, Duration.between(clock.instant(),
+                today().plusDays(1).atStartOfDay(ZoneOffset.UTC)).toSeconds());
+    }
+
+    /**
+     * Parses {@code ROLE_PARENT=200000,ROLE_ADMIN=1000000}.
+     */
+    static Map<String, Long> parseBudgets(String spec) {
+        Map<String, Long> budgets = new HashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return budgets;
+        }
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid chat.usage.role-budgets entry: " + entry);
+            }
+            budgets.put(parts[0].strip(), Long.parseLong(parts[1].strip()));
+        }
+        return budgets;
+    }
+
+    record Key(String username, LocalDate date) {
+    }
+
+    /**
+     * {@code flushed} is the stored total as last written or read; {@code pending} is what
+     * has been recorded since. Only the flush moves tokens from one to the other.
+     */
+    static final class Tally {
+        final LongAdder pendingTokens = new LongAdder();
+        final LongAdder pendingRequests = new LongAdder();
+        final AtomicLong flushed = new AtomicLong();
+        volatile boolean loaded;
+
+        long total() {
+            return flushed.get() + pendingTokens.sum();
+        }
+
+        void load(long stored) {
+            flushed.set(stored);
+            loaded = true;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package uk.gegc.kidsgptbackend.systemstatus;
 
 import lombok.Data;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamStatus;
 
 import java.time.Instant;
 import java.util.Map;
@@ -13,6 +14,7 @@ public class SystemStatusDto {
     private VersionInfo version;
     private Instant timestamp;
     private Map<String, String> components;
+    private Map<String, UpstreamStatus> upstreams;
 
     @Data
     public static class VersionInfo {
@@ -8,11 +8,15 @@ import org.springframework.boot.actuate.jdbc.DataSourceHealthIndicator;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamStatus;
 
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 @Service
 @RequiredArgsConstructor
@@ -20,6 +24,7 @@ public class SystemStatusService {
 
     private final HealthContributorRegistry healthRegistry;   // Actuator SPI
     private final Environment               env;              // resolved properties
+    private final List<UpstreamGuard>       upstreamGuards;   // LLM, moderation
 
     private final long startTime = System.currentTimeMillis();
 
@@ -39,24 +44,33 @@ public class SystemStatusService {
         boolean  keyPresent   = StringUtils.hasText(key);
         boolean  keyLooksGood = keyPresent && key.startsWith("sk-");
 
+        /* ---------- upstream admission ---------- */
+        Map<String, UpstreamStatus> upstreams = new TreeMap<>();
+        for (UpstreamGuard guard : upstreamGuards) {
+            upstreams.put(guard.name(), guard.status());
+        }
+        boolean shedding = upstreams.values().stream().anyMatch(UpstreamStatus::shedding);
+
         /* ---------- assemble DTO ---------- */
         Map<String, String> components = new HashMap<>();
         components.put("db",        dbUp        ? "UP"            : "DOWN");
         components.put("openaiKey", keyPresent  ? (keyLooksGood   ? "PRESENT"
                 : "INVALID_FORMAT")
                 : "MISSING");
+        upstreams.forEach((name, status) -> components.put(name, status.shedding() ? "SHEDDING" : "UP"));
 
         SystemStatusDto.VersionInfo version = new SystemStatusDto.VersionInfo();
         version.setCommit(commit);
         version.setBuildTag(buildTag);
 
         SystemStatusDto dto = new SystemStatusDto();
-        dto.setOverall(dbUp && keyLooksGood ? "UP" : "DOWN");
+        dto.setOverall(!(dbUp && keyLooksGood) ? "DOWN" : shedding ? "DEGRADED" : "UP");
         dto.setApp("UP");
         dto.setUptimeSeconds((System.currentTimeMillis() - startTime) / 1000);
         dto.setVersion(version);
         dto.setTimestamp(Instant.now());
         dto.setComponents(components);
+        dto.setUpstreams(upstreams);
 
         return dto;
     }
@@ -0,0 +1,67 @@
+package uk.gegc.kidsgptbackend.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import uk.gegc.kidsgptbackend.service.moderation.impl.AhoCorasickMatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the local blocklist on clean text (the common case: the whole message is
+ * scanned) for a short question, a typical kid message and a full assistant reply.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlocklistMatcherBenchmark {
+
+    private static final String SHORT = "why is the sky blue?";
+    private static final String MESSAGE = "Hi! My teacher said dinosaurs lived millions of years ago. "
+            + "How do we know how old the bones are, and were any of them as big as a house?";
+    private static final String REPLY = ("Great question! Scientists use something called radiometric dating. "
+            + "Rocks near the fossils contain tiny amounts of elements that slowly change over time, like a clock. "
+            + "By measuring how much has changed, they can tell how old the rock is. ").repeat(3);
+
+    @Param({"short", "message", "reply", "unicode"})
+    public String text;
+
+    private AhoCorasickMatcher matcher;
+    private String input;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> words = new ArrayList<>();
+        try (InputStream in = getClass().getResourceAsStream("/moderation/blocklist.txt")) {
+            new String(in.readAllBytes(), StandardCharsets.UTF_8).lines()
+                    .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                    .forEach(words::add);
+        }
+        // pad to a realistically sized production list
+        for (int i = 0; i < 500; i++) {
+            words.add("blockedword" + i);
+        }
+        matcher = AhoCorasickMatcher.compile(words);
+        input = switch (text) {
+            case "short" -> SHORT;
+            case "message" -> MESSAGE;
+            case "reply" -> REPLY;
+            default -> "Ça va? Мой любимый цвет — синий, and I like crème brûlée.";
+        };
+    }
+
+    @Benchmark
+    public String findFirst() {
+        return matcher.findFirst(input);
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(new String[]{BlocklistMatcherBenchmark.class.getSimpleName()});
+    }
+}
@@ -0,0 +1,237 @@
+package uk.gegc.kidsgptbackend.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end load test comparing {@code spring.threads.virtual.enabled=true} with the
+ * platform-thread mode at 2,000 concurrent chats. Not a JMH benchmark: it measures the
+ * running application over HTTP, with OpenAI replaced by a local stub of fixed latency so
+ * that the numbers show how the server holds up while requests wait on the upstream.
+ * <p>
+ * 1. Start the stub (chat completions answer after 800 ms, moderation after 50 ms):
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=uk.gegc.kidsgptbackend.benchmark.ChatLoadBenchmark -Dexec.args="stub 8089 800 50"
+ * </pre>
+ * 2. Start the application against it, with everything that would short-cut or refuse the
+ * repeated chats switched off, once per mode. The upstream guards are disabled rather than
+ * raised: their adaptive limits shrink as soon as the server itself slows down, which would
+ * turn the comparison into one of how much each mode sheds:
+ * <pre>
+ * java -jar target/kidsGPTbackend-*.jar --spring.ai.openai.base-url=http://localhost:8089 \
+ *     --spring.ai.openai.api-key=test --chat.rate-limit.enabled=false --chat.usage.enabled=false \
+ *     --chat.answer-cache.enabled=false --chat.semantic-cache.enabled=false --moderation.cache.enabled=false \
+ *     --upstream.llm.enabled=false --upstream.moderation.enabled=false \
+ *     --moderation.batch.sender-threads=256 --moderation.batch.sender-queue=4000 \
+ *     --spring.threads.virtual.enabled=true
+ * </pre>
+ * 3. Drive it (2,000 chats in flight, 20,000 in total after 2,000 warm-up chats):
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=uk.gegc.kidsgptbackend.benchmark.ChatLoadBenchmark \
+ *     -Dexec.args="drive http://localhost:8080 2000 20000"
+ * </pre>
+ * The driver prints throughput, latency percentiles and the status codes seen. With
+ * platform threads Tomcat serves at most {@code server.tomcat.threads.max} (200) chats at
+ * once and the rest queue in its accept backlog; with virtual threads every chat is
+ * served at once and throughput is bounded by the stub latency instead.
+ */
+public final class ChatLoadBenchmark {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final String[] QUESTIONS = {
+            "Why is the sky blue?", "How do volcanoes work?", "What do pandas eat?",
+            "Can you tell me a story about a brave dragon?", "Why did the Roman Empire fall?",
+            "How many legs does a spider have?", "What makes thunder so loud?"
+    };
+
+    private ChatLoadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 1 && args[0].equals("stub")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8089;
+            long chatLatencyMs = args.length > 2 ? Long.parseLong(args[2]) : 800;
+            long moderationLatencyMs = args.length > 3 ? Long.parseLong(args[3]) : 50;
+            stub(port, chatLatencyMs, moderationLatencyMs);
+        } else if (args.length >= 1 && args[0].equals("drive")) {
+            String baseUrl = args.length > 1 ? args[1] : "http://localhost:8080";
+            int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+            int requests = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+            drive(baseUrl, concurrency, requests);
+        } else {
+            System.err.println("usage: ChatLoadBenchmark stub [port] [chatLatencyMs] [moderationLatencyMs]");
+            System.err.println("       ChatLoadBenchmark drive [baseUrl] [concurrency] [requests]");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Serves {@code /v1/chat/completions} and {@code /v1/moderations} like OpenAI would,
+     * after the given delays, until the process is stopped.
+     */
+    private static void stub(int port, long chatLatencyMs, long moderationLatencyMs) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 4096);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/v1/chat/completions", exchange -> {
+            JsonNode request = JSON.readTree(exchange.getRequestBody());
+            sleep(chatLatencyMs);
+            String model = request.path("model").asText("gpt-4o-mini");
+            respond(exchange, """
+                    {"id":"chatcmpl-stub","object":"chat.completion","created":0,"model":"%s",
+                     "choices":[{"index":0,"finish_reason":"stop","message":{"role":"assistant",
+                     "content":"That is a great question! Here is a short, friendly answer."}}],
+                     "usage":{"prompt_tokens":120,"completion_tokens":14,"total_tokens":134}}
+                    """.formatted(model));
+        });
+        server.createContext("/v1/moderations", exchange -> {
+            JsonNode input = JSON.readTree(exchange.getRequestBody()).path("input");
+            int count = input.isArray() ? input.size() : 1;
+            sleep(moderationLatencyMs);
+            StringBuilder results = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                results.append(i == 0 ? "" : ",").append("{\"flagged\":false,\"categories\":{}}");
+            }
+            respond(exchange, "{\"id\":\"modr-stub\",\"model\":\"omni-moderation-latest\",\"results\":[" + results + "]}");
+        });
+        server.start();
+        System.out.printf("Stub OpenAI on port %d (chat %d ms, moderation %d ms)%n", port, chatLatencyMs, moderationLatencyMs);
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void drive(String baseUrl, int concurrency, int requests) throws Exception {
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        String token = login(client, baseUrl);
+
+        System.out.printf("Warming up with %d chats%n", concurrency);
+        run(client, baseUrl, token, concurrency, concurrency);
+        System.out.printf("Sending %d chats, %d at a time%n", requests, concurrency);
+        Result result = run(client, baseUrl, token, concurrency, requests);
+
+        long[] latencies = Arrays.copyOf(result.latenciesNanos(), result.completed());
+        Arrays.sort(latencies);
+        double seconds = result.elapsedNanos() / 1e9;
+        System.out.printf("completed  %d in %.1f s = %.1f chats/s%n", latencies.length, seconds, latencies.length / seconds);
+        System.out.printf("latency    p50 %d ms, p95 %d ms, p99 %d ms, max %d ms%n",
+                percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+                latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1_000_000);
+        System.out.printf("statuses   %s%n", new TreeMap<>(result.statuses()));
+    }
+
+    private record Result(long[] latenciesNanos, int completed, long elapsedNanos, Map<Integer, LongAdder> statuses) {
+    }
+
+    private static Result run(HttpClient client, String baseUrl, String token, int concurrency, int requests)
+            throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger completed = new AtomicInteger();
+        Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        Semaphore inFlight = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < requests; i++) {
+                inFlight.acquire();
+                // no contextId: every chat opens its own context, as an unknown id is rejected
+                String body = """
+                        {"message":"%s (%d)","tone":"FRIENDLY"}
+                        """.formatted(QUESTIONS[i % QUESTIONS.length], i);
+                callers.execute(() -> {
+                    long sent = System.nanoTime();
+                    int status;
+                    try {
+                        status = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/v1/chat"))
+                                .timeout(Duration.ofMinutes(2))
+                                .header("Content-Type", "application/json")
+                                .header("Authorization", "Bearer " + token)
+                                .POST(HttpRequest.BodyPublishers.ofString(body))
+                                .build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        status = -1;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        status = -1;
+                    } finally {
+                        inFlight.release();
+                    }
+                    statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+                    if (status == 200) {
+                        latencies[completed.getAndIncrement()] = System.nanoTime() - sent;
+                    }
+                });
+            }
+        }
+        return new Result(latencies, completed.get(), System.nanoTime() - start, statuses);
+    }
+
+    private static String login(HttpClient client, String baseUrl) throws IOException, InterruptedException {
+        String username = "load" + (System.currentTimeMillis() % 1_000_000);
+        String password = "load-test-password";
+        post(client, baseUrl + "/api/v1/auth/register", """
+                {"username":"%s","email":"%s@example.com","password":"%s"}
+                """.formatted(username, username, password));
+        HttpResponse<String> login = post(client, baseUrl + "/api/v1/auth/login", """
+                {"usernameOrEmail":"%s","password":"%s"}
+                """.formatted(username, password));
+        if (login.statusCode() != 200) {
+            throw new IllegalStateException("Login failed with " + login.statusCode() + ": " + login.body());
+        }
+        return JSON.readTree(login.body()).path("accessToken").asText();
+    }
+
+    private static HttpResponse<String> post(HttpClient client, String url, String json)
+            throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000;
+    }
+}
@@ -0,0 +1,139 @@
+package uk.gegc.kidsgptbackend.benchmark;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gegc.kidsgptbackend.repository.auth.RevokedTokenRepository;
+import uk.gegc.kidsgptbackend.security.JwtAuthenticationFilter;
+import uk.gegc.kidsgptbackend.security.JwtTokenProvider;
+import uk.gegc.kidsgptbackend.security.UserDetailsCache;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of {@link JwtAuthenticationFilter} for an authenticated request, against
+ * the previous behaviour ({@code legacyDoubleParse}: a new parser and an HMAC check in
+ * {@code validateToken}, then both again in {@code getAuthentication}). {@code singleParse}
+ * verifies once with the shared parser, {@code cachedClaims} hits the verified-claims cache,
+ * and {@code publicPath} is a permitAll request the filter now skips. User lookup and the
+ * revocation check are in-memory stubs, so only the token work is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class JwtFilterBenchmark {
+
+    private static final FilterChain CHAIN = (request, response) -> {
+    };
+
+    private UserDetailsService userDetailsService;
+    private JwtTokenProvider uncachedProvider;
+    private JwtAuthenticationFilter uncachedFilter;
+    private JwtAuthenticationFilter cachedFilter;
+    private String token;
+
+    @State(Scope.Thread)
+    public static class Exchange {
+        MockHttpServletRequest chat;
+        MockHttpServletRequest echo;
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        @Setup
+        public void setup(JwtFilterBenchmark benchmark) {
+            chat = request("/api/v1/chat", benchmark.token);
+            echo = request("/echo", benchmark.token);
+        }
+
+        private static MockHttpServletRequest request(String uri, String token) {
+            MockHttpServletRequest request = new MockHttpServletRequest("POST", uri);
+            request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+            return request;
+        }
+
+        @TearDown(Level.Invocation)
+        public void clear() {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        String secret = Base64.getEncoder().encodeToString(Jwts.SIG.HS256.key().build().getEncoded());
+        UserDetails user = new User("alice", "", List.of(new SimpleGrantedAuthority("ROLE_CHILD")));
+        userDetailsService = username -> user;
+        RevokedTokenRepository revokedTokens = (RevokedTokenRepository) Proxy.newProxyInstance(
+                RevokedTokenRepository.class.getClassLoader(), new Class<?>[]{RevokedTokenRepository.class},
+                (proxy, method, args) -> method.getName().equals("existsByToken") ? Boolean.FALSE : null);
+
+        uncachedProvider = provider(secret, 0);
+        uncachedFilter = new JwtAuthenticationFilter(uncachedProvider, revokedTokens);
+        cachedFilter = new JwtAuthenticationFilter(provider(secret, 10_000), revokedTokens);
+        token = uncachedProvider.generateAccessToken(new UsernamePasswordAuthenticationToken("alice", null, List.of()));
+    }
+
+    private JwtTokenProvider provider(String secret, long cacheSize) {
+        // user-cache size 0: every lookup reaches the (stub) UserDetailsService, as before
+        UserDetailsCache users = new UserDetailsCache(userDetailsService, null, 0, Duration.ofMinutes(5), 100,
+                Duration.ofSeconds(30), new SimpleMeterRegistry());
+        JwtTokenProvider provider = new JwtTokenProvider(null, users);
+        ReflectionTestUtils.setField(provider, "base64secret", secret);
+        ReflectionTestUtils.setField(provider, "accessTokenValidityInMs", Duration.ofHours(12).toMillis());
+        ReflectionTestUtils.setField(provider, "claimsCacheMaxSize", cacheSize);
+        ReflectionTestUtils.setField(provider, "claimsCacheTtl", Duration.ofMinutes(5));
+        provider.init();
+        return provider;
+    }
+
+    @Benchmark
+    public Authentication legacyDoubleParse(Exchange exchange) {
+        String token = exchange.chat.getHeader(HttpHeaders.AUTHORIZATION).substring(7);
+        Jwts.parser().verifyWith(uncachedProvider.getKey()).build().parseSignedClaims(token).getPayload();
+        Claims claims = Jwts.parser().verifyWith(uncachedProvider.getKey()).build()
+                .parseSignedClaims(token).getPayload();
+        UserDetails user = userDetailsService.loadUserByUsername(claims.getSubject());
+        return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+    }
+
+    @Benchmark
+    public Authentication singleParse(Exchange exchange) throws Exception {
+        uncachedFilter.doFilter(exchange.chat, exchange.response, CHAIN);
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    @Benchmark
+    public Authentication cachedClaims(Exchange exchange) throws Exception {
+        cachedFilter.doFilter(exchange.chat, exchange.response, CHAIN);
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    @Benchmark
+    public Authentication publicPath(Exchange exchange) throws Exception {
+        cachedFilter.doFilter(exchange.echo, exchange.response, CHAIN);
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(new String[]{JwtFilterBenchmark.class.getSimpleName()});
+    }
+}
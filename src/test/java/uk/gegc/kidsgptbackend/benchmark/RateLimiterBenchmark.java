@@ -0,0 +1,66 @@
+package uk.gegc.kidsgptbackend.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimitDecision;
+import uk.gegc.kidsgptbackend.service.ratelimit.impl.TokenBucketRateLimiter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-request cost of the chat rate limiter under contention: eight threads either all
+ * hitting one key (one bucket, CAS contention) or spread over many users (map lookups
+ * across the table). Limits are high enough that requests are mostly admitted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+
+    private static final List<GrantedAuthority> AUTHORITIES = List.of(new SimpleGrantedAuthority("ROLE_CHILD"));
+    private static final int USERS = 10_000;
+
+    private TokenBucketRateLimiter limiter;
+    private String[] usernames;
+
+    @State(Scope.Thread)
+    public static class Caller {
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+        int next = SEQUENCE.getAndIncrement() * 7919;
+    }
+
+    @Setup
+    public void setup() {
+        limiter = new TokenBucketRateLimiter(true, Duration.ofSeconds(1), 1_000_000_000, "",
+                Duration.ofMinutes(10), new SimpleMeterRegistry());
+        usernames = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            usernames[i] = "user" + i;
+            limiter.tryAcquire(usernames[i], AUTHORITIES);
+        }
+    }
+
+    @Benchmark
+    public RateLimitDecision sameUser() {
+        return limiter.tryAcquire("user0", AUTHORITIES);
+    }
+
+    @Benchmark
+    public RateLimitDecision manyUsers(Caller caller) {
+        caller.next = (caller.next + 1) % USERS;
+        return limiter.tryAcquire(usernames[caller.next], AUTHORITIES);
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(new String[]{RateLimiterBenchmark.class.getSimpleName()});
+    }
+}
@@ -0,0 +1,72 @@
+package uk.gegc.kidsgptbackend.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import uk.gegc.kidsgptbackend.service.chat.impl.BpeTokenizer;
+import uk.gegc.kidsgptbackend.service.chat.impl.HeuristicTokenEstimator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the local BPE token counter (o200k_base, the vocabulary JTokkit bundles)
+ * for a short question, a typical kid message, a full assistant reply and mixed-script
+ * text. {@code cacheSize=1} all but disables the chunk cache, showing the cost of the
+ * merges themselves; the character heuristic is the baseline being replaced.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+
+    private static final String SHORT = "why is the sky blue?";
+    private static final String MESSAGE = "Hi! My teacher said dinosaurs lived millions of years ago. "
+            + "How do we know how old the bones are, and were any of them as big as a house?";
+    private static final String REPLY = ("Great question! Scientists use something called radiometric dating. "
+            + "Rocks near the fossils contain tiny amounts of elements that slowly change over time, like a clock. "
+            + "By measuring how much has changed, they can tell how old the rock is. ").repeat(3);
+
+    @Param({"short", "message", "reply", "unicode"})
+    public String text;
+
+    @Param({"8192", "1"})
+    public int cacheSize;
+
+    private BpeTokenizer tokenizer;
+    private HeuristicTokenEstimator heuristic;
+    private String input;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/com/knuddels/jtokkit/o200k_base.tiktoken")) {
+            if (in == null) {
+                throw new IOException("o200k_base.tiktoken not on the classpath");
+            }
+            tokenizer = BpeTokenizer.load(in, BpeTokenizer.Encoding.O200K_BASE, cacheSize);
+        }
+        heuristic = new HeuristicTokenEstimator();
+        input = switch (text) {
+            case "short" -> SHORT;
+            case "message" -> MESSAGE;
+            case "reply" -> REPLY;
+            default -> "Ça va? Мой любимый цвет — синий, and I like crème brûlée 🍮.";
+        };
+    }
+
+    @Benchmark
+    public int bpe() {
+        return tokenizer.count(input);
+    }
+
+    @Benchmark
+    public int heuristic() {
+        return heuristic.estimate(input);
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(new String[]{TokenizerBenchmark.class.getSimpleName()});
+    }
+}
@@ -2,8 +2,10 @@ package uk.gegc.kidsgptbackend.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -12,22 +14,45 @@ import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageRequest;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageResponse;
+import uk.gegc.kidsgptbackend.dto.chat.ChatStreamEvent;
 import uk.gegc.kidsgptbackend.dto.chat.Tone;
 import org.springframework.security.core.userdetails.User;
 import uk.gegc.kidsgptbackend.service.chat.AiChatService;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimitDecision;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimiter;
+import uk.gegc.kidsgptbackend.service.usage.UsageLedger;
+import uk.gegc.kidsgptbackend.exception.TokenBudgetExceededException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
 
 import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = ChatController.class)
@@ -44,10 +69,25 @@ class ChatControllerStandaloneTest {
     @Autowired
     ObjectMapper objectMapper;
 
+    @Autowired
+    RateLimiter rateLimiter;
+
+    @Autowired
+    UsageLedger usageLedger;
+
+    @Autowired
+    ChatController chatController;
+
+    @BeforeEach
+    void allowRequests() {
+        when(rateLimiter.tryAcquire(anyString(), any()))
+                .thenReturn(new RateLimitDecision(true, 10, 9, 6, 0, 60));
+    }
+
     @AfterEach
     void clearSecurityContext() {
         SecurityContextHolder.clearContext();
-        Mockito.reset(chatService);
+        Mockito.reset(chatService, rateLimiter, usageLedger);
     }
 
     @TestConfiguration
@@ -57,8 +97,17 @@ class ChatControllerStandaloneTest {
             return Mockito.mock(AiChatService.class);
         }
         @Bean
+        RateLimiter rateLimiter() {
+            return Mockito.mock(RateLimiter.class);
+        }
+        @Bean
+        UsageLedger usageLedger() {
+            return Mockito.mock(UsageLedger.class);
+        }
+        @Bean
         ObjectMapper objectMapper() {
-            return new ObjectMapper();
+            // as configured by Spring Boot: ErrorResponse carries a LocalDateTime
+            return Jackson2ObjectMapperBuilder.json().build();
         }
     }
 
@@ -103,4 +152,218 @@ class ChatControllerStandaloneTest {
 
         verify(chatService).chat(any(ChatMessageRequest.class), any(Principal.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("POST /api/v1/chat/stream with principal → SSE token and done events")
+    void chatStream_withPrincipal_streamsEvents() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        ChatMessageResponse resp = new ChatMessageResponse("ok", "model", 1L, 1, UUID.randomUUID());
+        when(chatService.chatStream(any(ChatMessageRequest.class), any(Principal.class)))
+                .thenReturn(Flux.just(ChatStreamEvent.token("ok"), ChatStreamEvent.done(resp)));
+
+        User principal = new User("alice", "password", java.util.List.of(new SimpleGrantedAuthority("ROLE_USER")));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, principal.getPassword(), principal.getAuthorities()));
+
+        MvcResult result = mockMvc.perform(post("/api/v1/chat/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("event:token")))
+                .andExpect(content().string(containsString("event:done")));
+    }
+
+    @Test
+    @DisplayName("POST /api/v1/chat/stream with null principal → 401")
+    void chatStream_nullPrincipal_returnsUnauthorized() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        mockMvc.perform(post("/api/v1/chat/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(status().isUnauthorized());
+
+        verify(chatService, never()).chatStream(any(), any());
+    }
+
+    @Test
+    @DisplayName("POST /api/v1/chat/stream with streaming disabled → 404 and no turn started")
+    void chatStream_disabled_returnsNotFound() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        User principal = new User("alice", "password", java.util.List.of(new SimpleGrantedAuthority("ROLE_USER")));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, principal.getPassword(), principal.getAuthorities()));
+
+        ReflectionTestUtils.setField(chatController, "streamEnabled", false);
+        try {
+            mockMvc.perform(post("/api/v1/chat/stream")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(req)))
+                    .andExpect(status().isNotFound());
+        } finally {
+            ReflectionTestUtils.setField(chatController, "streamEnabled", true);
+        }
+
+        verify(chatService, never()).chatStream(any(), any());
+        verify(rateLimiter, never()).tryAcquire(anyString(), any());
+    }
+
+    @Test
+    @DisplayName("POST /api/v1/chat within the limit → RateLimit headers on the response")
+    void chat_withinLimit_rateLimitHeaders() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        when(chatService.chat(any(ChatMessageRequest.class), any(Principal.class)))
+                .thenReturn(new ChatMessageResponse("ok", "model", 1L, 1, UUID.randomUUID()));
+        User principal = new User("alice", "password", java.util.List.of(new SimpleGrantedAuthority("ROLE_CHILD")));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, principal.getPassword(), principal.getAuthorities()));
+
+        mockMvc.perform(post("/api/v1/chat")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("RateLimit-Limit", "10"))
+                .andExpect(header().string("RateLimit-Remaining", "9"))
+                .andExpect(header().doesNotExist("Retry-After"));
+    }
+
+    @Test
+    @DisplayName("POST /api/v1/chat over the limit → 429 with Retry-After and service not called")
+    void chat_overLimit_tooManyRequests() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        when(rateLimiter.tryAcquire(eq("alice"), any()))
+                .thenReturn(new RateLimitDecision(false, 10, 0, 60, 6, 60));
+        User principal = new User("alice", "password", java.util.List.of(new SimpleGrantedAuthority("ROLE_CHILD")));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, principal.getPassword(), principal.getAuthorities()));
+
+        mockMvc.perform(post("/api/v1/chat")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "6"))
+                .andExpect(header().string("RateLimit-Limit", "10"))
+                .andExpect(header().string("RateLimit-Remaining", "0"))
+                .andExpect(header().string("RateLimit-Reset", "60"))
+                .andExpect(header().string("RateLimit-Policy", "10;w=60"))
+                .andExpect(jsonPath("$.status").value(429))
+                .andExpect(jsonPath("$.error").value("Too Many Requests"))
+                .andExpect(jsonPath("$.details[0]").value("Too many messages, please wait a moment"));
+
+        verify(chatService, never()).chat(any(), any());
+    }
+
+    @Test
+    @DisplayName("POST /api/v1/chat with the daily budget used up → 429 with Retry-After and service not called")
+    void chat_budgetExhausted_tooManyRequests() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        long untilMidnight = Duration.between(Instant.now(),
+                LocalDate.now(ZoneOffset.UTC).plusDays(1).atStartOfDay(ZoneOffset.UTC)).toSeconds();
+        doThrow(new TokenBudgetExceededException("Daily chat allowance used up, come back tomorrow", untilMidnight))
+                .when(usageLedger).ensureWithinBudget(eq("alice"), any());
+        User principal = new User("alice", "password", java.util.List.of(new SimpleGrantedAuthority("ROLE_CHILD")));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, principal.getPassword(), principal.getAuthorities()));
+
+        mockMvc.perform(post("/api/v1/chat")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", Long.toString(untilMidnight)))
+                .andExpect(jsonPath("$.details[0]").value("Daily chat allowance used up, come back tomorrow"));
+
+        verify(chatService, never()).chat(any(), any());
+    }
+
+    @Test
+    @DisplayName("POST /api/v1/chat with the budget used up → no rate-limit token is spent")
+    void chat_budgetExhausted_checkedBeforeRateLimit() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        doThrow(new TokenBudgetExceededException("Daily chat allowance used up, come back tomorrow", 60))
+                .when(usageLedger).ensureWithinBudget(eq("alice"), any());
+        User principal = new User("alice", "password", java.util.List.of(new SimpleGrantedAuthority("ROLE_CHILD")));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, principal.getPassword(), principal.getAuthorities()));
+
+        for (int i = 0; i < 3; i++) {
+            mockMvc.perform(post("/api/v1/chat")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(req)))
+                    .andExpect(status().isTooManyRequests());
+        }
+
+        verify(usageLedger, times(3)).ensureWithinBudget(eq("alice"), any());
+        verify(rateLimiter, never()).tryAcquire(anyString(), any());
+    }
+
+    @Test
+    @DisplayName("POST /api/v1/chat within budget → budget checked first, then one rate-limit token taken")
+    void chat_withinBudget_budgetThenRateLimit() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        when(chatService.chat(any(ChatMessageRequest.class), any(Principal.class)))
+                .thenReturn(new ChatMessageResponse("ok", "model", 1L, 1, UUID.randomUUID()));
+        User principal = new User("alice", "password", java.util.List.of(new SimpleGrantedAuthority("ROLE_CHILD")));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, principal.getPassword(), principal.getAuthorities()));
+
+        mockMvc.perform(post("/api/v1/chat")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(status().isOk());
+
+        InOrder order = inOrder(usageLedger, rateLimiter, chatService);
+        order.verify(usageLedger).ensureWithinBudget(eq("alice"), any());
+        order.verify(rateLimiter).tryAcquire(eq("alice"), any());
+        order.verify(chatService).chat(any(ChatMessageRequest.class), any(Principal.class));
+    }
+
+    @Test
+    @DisplayName("POST /api/v1/chat/async with principal → async 200 with RateLimit headers")
+    void chatAsync_withPrincipal_completesAsynchronously() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        CompletableFuture<ChatMessageResponse> reply = new CompletableFuture<>();
+        when(chatService.chatAsync(any(ChatMessageRequest.class), any(Principal.class))).thenReturn(reply);
+        User principal = new User("alice", "password", java.util.List.of(new SimpleGrantedAuthority("ROLE_CHILD")));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, principal.getPassword(), principal.getAuthorities()));
+
+        MvcResult result = mockMvc.perform(post("/api/v1/chat/async")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        reply.complete(new ChatMessageResponse("ok", "model", 1L, 1, UUID.randomUUID()));
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("RateLimit-Remaining", "9"))
+                .andExpect(content().string(containsString("\"reply\":\"ok\"")));
+        verify(chatService, never()).chat(any(), any());
+    }
+
+    @Test
+    @DisplayName("POST /api/v1/chat/async timing out in the service → 503 with Retry-After")
+    void chatAsync_timedOut_serviceUnavailable() throws Exception {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        when(chatService.chatAsync(any(ChatMessageRequest.class), any(Principal.class))).thenReturn(
+                CompletableFuture.failedFuture(new UpstreamUnavailableException("llm", "The reply is taking too long", 1)));
+        User principal = new User("alice", "password", java.util.List.of(new SimpleGrantedAuthority("ROLE_CHILD")));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, principal.getPassword(), principal.getAuthorities()));
+
+        MvcResult result = mockMvc.perform(post("/api/v1/chat/async")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"))
+                .andExpect(jsonPath("$.status").value(503))
+                .andExpect(jsonPath("$.details[0]").value("The reply is taking too long"));
+    }
+}
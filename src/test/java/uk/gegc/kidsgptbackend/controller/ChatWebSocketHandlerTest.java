@@ -0,0 +1,231 @@
+package uk.gegc.kidsgptbackend.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import reactor.core.publisher.Flux;
+import uk.gegc.kidsgptbackend.dto.chat.ChatMessageRequest;
+import uk.gegc.kidsgptbackend.dto.chat.ChatMessageResponse;
+import uk.gegc.kidsgptbackend.dto.chat.ChatSocketFrame;
+import uk.gegc.kidsgptbackend.dto.chat.ChatStreamEvent;
+import uk.gegc.kidsgptbackend.security.JwtHandshakeInterceptor;
+import uk.gegc.kidsgptbackend.service.chat.AiChatService;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimitDecision;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimiter;
+import uk.gegc.kidsgptbackend.service.usage.UsageLedger;
+
+import java.net.SocketTimeoutException;
+import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class ChatWebSocketHandlerTest {
+
+    AiChatService chatService = mock(AiChatService.class);
+    RateLimiter rateLimiter = mock(RateLimiter.class);
+    UsageLedger usageLedger = mock(UsageLedger.class);
+    ObjectMapper objectMapper = new ObjectMapper();
+    NativeWebSocketSession session = mock(NativeWebSocketSession.class);
+    Session nativeSession = mock(Session.class);
+    RemoteEndpoint.Async remote = mock(RemoteEndpoint.Async.class);
+    List<ChatSocketFrame> sent = new CopyOnWriteArrayList<>();
+    Map<String, Object> attributes = new HashMap<>();
+
+    @BeforeEach
+    void setup() throws Exception {
+        attributes.put(JwtHandshakeInterceptor.USER_ATTRIBUTE,
+                new User("alice", "password", List.of(new SimpleGrantedAuthority("ROLE_CHILD"))));
+        attributes.put(JwtHandshakeInterceptor.EXPIRES_AT_ATTRIBUTE, Instant.now().plusSeconds(600));
+        when(session.getAttributes()).thenReturn(attributes);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getNativeSession(Session.class)).thenReturn(nativeSession);
+        when(nativeSession.getAsyncRemote()).thenReturn(remote);
+        doAnswer(inv -> {
+            sent.add(objectMapper.readValue(inv.<String>getArgument(0), ChatSocketFrame.class));
+            inv.<SendHandler>getArgument(1).onResult(new SendResult());
+            return null;
+        }).when(remote).sendText(anyString(), any(SendHandler.class));
+        when(rateLimiter.tryAcquire(anyString(), any())).thenReturn(RateLimitDecision.UNLIMITED);
+    }
+
+    private ChatWebSocketHandler connect(int maxInFlight) throws Exception {
+        ChatWebSocketHandler handler = new ChatWebSocketHandler(chatService, rateLimiter, usageLedger, objectMapper,
+                maxInFlight, 16384, Duration.ofSeconds(10), 4096);
+        handler.afterConnectionEstablished(session);
+        return handler;
+    }
+
+    private void receive(ChatWebSocketHandler handler, String json) throws Exception {
+        handler.handleMessage(session, new TextMessage(json));
+    }
+
+    private void awaitFrames(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sent.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(sent).hasSizeGreaterThanOrEqualTo(count);
+    }
+
+    @Test
+    @DisplayName("chat frames: two conversations stream on one connection, each frame tagged with its requestId")
+    void chat_multiplexesTurnsByRequestId() throws Exception {
+        UUID context = UUID.randomUUID();
+        when(chatService.chatStream(any(ChatMessageRequest.class), any(Principal.class))).thenAnswer(inv -> {
+            ChatMessageRequest request = inv.getArgument(0);
+            return Flux.just(ChatStreamEvent.token(request.message() + "!"),
+                    ChatStreamEvent.done(new ChatMessageResponse(request.message() + "!", "model", 1L, 5, context)));
+        });
+        ChatWebSocketHandler handler = connect(4);
+
+        receive(handler, "{\"type\":\"chat\",\"requestId\":\"a\",\"message\":\"cats\",\"tone\":\"FRIENDLY\"}");
+        receive(handler, "{\"type\":\"chat\",\"requestId\":\"b\",\"message\":\"dogs\",\"contextId\":\"" + context
+                + "\",\"tone\":\"FUN\"}");
+        awaitFrames(4);
+
+        assertThat(sent).filteredOn(frame -> frame.requestId().equals("a"))
+                .extracting(ChatSocketFrame::type).containsExactly(ChatStreamEvent.TOKEN, ChatStreamEvent.DONE);
+        assertThat(sent).filteredOn(frame -> frame.requestId().equals("b"))
+                .extracting(ChatSocketFrame::delta).containsExactly("dogs!", null);
+        verify(rateLimiter, times(2)).tryAcquire(eq("alice"), any());
+        verify(usageLedger, times(2)).ensureWithinBudget(eq("alice"), any());
+    }
+
+    @Test
+    @DisplayName("chat frames: beyond max-in-flight a turn is refused, and cancel stops a running one")
+    void chat_maxInFlightAndCancel() throws Exception {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        CountDownLatch streaming = new CountDownLatch(1);
+        when(chatService.chatStream(any(ChatMessageRequest.class), any(Principal.class)))
+                .thenReturn(Flux.<ChatStreamEvent>never()
+                        .doOnSubscribe(subscription -> streaming.countDown())
+                        .doOnCancel(() -> cancelled.set(true)));
+        ChatWebSocketHandler handler = connect(1);
+
+        receive(handler, "{\"type\":\"chat\",\"requestId\":\"a\",\"message\":\"cats\",\"tone\":\"FRIENDLY\"}");
+        receive(handler, "{\"type\":\"chat\",\"requestId\":\"b\",\"message\":\"dogs\",\"tone\":\"FRIENDLY\"}");
+        awaitFrames(1);
+        assertThat(sent.get(0).requestId()).isEqualTo("b");
+        assertThat(sent.get(0).error().status()).isEqualTo(429);
+
+        assertThat(streaming.await(5, TimeUnit.SECONDS)).isTrue();
+        receive(handler, "{\"type\":\"cancel\",\"requestId\":\"a\"}");
+        assertThat(cancelled).isTrue();
+    }
+
+    @Test
+    @DisplayName("chat frames: refusals and failures come back as error frames with the HTTP status")
+    void chat_errorsAsFrames() throws Exception {
+        when(rateLimiter.tryAcquire(anyString(), any())).thenReturn(new RateLimitDecision(false, 10, 0, 60, 6, 60));
+        ChatWebSocketHandler handler = connect(4);
+
+        receive(handler, "{\"type\":\"chat\",\"requestId\":\"a\",\"message\":\"cats\",\"tone\":\"FRIENDLY\"}");
+        receive(handler, "{\"type\":\"chat\",\"requestId\":\"b\",\"message\":\" \",\"tone\":\"FRIENDLY\"}");
+        receive(handler, "not json");
+        awaitFrames(3);
+
+        assertThat(sent).extracting(frame -> frame.error().status()).containsExactlyInAnyOrder(429, 400, 400);
+        assertThat(sent).filteredOn(frame -> "a".equals(frame.requestId()))
+                .extracting(frame -> frame.error().retryAfterSeconds()).containsExactly(6L);
+        verify(chatService, never()).chatStream(any(), any());
+    }
+
+    @Test
+    @DisplayName("chat frames: once the handshake token has expired the connection is closed")
+    void chat_expiredToken_closesConnection() throws Exception {
+        attributes.put(JwtHandshakeInterceptor.EXPIRES_AT_ATTRIBUTE, Instant.now().minusSeconds(1));
+        ChatWebSocketHandler handler = connect(4);
+
+        receive(handler, "{\"type\":\"chat\",\"requestId\":\"a\",\"message\":\"cats\",\"tone\":\"FRIENDLY\"}");
+
+        assertThat(sent).singleElement().extracting(frame -> frame.error().status()).isEqualTo(401);
+        verify(session).close(any());
+        verify(chatService, never()).chatStream(any(), any());
+    }
+
+    @Test
+    @DisplayName("chat frames: the next event is requested only once the previous frame is written, without blocking")
+    void chat_slowReader_backpressureWithoutBlocking() throws Exception {
+        AtomicReference<SendHandler> pending = new AtomicReference<>();
+        doAnswer(inv -> {
+            sent.add(objectMapper.readValue(inv.<String>getArgument(0), ChatSocketFrame.class));
+            pending.set(inv.getArgument(1)); // the client is not reading: the write stays pending
+            return null;
+        }).when(remote).sendText(anyString(), any(SendHandler.class));
+        List<Long> requested = new CopyOnWriteArrayList<>();
+        when(chatService.chatStream(any(ChatMessageRequest.class), any(Principal.class)))
+                .thenReturn(Flux.just(ChatStreamEvent.token("one"), ChatStreamEvent.token("two"),
+                        ChatStreamEvent.token("three")).doOnRequest(requested::add));
+        ChatWebSocketHandler handler = connect(4);
+
+        receive(handler, "{\"type\":\"chat\",\"requestId\":\"a\",\"message\":\"cats\",\"tone\":\"FRIENDLY\"}");
+        awaitFrames(1);
+        Thread.sleep(100);
+        assertThat(sent).extracting(ChatSocketFrame::delta).containsExactly("one");
+
+        pending.get().onResult(new SendResult());
+        awaitFrames(2);
+        assertThat(sent).extracting(ChatSocketFrame::delta).containsExactly("one", "two");
+        assertThat(requested).allMatch(n -> n == 1);
+    }
+
+    @Test
+    @DisplayName("chat frames: a write that exceeds the send time limit closes the connection and cancels its turns")
+    void chat_sendTimeout_closesConnection() throws Exception {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        doAnswer(inv -> {
+            inv.<SendHandler>getArgument(1).onResult(new SendResult(new SocketTimeoutException()));
+            return null;
+        }).when(remote).sendText(anyString(), any(SendHandler.class));
+        when(chatService.chatStream(any(ChatMessageRequest.class), any(Principal.class)))
+                .thenReturn(Flux.concat(Flux.just(ChatStreamEvent.token("one")), Flux.<ChatStreamEvent>never())
+                        .doOnCancel(() -> cancelled.set(true)));
+        ChatWebSocketHandler handler = connect(4);
+
+        receive(handler, "{\"type\":\"chat\",\"requestId\":\"a\",\"message\":\"cats\",\"tone\":\"FRIENDLY\"}");
+
+        verify(session, timeout(5000)).close(argThat(status -> status.getCode() == CloseStatus.SESSION_NOT_RELIABLE.getCode()));
+        assertThat(cancelled).isTrue();
+    }
+
+    @Test
+    @DisplayName("chat frames: more than send-buffer-limit waiting to be written closes the connection")
+    void chat_sendBufferExceeded_closesConnection() throws Exception {
+        doAnswer(inv -> null).when(remote).sendText(anyString(), any(SendHandler.class)); // never completes
+        ChatWebSocketHandler handler = connect(100);
+
+        for (int i = 0; i < 100; i++) {
+            receive(handler, "not json");
+        }
+
+        verify(session).close(argThat(status -> status.getCode() == CloseStatus.SESSION_NOT_RELIABLE.getCode()));
+        verify(remote, times(1)).sendText(anyString(), any(SendHandler.class));
+    }
+}
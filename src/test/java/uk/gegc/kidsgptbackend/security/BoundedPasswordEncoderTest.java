@@ -0,0 +1,58 @@
+package uk.gegc.kidsgptbackend.security;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class BoundedPasswordEncoderTest {
+
+    PasswordEncoder delegate = mock(PasswordEncoder.class);
+
+    @Test
+    @DisplayName("matches: delegates while a slot is free")
+    void matches_delegates() {
+        when(delegate.matches("pw", "hash")).thenReturn(true);
+        BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(delegate, 1, Duration.ofSeconds(1));
+
+        assertThat(encoder.matches("pw", "hash")).isTrue();
+        assertThat(encoder.matches("pw", "hash")).isTrue();
+    }
+
+    @Test
+    @DisplayName("encode: a caller that cannot get a slot within the wait gets 503 instead of queueing")
+    void encode_saturated_failsAfterWait() throws Exception {
+        CountDownLatch hashing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(delegate.encode("slow")).thenAnswer(inv -> {
+            hashing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return "hash";
+        });
+        BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(delegate, 1, Duration.ofMillis(50));
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> encoder.encode("slow"));
+        assertThat(hashing.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> encoder.encode("other"))
+                .isInstanceOf(UpstreamUnavailableException.class);
+        verify(delegate, never()).encode("other");
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("hash");
+        when(delegate.encode("other")).thenReturn("hash2");
+        assertThat(encoder.encode("other")).isEqualTo("hash2");
+    }
+}
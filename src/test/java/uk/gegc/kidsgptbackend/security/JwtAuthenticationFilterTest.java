@@ -1,5 +1,7 @@
 package uk.gegc.kidsgptbackend.security;
 
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -68,16 +70,20 @@ public class JwtAuthenticationFilterTest {
     @DisplayName("Bearer valid-token → filterChain invoked, Authentication set to returned value")
     void validBearer_shouldSetAuthentication() throws ServletException, IOException {
         String token = "valid-token";
+        Claims claims = Jwts.claims().subject("alice").build();
         Authentication authentication = mock(Authentication.class);
 
         when(httpServletRequest.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn("Bearer " + token);
-        when(jwtTokenProvider.validateToken(token)).thenReturn(true);
-        when(jwtTokenProvider.getAuthentication(token)).thenReturn(authentication);
+        when(jwtTokenProvider.verifiedClaims(token)).thenReturn(claims);
+        when(jwtTokenProvider.getAuthentication(claims)).thenReturn(authentication);
 
         authenticationFilter.doFilterInternal(httpServletRequest, httpServletResponse, filterChain);
 
-        verify(jwtTokenProvider).validateToken(token);
-        verify(jwtTokenProvider).getAuthentication(token);
+        // verified once; the claims are reused instead of parsing the token again
+        verify(jwtTokenProvider).verifiedClaims(token);
+        verify(jwtTokenProvider).getAuthentication(claims);
+        verify(jwtTokenProvider, never()).getAuthentication(anyString());
+        verify(jwtTokenProvider, never()).validateToken(anyString());
         verify(filterChain).doFilter(httpServletRequest, httpServletResponse);
 
         assertThat(SecurityContextHolder.getContext().getAuthentication())
@@ -90,12 +96,12 @@ public class JwtAuthenticationFilterTest {
         String token = "invalid-token";
 
         when(httpServletRequest.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn("Bearer " + token);
-        when(jwtTokenProvider.validateToken(token)).thenReturn(false);
+        when(jwtTokenProvider.verifiedClaims(token)).thenReturn(null);
 
         authenticationFilter.doFilterInternal(httpServletRequest, httpServletResponse, filterChain);
 
-        verify(jwtTokenProvider).validateToken(token);
-        verify(jwtTokenProvider, never()).getAuthentication(anyString());
+        verify(jwtTokenProvider).verifiedClaims(token);
+        verify(jwtTokenProvider, never()).getAuthentication(any(Claims.class));
         verify(filterChain).doFilter(httpServletRequest, httpServletResponse);
 
         assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
@@ -108,7 +114,7 @@ public class JwtAuthenticationFilterTest {
 
         authenticationFilter.doFilterInternal(httpServletRequest, httpServletResponse, filterChain);
 
-        verify(jwtTokenProvider, never()).validateToken(anyString());
+        verify(jwtTokenProvider, never()).verifiedClaims(anyString());
         verify(filterChain).doFilter(httpServletRequest, httpServletResponse);
         assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
     }
@@ -119,16 +125,27 @@ public class JwtAuthenticationFilterTest {
         String token = "revoked-token";
 
         when(httpServletRequest.getHeader(HttpHeaders.AUTHORIZATION)).thenReturn("Bearer " + token);
-        when(jwtTokenProvider.validateToken(token)).thenReturn(true);
+        when(jwtTokenProvider.verifiedClaims(token)).thenReturn(Jwts.claims().subject("alice").build());
         when(revokedTokenRepository.existsByToken(token)).thenReturn(true);
 
         authenticationFilter.doFilterInternal(httpServletRequest, httpServletResponse, filterChain);
 
-        verify(jwtTokenProvider).validateToken(token);
+        verify(jwtTokenProvider).verifiedClaims(token);
         verify(revokedTokenRepository).existsByToken(token);
-        verify(jwtTokenProvider, never()).getAuthentication(anyString());
+        verify(jwtTokenProvider, never()).getAuthentication(any(Claims.class));
         verify(filterChain).doFilter(httpServletRequest, httpServletResponse);
 
         assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("permitAll paths like /echo and /api/v1/system/status skip the filter; others do not")
+    void publicPaths_shouldNotBeFiltered() {
+        when(httpServletRequest.getContextPath()).thenReturn("");
+        when(httpServletRequest.getRequestURI()).thenReturn("/echo", "/api/v1/system/status", "/api/v1/chat");
+
+        assertThat(authenticationFilter.shouldNotFilter(httpServletRequest)).isTrue();
+        assertThat(authenticationFilter.shouldNotFilter(httpServletRequest)).isTrue();
+        assertThat(authenticationFilter.shouldNotFilter(httpServletRequest)).isFalse();
+    }
+}
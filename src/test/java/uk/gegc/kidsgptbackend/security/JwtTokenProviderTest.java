@@ -1,6 +1,7 @@
 package uk.gegc.kidsgptbackend.security;
 
 import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.Jwts;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,14 +15,20 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.test.util.ReflectionTestUtils;
+import uk.gegc.kidsgptbackend.repository.user.UserRepository;
 
 import javax.crypto.SecretKey;
+import java.time.Duration;
 import java.util.Base64;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @Execution(ExecutionMode.CONCURRENT)
 public class JwtTokenProviderTest {
@@ -45,6 +52,15 @@ public class JwtTokenProviderTest {
         jwtTokenProvider.init();
     }
 
+    private UserDetailsCache userCache(UserDetailsService userDetailsService) {
+        return userCache(userDetailsService, mock(UserRepository.class));
+    }
+
+    private UserDetailsCache userCache(UserDetailsService userDetailsService, UserRepository userRepository) {
+        return new UserDetailsCache(userDetailsService, userRepository, 100, Duration.ofMinutes(5), 100,
+                Duration.ofSeconds(30), new SimpleMeterRegistry());
+    }
+
     @Test
     @DisplayName("generateAccessToken: valid Authentication produces JWT with type=access, correct subject & TTL")
     void generateAccessToken_happyPath_containsAccessTypeAndSubjectAndExpiry() {
@@ -182,7 +198,7 @@ public class JwtTokenProviderTest {
     void getAuthentication_happyPath_returnsAuthToken() {
         UserDetailsService userDetailsService = username -> new User(username, "", List.of(new SimpleGrantedAuthority("ROLE_USER")));
 
-        JwtTokenProvider provider = new JwtTokenProvider(null, userDetailsService);
+        JwtTokenProvider provider = new JwtTokenProvider(null, userCache(userDetailsService));
         ReflectionTestUtils.setField(provider, "base64secret", base64Secret);
         ReflectionTestUtils.setField(provider, "accessTokenValidityInMs", accessTokenValidityInMs);
         ReflectionTestUtils.setField(provider, "refreshTokenValidityInMs", refreshTokenValidityInMs);
@@ -204,7 +220,7 @@ public class JwtTokenProviderTest {
     @DisplayName("getAuthentication: invalid token throws JwtException")
     void getAuthentication_sad_invalidTokenThrows() {
         UserDetailsService userDetailsService = username -> new User(username, "", List.of());
-        JwtTokenProvider provider = new JwtTokenProvider(null, userDetailsService);
+        JwtTokenProvider provider = new JwtTokenProvider(null, userCache(userDetailsService));
         ReflectionTestUtils.setField(provider, "base64secret", base64Secret);
         ReflectionTestUtils.setField(provider, "accessTokenValidityInMs", accessTokenValidityInMs);
         ReflectionTestUtils.setField(provider, "refreshTokenValidityInMs", refreshTokenValidityInMs);
@@ -214,4 +230,87 @@ public class JwtTokenProviderTest {
 
         assertThatThrownBy(() -> jwtTokenProvider.getAuthentication(badToken)).isInstanceOf(JwtException.class);
     }
+
+    @Test
+    @DisplayName("claims cache: a verified token is parsed once, and its entry does not outlive the token's exp")
+    void claimsCache_reusesClaimsUntilTokenExpiry() throws InterruptedException {
+        JwtTokenProvider provider = new JwtTokenProvider(null, null);
+        ReflectionTestUtils.setField(provider, "base64secret", base64Secret);
+        ReflectionTestUtils.setField(provider, "claimsCacheMaxSize", 100L);
+        ReflectionTestUtils.setField(provider, "claimsCacheTtl", Duration.ofMinutes(5));
+        provider.init();
+        Date now = new Date();
+        String token = Jwts.builder()
+                .subject("Gina")
+                .expiration(new Date(now.getTime() + 1000))
+                .claim("type", "access")
+                .signWith(secretKey)
+                .compact();
+
+        Claims first = provider.verifiedClaims(token);
+        assertThat(first).isNotNull();
+        assertThat(provider.verifiedClaims(token)).isSameAs(first);
+        assertThat(provider.verifiedClaims(token + "x")).isNull();
+
+        Thread.sleep(first.getExpiration().getTime() - System.currentTimeMillis() + 50);
+        assertThat(provider.verifiedClaims(token)).isNull();
+    }
+
+    @Test
+    @DisplayName("embedded authorities: the Authentication comes from the token until the user's roles change")
+    void embeddedAuthorities_skipUserLookupUntilAuthVersionChanges() {
+        AtomicInteger lookups = new AtomicInteger();
+        UserDetailsService userDetailsService = username -> {
+            lookups.incrementAndGet();
+            return new User(username, "", List.of(new SimpleGrantedAuthority("ROLE_PARENT")));
+        };
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findAuthVersionByUsername("Hana")).thenReturn(Optional.of(3L));
+        UserDetailsCache userCache = userCache(userDetailsService, userRepository);
+        JwtTokenProvider provider = new JwtTokenProvider(null, userCache);
+        ReflectionTestUtils.setField(provider, "base64secret", base64Secret);
+        ReflectionTestUtils.setField(provider, "accessTokenValidityInMs", accessTokenValidityInMs);
+        ReflectionTestUtils.setField(provider, "embedAuthorities", true);
+        provider.init();
+        QuizUserDetails user = new QuizUserDetails("Hana", "hash", true,
+                List.of(new SimpleGrantedAuthority("ROLE_CHILD")), 3);
+        String token = provider.generateAccessToken(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+
+        Authentication fromToken = provider.getAuthentication(token);
+        assertThat(fromToken.getName()).isEqualTo("Hana");
+        assertThat(fromToken.getAuthorities()).extracting("authority").containsExactly("ROLE_CHILD");
+        assertThat(lookups).hasValue(0);
+
+        userCache.authChanged("Hana", 4);
+        Authentication reloaded = provider.getAuthentication(token);
+        assertThat(reloaded.getAuthorities()).extracting("authority").containsExactly("ROLE_PARENT");
+        assertThat(lookups).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("embedded authorities: a token for a user without a stored version falls back to the lookup")
+    void embeddedAuthorities_unknownVersion_looksUpUser() {
+        AtomicInteger lookups = new AtomicInteger();
+        UserDetailsService userDetailsService = username -> {
+            lookups.incrementAndGet();
+            return new User(username, "", List.of(new SimpleGrantedAuthority("ROLE_CHILD")));
+        };
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findAuthVersionByUsername("Hana")).thenReturn(Optional.empty());
+        JwtTokenProvider provider = new JwtTokenProvider(null, userCache(userDetailsService, userRepository));
+        ReflectionTestUtils.setField(provider, "base64secret", base64Secret);
+        ReflectionTestUtils.setField(provider, "accessTokenValidityInMs", accessTokenValidityInMs);
+        ReflectionTestUtils.setField(provider, "embedAuthorities", true);
+        provider.init();
+        QuizUserDetails user = new QuizUserDetails("Hana", "hash", true,
+                List.of(new SimpleGrantedAuthority("ROLE_ADMIN")), 3);
+        String token = provider.generateAccessToken(
+                new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+
+        Authentication authentication = provider.getAuthentication(token);
+
+        assertThat(authentication.getAuthorities()).extracting("authority").containsExactly("ROLE_CHILD");
+        assertThat(lookups).hasValue(1);
+    }
 }
@@ -0,0 +1,71 @@
+package uk.gegc.kidsgptbackend.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import uk.gegc.kidsgptbackend.repository.user.UserRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class UserDetailsCacheTest {
+
+    UserDetailsService userDetailsService = mock(UserDetailsService.class);
+    UserRepository userRepository = mock(UserRepository.class);
+
+    private UserDetailsCache cache(long maxSize) {
+        return new UserDetailsCache(userDetailsService, userRepository, maxSize, Duration.ofMinutes(5), 100,
+                Duration.ofSeconds(30), new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("get: a user is loaded once, and again after its roles or active flag change")
+    void get_cachesUntilAuthChanged() {
+        when(userDetailsService.loadUserByUsername("alice"))
+                .thenReturn(new User("alice", "", List.of(new SimpleGrantedAuthority("ROLE_CHILD"))));
+        UserDetailsCache cache = cache(10);
+
+        cache.get("alice");
+        cache.get("alice");
+        verify(userDetailsService, times(1)).loadUserByUsername("alice");
+
+        cache.authChanged("alice", 2);
+        cache.get("alice");
+        verify(userDetailsService, times(2)).loadUserByUsername("alice");
+    }
+
+    @Test
+    @DisplayName("isCurrent: tokens are checked against the stored version, read once and raised by local changes")
+    void isCurrent_comparesAgainstStoredVersion() {
+        when(userRepository.findAuthVersionByUsername("alice")).thenReturn(Optional.of(5L));
+        UserDetailsCache cache = cache(0);
+
+        assertThat(cache.isCurrent("alice", 4)).isFalse();
+        assertThat(cache.isCurrent("alice", 5)).isTrue();
+        verify(userRepository, times(1)).findAuthVersionByUsername("alice");
+
+        cache.authChanged("alice", 6);
+        assertThat(cache.isCurrent("alice", 5)).isFalse();
+        assertThat(cache.isCurrent("alice", 6)).isTrue();
+    }
+
+    @Test
+    @DisplayName("isCurrent: a user without a stored version is never current")
+    void isCurrent_unknownUser_notCurrent() {
+        when(userRepository.findAuthVersionByUsername("ghost")).thenReturn(Optional.empty());
+        UserDetailsCache cache = cache(0);
+
+        assertThat(cache.isCurrent("ghost", 0)).isFalse();
+        assertThat(cache.isCurrent("ghost", Long.MAX_VALUE - 1)).isFalse();
+    }
+}
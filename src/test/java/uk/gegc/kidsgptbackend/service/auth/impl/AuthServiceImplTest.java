@@ -21,6 +21,7 @@ import uk.gegc.kidsgptbackend.dto.auth.AuthTokensResponse;
 import uk.gegc.kidsgptbackend.dto.user.RegisterUserRequest;
 import uk.gegc.kidsgptbackend.dto.user.UserDto;
 import uk.gegc.kidsgptbackend.exception.UnauthorizedException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
 import uk.gegc.kidsgptbackend.mapper.UserMapper;
 import uk.gegc.kidsgptbackend.model.user.Role;
 import uk.gegc.kidsgptbackend.model.user.RoleName;
@@ -152,4 +153,15 @@ public class AuthServiceImplTest {
                 .isInstanceOf(ResponseStatusException.class)
                 .hasMessageContaining(String.valueOf(HttpStatus.UNAUTHORIZED.value()));
     }
+
+    @Test
+    @DisplayName("login: saturated password hashing is passed through as 503, not 401")
+    void login_hashingSaturated_passesThrough() {
+        AuthLoginRequest req = new AuthLoginRequest("bob", "pass");
+        when(authenticationManager.authenticate(any()))
+                .thenThrow(new UpstreamUnavailableException("password-hashing", "busy", 1));
+
+        assertThatThrownBy(() -> authService.login(req))
+                .isInstanceOf(UpstreamUnavailableException.class);
+    }
 }
@@ -0,0 +1,134 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.moderation.Moderation;
+import org.springframework.ai.moderation.ModerationModel;
+import org.springframework.ai.moderation.ModerationPrompt;
+import org.springframework.ai.moderation.ModerationResponse;
+import org.springframework.ai.moderation.ModerationResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gegc.kidsgptbackend.dto.chat.ChatMessageRequest;
+import uk.gegc.kidsgptbackend.dto.chat.ChatMessageResponse;
+import uk.gegc.kidsgptbackend.dto.chat.Tone;
+import uk.gegc.kidsgptbackend.model.user.User;
+import uk.gegc.kidsgptbackend.repository.chat.ChatContextRepository;
+import uk.gegc.kidsgptbackend.repository.chat.ChatMessageRepository;
+import uk.gegc.kidsgptbackend.repository.user.UserRepository;
+import uk.gegc.kidsgptbackend.service.chat.AiChatService;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Not {@code @Transactional} on purpose: a test-managed transaction would itself hold the
+ * connection this test asserts is released.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class AiChatServiceConnectionIntegrationTest {
+
+    @Autowired
+    AiChatService aiChatService;
+    @Autowired
+    DataSource dataSource;
+    @Autowired
+    UserRepository userRepository;
+    @Autowired
+    ChatContextRepository contextRepository;
+    @Autowired
+    ChatMessageRepository messageRepository;
+
+    @MockitoBean
+    ChatClient chatClient;
+    @MockitoBean
+    ModerationModel moderationModel;
+
+    String username;
+    UUID contextId;
+
+    @BeforeEach
+    void setupUser() {
+        username = "tx" + UUID.randomUUID().toString().substring(0, 8);
+        User u = new User();
+        u.setUsername(username);
+        u.setEmail(username + "@example.com");
+        u.setHashedPassword("x");
+        u.setAge(8);
+        u.setActive(true);
+        userRepository.save(u);
+
+        Moderation safe = Moderation.builder()
+                .results(List.of(new ModerationResult.Builder().flagged(false).build()))
+                .build();
+        when(moderationModel.call(any(ModerationPrompt.class)))
+                .thenReturn(new ModerationResponse(new org.springframework.ai.moderation.Generation(safe)));
+    }
+
+    @AfterEach
+    void cleanup() {
+        if (contextId != null) {
+            messageRepository.deleteAll(messageRepository.findAll().stream()
+                    .filter(m -> contextId.equals(m.getContext().getId()))
+                    .toList());
+            contextRepository.deleteById(contextId);
+        }
+        userRepository.findByUsername(username).ifPresent(userRepository::delete);
+    }
+
+    @Test
+    @DisplayName("chat: no transaction and no pooled connection is held while ChatClient runs")
+    void chat_noConnectionCheckedOutDuringLlmCall() throws Exception {
+        HikariDataSource hikari = dataSource.unwrap(HikariDataSource.class);
+        AtomicBoolean txActiveDuringCall = new AtomicBoolean(true);
+        AtomicInteger activeConnectionsDuringCall = new AtomicInteger(-1);
+
+        ChatClient.ChatClientRequestSpec requestSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        ChatClient.CallResponseSpec callSpec = mock(ChatClient.CallResponseSpec.class);
+        when(chatClient.prompt()).thenReturn(requestSpec);
+        when(requestSpec.options(any(ChatOptions.class))).thenReturn(requestSpec);
+        when(requestSpec.system(anyString())).thenReturn(requestSpec);
+        when(requestSpec.messages(anyList())).thenReturn(requestSpec);
+        when(requestSpec.user(anyString())).thenReturn(requestSpec);
+        when(requestSpec.call()).thenReturn(callSpec);
+        when(callSpec.chatResponse()).thenAnswer(inv -> {
+            txActiveDuringCall.set(TransactionSynchronizationManager.isActualTransactionActive());
+            activeConnectionsDuringCall.set(hikari.getHikariPoolMXBean().getActiveConnections());
+            return ChatResponse.builder()
+                    .generations(List.of(new Generation(new AssistantMessage("reply"))))
+                    .metadata(ChatResponseMetadata.builder().model("model").build())
+                    .build();
+        });
+
+        ChatMessageResponse response = aiChatService.chat(
+                new ChatMessageRequest("hi", null, Tone.FRIENDLY), () -> username);
+        contextId = response.contextId();
+
+        assertThat(txActiveDuringCall).isFalse();
+        assertThat(activeConnectionsDuringCall.get()).isZero();
+        assertThat(response.reply()).isEqualTo("reply");
+    }
+}
@@ -1,45 +1,73 @@
 package uk.gegc.kidsgptbackend.service.chat.impl;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.api.parallel.Execution;
 import org.junit.jupiter.api.parallel.ExecutionMode;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.test.util.ReflectionTestUtils;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageRequest;
 import uk.gegc.kidsgptbackend.dto.chat.Tone;
 import uk.gegc.kidsgptbackend.dto.chat.ChatMessageResponse;
+import uk.gegc.kidsgptbackend.dto.chat.ChatStreamEvent;
 import uk.gegc.kidsgptbackend.exception.ModerationServiceException;
 import uk.gegc.kidsgptbackend.exception.RateLimitException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
 import uk.gegc.kidsgptbackend.model.chat.ChatContext;
+import uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry;
+import uk.gegc.kidsgptbackend.model.chat.ChatSummary;
 import uk.gegc.kidsgptbackend.model.chat.ChatMessage;
 import uk.gegc.kidsgptbackend.model.user.User;
 import uk.gegc.kidsgptbackend.repository.chat.ChatContextRepository;
 import uk.gegc.kidsgptbackend.repository.chat.ChatMessageRepository;
 import uk.gegc.kidsgptbackend.repository.user.UserRepository;
+import uk.gegc.kidsgptbackend.service.moderation.impl.BlocklistFilter;
+import uk.gegc.kidsgptbackend.service.moderation.impl.ModerationBatcher;
+import uk.gegc.kidsgptbackend.service.moderation.impl.ModerationServiceImpl;
+import uk.gegc.kidsgptbackend.service.moderation.impl.ModerationVerdictCache;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuardSettings;
+import uk.gegc.kidsgptbackend.service.resilience.impl.AdaptiveUpstreamGuard;
+import uk.gegc.kidsgptbackend.service.usage.UsageLedger;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.moderation.ModerationModel;
 import org.springframework.ai.moderation.ModerationPrompt;
 import org.springframework.ai.moderation.ModerationResponse;
 import org.springframework.ai.moderation.Moderation;
 import org.springframework.ai.moderation.ModerationResult;
+import reactor.core.publisher.Flux;
 
+import java.nio.file.Path;
 import java.security.Principal;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -57,23 +85,67 @@ class AiChatServiceImplTest {
     @Mock
     ChatClient.CallResponseSpec callSpec;
     @Mock
+    ChatClient.StreamResponseSpec streamSpec;
+    @Mock
     ModerationModel moderationClient;
     @Mock
     UserRepository userRepository;
+    @Mock
+    UsageLedger usageLedger;
 
-    @InjectMocks
     AiChatServiceImpl service;
 
+    SimpleMeterRegistry meterRegistry;
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
     Principal principal = () -> "alice";
 
     @BeforeEach
     void setup() {
         MockitoAnnotations.openMocks(this);
-        ReflectionTestUtils.setField(service, "systemPrompt", new ByteArrayResource("sys".getBytes()));
+        meterRegistry = new SimpleMeterRegistry();
+        ModerationServiceImpl moderationService = new ModerationServiceImpl(moderationClient, new ModerationVerdictCache(
+                false, 1, 1000, Duration.ofHours(1), true, Duration.ofMinutes(1), meterRegistry),
+                new BlocklistFilter(new ByteArrayResource(new byte[0]), meterRegistry),
+                new ModerationBatcher(false, 1, 1, 1, 16, false, inputs -> List.of(), meterRegistry),
+                new AdaptiveUpstreamGuard("moderation", new UpstreamGuardSettings(
+                        false, 1, 1, 1, 2.0, 1, 1, 0.5, Duration.ofSeconds(1), 1), meterRegistry),
+                meterRegistry);
+        ChatTranscriptServiceImpl transcriptService = new ChatTranscriptServiceImpl(contextRepository, messageRepository);
+        service = new AiChatServiceImpl(
+                transcriptService,
+                chatClient,
+                moderationService,
+                userRepository,
+                executor, new ChatStageMetrics(meterRegistry),
+                new IncrementalReplyModerator(moderationService, 10, 100, 2),
+                new PromptTemplateRegistry("classpath:prompts/", new DefaultResourceLoader()),
+                new ChatHistoryAssembler(contextRepository, messageRepository, new HeuristicTokenEstimator(), 1500, "", 40),
+                new ConversationSummarizer(contextRepository, messageRepository, transcriptService,
+                        new ExtractiveSummaryModel(1200), new HeuristicTokenEstimator(), moderationService, usageLedger,
+                        false, 2000, 600, 1),
+                new AnswerCache(true, 100, Duration.ofHours(1), 200, meterRegistry),
+                new SemanticAnswerCache(false, Path.of("unused"), 10, 100, 0.9f, Duration.ofDays(1), 200,
+                        16, 100, 64, new HashingEmbeddingProvider(64), meterRegistry),
+                usageLedger,
+                new LlmHedger(false, 95, Duration.ofSeconds(1), 0.05, 10, 512, 50, 4, false, meterRegistry),
+                new ModelRouter(true, "default-model", new String[]{"fast-model", "backup-model"},
+                        new String[]{"strong-model"}, 12, 40, 2, Duration.ofSeconds(10), "EARLY=150", meterRegistry),
+                new HeuristicTokenEstimator(),
+                executor);
+        ReflectionTestUtils.setField(service, "asyncTimeout", Duration.ofSeconds(5));
         when(chatClient.prompt()).thenReturn(requestSpec);
+        when(requestSpec.options(any(ChatOptions.class))).thenReturn(requestSpec);
         when(requestSpec.system(anyString())).thenReturn(requestSpec);
+        when(requestSpec.messages(anyList())).thenReturn(requestSpec);
         when(requestSpec.user(anyString())).thenReturn(requestSpec);
         when(requestSpec.call()).thenReturn(callSpec);
+        when(requestSpec.stream()).thenReturn(streamSpec);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
     }
 
     private ModerationResponse safeModeration() {
@@ -133,6 +205,36 @@ class AiChatServiceImplTest {
                 .isInstanceOf(RateLimitException.class);
     }
 
+    @Test
+    @DisplayName("chat: a failing primary model falls back to the next one, which is reported as the model")
+    void chat_primaryFails_fallsBackAndReportsModel() {
+        ChatMessageRequest req = new ChatMessageRequest("What is a cat?", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        ChatResponse unlabelled = ChatResponse.builder()
+                .generations(List.of(new Generation(new AssistantMessage("A furry pet."))))
+                .build();
+        when(callSpec.chatResponse()).thenThrow(new RuntimeException("timeout")).thenReturn(unlabelled);
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        ChatMessageResponse resp = service.chat(req, principal);
+
+        assertThat(resp.reply()).isEqualTo("A furry pet.");
+        assertThat(resp.model()).isEqualTo("backup-model");
+        ArgumentCaptor<ChatOptions> options = ArgumentCaptor.forClass(ChatOptions.class);
+        verify(requestSpec, times(2)).options(options.capture());
+        assertThat(options.getAllValues()).extracting(ChatOptions::getModel).containsExactly("fast-model", "backup-model");
+        assertThat(options.getAllValues()).extracting(ChatOptions::getMaxTokens).containsOnly(150);
+        // no usage in the response: charged the estimated prompt and reply instead of nothing
+        assertThat(resp.tokensUsed()).isPositive();
+        assertThat(meterRegistry.get(ChatStageMetrics.PROMPT_TOKENS_METRIC).summary().count()).isEqualTo(1);
+    }
+
     @Test
     @DisplayName("chat: flagged reply gets sanitized")
     void chat_flaggedReply_sanitized() {
@@ -174,5 +276,533 @@ class AiChatServiceImplTest {
         ChatMessageResponse resp = service.chat(req, principal);
         assertThat(resp.contextId()).isNotNull();
         verify(contextRepository).save(any(ChatContext.class));
+        verify(usageLedger).record("alice", resp.tokensUsed());
+    }
+
+    @Test
+    @DisplayName("chatAsync: gathers the streamed reply, moderates it and persists the turn")
+    void chatAsync_gathersStreamedReply() {
+        ChatMessageRequest req = new ChatMessageRequest("What is a cat?", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(streamSpec.chatResponse()).thenReturn(Flux.just(simpleResponse("A furry "), simpleResponse("pet.")));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        ChatMessageResponse resp = service.chatAsync(req, principal).orTimeout(5, TimeUnit.SECONDS).join();
+
+        assertThat(resp.reply()).isEqualTo("A furry pet.");
+        assertThat(resp.model()).isEqualTo("model");
+        assertThat(resp.tokensUsed()).isPositive();
+        verify(requestSpec, never()).call();
+        verify(messageRepository, times(2)).save(any(ChatMessage.class));
+        verify(usageLedger).record("alice", resp.tokensUsed());
+    }
+
+    @Test
+    @DisplayName("chatAsync: with the async executor full the turn fails with 503 and nothing runs on the caller")
+    void chatAsync_executorFull_failsWithoutCallerRuns() {
+        ExecutorService full = Executors.newSingleThreadExecutor();
+        full.shutdown();
+        ReflectionTestUtils.setField(service, "chatAsyncExecutor", full);
+        ChatMessageRequest req = new ChatMessageRequest("What is a cat?", null, Tone.FRIENDLY);
+
+        assertThatThrownBy(() -> service.chatAsync(req, principal).orTimeout(5, TimeUnit.SECONDS).join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(UpstreamUnavailableException.class)
+                .hasMessageContaining("Too many chats in progress");
+        verify(moderationClient, never()).call(any(ModerationPrompt.class));
+        verify(userRepository, never()).findByUsername(anyString());
+    }
+
+    @Test
+    @DisplayName("chatAsync: a reply that does not arrive in time fails with UpstreamUnavailableException")
+    void chatAsync_silentModel_timesOut() {
+        ReflectionTestUtils.setField(service, "asyncTimeout", Duration.ofMillis(200));
+        ChatMessageRequest req = new ChatMessageRequest("What is a cat?", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(streamSpec.chatResponse()).thenReturn(Flux.never());
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        assertThatThrownBy(() -> service.chatAsync(req, principal).orTimeout(5, TimeUnit.SECONDS).join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(UpstreamUnavailableException.class);
+        verify(usageLedger, never()).record(anyString(), anyInt());
+    }
+
+    @Test
+    @DisplayName("chatAsync: a turn that times out cancels its LLM call and records neither a reply nor usage")
+    void chatAsync_timedOut_recordsNothing() throws Exception {
+        ReflectionTestUtils.setField(service, "asyncTimeout", Duration.ofMillis(300));
+        ChatMessageRequest req = new ChatMessageRequest("What is a dog?", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenAnswer(inv -> {
+            Thread.sleep(200); // slow input moderation uses up most of the turn's time
+            return safeModeration();
+        });
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        // answers within the LLM call's own timeout, but after the turn's
+        when(streamSpec.chatResponse()).thenReturn(Flux.just(simpleResponse("Dogs bark."))
+                .delaySubscription(Duration.ofMillis(200))
+                .doOnCancel(() -> cancelled.set(true)));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        assertThatThrownBy(() -> service.chatAsync(req, principal).orTimeout(5, TimeUnit.SECONDS).join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(UpstreamUnavailableException.class);
+        Thread.sleep(500);
+
+        assertThat(cancelled).isTrue();
+        ArgumentCaptor<ChatMessage> saved = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(messageRepository).save(saved.capture());
+        assertThat(saved.getValue().getRole()).isEqualTo("USER");
+        verify(usageLedger, never()).record(anyString(), anyLong());
+
+        // nothing was cached either: asking again goes back to the LLM
+        service.chatAsync(req, principal).handle((r, e) -> r).orTimeout(5, TimeUnit.SECONDS).join();
+        verify(streamSpec, times(2)).chatResponse();
+    }
+
+    @Test
+    @DisplayName("chatStream: emits moderated segments as token events then a done event and persists the reply once")
+    void chatStream_emitsTokensThenDone() {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(streamSpec.chatResponse()).thenReturn(Flux.just(
+                simpleResponse("The sky "), simpleResponse("is blue. "), simpleResponse("Hello")));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        List<ChatStreamEvent> events = service.chatStream(req, principal).collectList().block();
+
+        assertThat(events).extracting(ChatStreamEvent::type)
+                .containsExactly(ChatStreamEvent.TOKEN, ChatStreamEvent.TOKEN, ChatStreamEvent.DONE);
+        assertThat(events).extracting(ChatStreamEvent::delta).containsExactly("The sky is blue.", " Hello", null);
+        assertThat(events.get(2).response().reply()).isEqualTo("The sky is blue. Hello");
+        assertThat(events.get(2).response().model()).isEqualTo("model");
+        verify(messageRepository, times(2)).save(any(ChatMessage.class));
+    }
+
+    @Test
+    @DisplayName("chatStream: a flagged segment cuts the stream, retracts sent text and persists the fallback")
+    void chatStream_flaggedSegment_retractsAndFallsBack() {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenAnswer(inv -> {
+            ModerationPrompt prompt = inv.getArgument(0);
+            return prompt.getInstructions().getText().contains("Second") ? flaggedModeration() : safeModeration();
+        });
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(streamSpec.chatResponse()).thenReturn(Flux.just(
+                simpleResponse("First sentence. "), simpleResponse("Second sentence! "),
+                simpleResponse("Third sentence. "), simpleResponse("Fourth")));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> inv.getArgument(0));
+        ArgumentCaptor<ChatMessage> saved = ArgumentCaptor.forClass(ChatMessage.class);
+        when(messageRepository.save(saved.capture())).thenAnswer(inv -> inv.getArgument(0));
+
+        List<ChatStreamEvent> events = service.chatStream(req, principal).collectList().block();
+
+        assertThat(events).extracting(ChatStreamEvent::type)
+                .containsExactly(ChatStreamEvent.TOKEN, ChatStreamEvent.RETRACT, ChatStreamEvent.DONE);
+        assertThat(events.get(0).delta()).isEqualTo("First sentence.");
+        assertThat(events.get(2).response().reply()).contains("Oops, that topic's a bit tricky");
+        assertThat(saved.getAllValues().get(1).getContent()).contains("Oops, that topic's a bit tricky");
+    }
+
+    @Test
+    @DisplayName("chatStream: assistant message is not persisted until the stream is consumed")
+    void chatStream_persistsReplyOnlyOnCompletion() {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(streamSpec.chatResponse()).thenReturn(Flux.just(simpleResponse("reply")));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        Flux<ChatStreamEvent> stream = service.chatStream(req, principal);
+
+        verify(messageRepository, times(1)).save(any(ChatMessage.class));
+        stream.blockLast();
+        verify(messageRepository, times(2)).save(any(ChatMessage.class));
+    }
+
+    @Test
+    @DisplayName("chatStream: upstream error surfaces as RateLimitException")
+    void chatStream_upstreamError_rateLimit() {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(streamSpec.chatResponse()).thenReturn(Flux.error(new RuntimeException("boom")));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        assertThatThrownBy(() -> service.chatStream(req, principal).blockLast())
+                .isInstanceOf(RateLimitException.class);
+    }
+
+    @Test
+    @DisplayName("chat: moderation, user lookup and transcript write run concurrently")
+    void chat_preprocessingBranchesRunConcurrently() {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        CountDownLatch allBranchesStarted = new CountDownLatch(3);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenAnswer(inv -> {
+            if (allBranchesStarted.getCount() > 0) {
+                allBranchesStarted.countDown();
+                allBranchesStarted.await(5, TimeUnit.SECONDS);
+            }
+            return safeModeration();
+        });
+        when(userRepository.findByUsername("alice")).thenAnswer(inv -> {
+            allBranchesStarted.countDown();
+            allBranchesStarted.await(5, TimeUnit.SECONDS);
+            return Optional.of(new User());
+        });
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            allBranchesStarted.countDown();
+            allBranchesStarted.await(5, TimeUnit.SECONDS);
+            return inv.getArgument(0);
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenReturn(simpleResponse("reply"));
+
+        long started = System.nanoTime();
+        service.chat(req, principal);
+
+        assertThat(allBranchesStarted.getCount()).isZero();
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started)).isLessThan(5);
+    }
+
+    @Test
+    @DisplayName("chat: per-stage timings are recorded")
+    void chat_recordsStageTimings() {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenReturn(simpleResponse("reply"));
+
+        service.chat(req, principal);
+
+        assertThat(meterRegistry.get(ChatStageMetrics.METRIC).timers())
+                .extracting(timer -> timer.getId().getTag("stage"))
+                .contains("prepare", "moderation_input", "user_lookup", "history",
+                        "open_turn", "llm", "moderation_output", "persist_reply");
+    }
+
+    @Test
+    @DisplayName("chat: system prompt is chosen by the user's age band and the requested tone")
+    void chat_systemPromptByAgeBandAndTone() {
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FORMAL);
+        User user = new User();
+        user.setAge(11);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenReturn(simpleResponse("reply"));
+
+        service.chat(req, principal);
+
+        ArgumentCaptor<String> system = ArgumentCaptor.forClass(String.class);
+        verify(requestSpec).system(system.capture());
+        assertThat(system.getValue()).contains("aged 10 to 12").contains("patient teacher");
+    }
+
+    @Test
+    @DisplayName("chat: earlier messages of the context are sent as history before the new message")
+    void chat_existingContext_sendsHistory() {
+        UUID contextId = UUID.randomUUID();
+        ChatContext ctx = new ChatContext();
+        ctx.setId(contextId);
+        ChatMessageRequest req = new ChatMessageRequest("and at night?", contextId, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.findByIdAndUsername(contextId, "alice")).thenReturn(Optional.of(ctx));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        LocalDateTime earlier = LocalDateTime.now().minusMinutes(1);
+        when(contextRepository.findSummary(contextId, "alice")).thenReturn(Optional.of(new ChatSummary(null, null, null)));
+        when(messageRepository.findHistoryBetween(eq(contextId), any(), any(), any(), any(), any())).thenReturn(List.of(
+                new ChatHistoryEntry(UUID.randomUUID(), "ASSISTANT", "Because of sunlight.", earlier.plusSeconds(1)),
+                new ChatHistoryEntry(UUID.randomUUID(), "USER", "Why is the sky blue?", earlier)));
+        when(callSpec.chatResponse()).thenReturn(simpleResponse("reply"));
+
+        service.chat(req, principal);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Message>> history = ArgumentCaptor.forClass(List.class);
+        verify(requestSpec).messages(history.capture());
+        assertThat(history.getValue()).extracting(Message::getText)
+                .containsExactly("Why is the sky blue?", "Because of sunlight.");
+        assertThat(history.getValue().get(1)).isInstanceOf(AssistantMessage.class);
+    }
+
+    @Test
+    @DisplayName("chat: another user's context is rejected like a missing one and left untouched")
+    void chat_foreignContext_rejected() {
+        UUID contextId = UUID.randomUUID();
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.findByIdAndUsername(contextId, "alice")).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> service.chat(new ChatMessageRequest("hi", contextId, Tone.FRIENDLY), principal))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Context not found");
+        verify(messageRepository, never()).save(any(ChatMessage.class));
+        verify(usageLedger, never()).record(anyString(), anyLong());
+    }
+
+    @Test
+    @DisplayName("chat: flagged input never reaches the LLM")
+    void chat_flaggedInput_skipsLlm() {
+        ChatMessageRequest req = new ChatMessageRequest("bad", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(flaggedModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+
+        assertThatThrownBy(() -> service.chat(req, principal))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(chatClient, never()).prompt();
+    }
+
+    @Test
+    @DisplayName("chat (speculative): LLM call starts before input moderation returns")
+    void chat_speculative_llmOverlapsModeration() {
+        ReflectionTestUtils.setField(service, "speculativeEnabled", true);
+        ChatMessageRequest req = new ChatMessageRequest("hi", null, Tone.FRIENDLY);
+        CountDownLatch llmStarted = new CountDownLatch(1);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenAnswer(inv -> {
+            ModerationPrompt prompt = inv.getArgument(0);
+            if ("hi".equals(prompt.getInstructions().getText())) {
+                assertThat(llmStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            }
+            return safeModeration();
+        });
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenAnswer(inv -> {
+            llmStarted.countDown();
+            return simpleResponse("reply");
+        });
+
+        ChatMessageResponse resp = service.chat(req, principal);
+
+        assertThat(resp.reply()).isEqualTo("reply");
+        assertThat(meterRegistry.counter(ChatStageMetrics.SPECULATION_METRIC, "outcome", "used").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("chat (speculative): flagged input discards the speculative reply and persists no answer")
+    void chat_speculative_flaggedInput_discardsReply() {
+        ReflectionTestUtils.setField(service, "speculativeEnabled", true);
+        ChatMessageRequest req = new ChatMessageRequest("bad", null, Tone.FRIENDLY);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(flaggedModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenReturn(simpleResponse("reply"));
+
+        assertThatThrownBy(() -> service.chat(req, principal))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        ArgumentCaptor<ChatMessage> saved = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(messageRepository, atMostOnce()).save(saved.capture());
+        assertThat(saved.getAllValues()).extracting(ChatMessage::getRole).doesNotContain("ASSISTANT");
+        assertThat(meterRegistry.counter(ChatStageMetrics.SPECULATION_METRIC, "outcome", "discarded").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("chat: a repeated first-turn question is answered from the cache and still persisted")
+    void chat_repeatedFirstTurn_servedFromCache() {
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenReturn(simpleResponse("Because of sunlight."));
+
+        ChatMessageResponse first = service.chat(new ChatMessageRequest("Why is the sky blue?", null, Tone.FRIENDLY), principal);
+        ChatMessageResponse second = service.chat(new ChatMessageRequest("why is the  sky blue", null, Tone.FRIENDLY), principal);
+
+        assertThat(second.reply()).isEqualTo(first.reply());
+        assertThat(second.tokensUsed()).isZero();
+        assertThat(second.model()).isEqualTo(AnswerCache.CACHED_MODEL_PREFIX + "model");
+        assertThat(second.contextId()).isNotEqualTo(first.contextId());
+        verify(callSpec, times(1)).chatResponse();
+        ArgumentCaptor<ChatMessage> saved = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(messageRepository, times(4)).save(saved.capture());
+        assertThat(saved.getAllValues()).extracting(ChatMessage::getRole).containsOnly("USER", "ASSISTANT");
+    }
+
+    @Test
+    @DisplayName("chat: follow-up turns and other tones are not answered from the cache")
+    void chat_followUpOrOtherTone_notCached() {
+        UUID contextId = UUID.randomUUID();
+        ChatContext ctx = new ChatContext();
+        ctx.setId(contextId);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext saved = inv.getArgument(0);
+            saved.setId(UUID.randomUUID());
+            return saved;
+        });
+        when(contextRepository.findByIdAndUsername(contextId, "alice")).thenReturn(Optional.of(ctx));
+        when(contextRepository.findSummary(contextId, "alice")).thenReturn(Optional.of(new ChatSummary(null, null, null)));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenReturn(simpleResponse("reply"));
+
+        service.chat(new ChatMessageRequest("hi", null, Tone.FRIENDLY), principal);
+        service.chat(new ChatMessageRequest("hi", null, Tone.FORMAL), principal);
+        ChatMessageResponse followUp = service.chat(new ChatMessageRequest("hi", contextId, Tone.FRIENDLY), principal);
+
+        assertThat(followUp.model()).isEqualTo("model");
+        verify(callSpec, times(3)).chatResponse();
+    }
+
+    @Test
+    @DisplayName("chatStream: a cached answer is streamed as a single token event without calling the LLM")
+    void chatStream_cachedAnswer_skipsLlm() {
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenReturn(simpleResponse("Because of sunlight."));
+        service.chat(new ChatMessageRequest("Why is the sky blue?", null, Tone.FRIENDLY), principal);
+
+        List<ChatStreamEvent> events = service.chatStream(
+                new ChatMessageRequest("Why is the sky blue?", null, Tone.FRIENDLY), principal).collectList().block();
+
+        assertThat(events).extracting(ChatStreamEvent::type).containsExactly(ChatStreamEvent.TOKEN, ChatStreamEvent.DONE);
+        assertThat(events.get(1).response().model()).startsWith(AnswerCache.CACHED_MODEL_PREFIX);
+        verify(requestSpec, never()).stream();
+    }
+
+    @Test
+    @DisplayName("chat: a reworded first-turn question is answered from the semantic cache")
+    void chat_rewordedFirstTurn_servedFromSemanticCache(@TempDir Path dir) throws Exception {
+        SemanticAnswerCache semanticCache = new SemanticAnswerCache(true, dir.resolve("cache.bin"), 100, 1024, 0.6f,
+                Duration.ofDays(1), 200, 8, 50, 32, new HashingEmbeddingProvider(256), meterRegistry);
+        ReflectionTestUtils.setField(service, "semanticCache", semanticCache);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenReturn(simpleResponse("Because of sunlight."));
+
+        try {
+            service.chat(new ChatMessageRequest("Why is the sky blue?", null, Tone.FRIENDLY), principal);
+            semanticCache.awaitWrites();
+            ChatMessageResponse second = service.chat(
+                    new ChatMessageRequest("why's the sky so blue", null, Tone.FRIENDLY), principal);
+
+            assertThat(second.reply()).isEqualTo("Because of sunlight.");
+            assertThat(second.model()).isEqualTo(AnswerCache.CACHED_MODEL_PREFIX + "model");
+            verify(callSpec, times(1)).chatResponse();
+        } finally {
+            semanticCache.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("chat: identical first turns in flight together share one LLM call but persist separately")
+    void chat_identicalFirstTurns_coalesced() throws Exception {
+        ReflectionTestUtils.setField(service, "coalescingEnabled", true);
+        CountDownLatch release = new CountDownLatch(1);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(callSpec.chatResponse()).thenAnswer(inv -> {
+            assertThat(release.await(5, TimeUnit.SECONDS)).isTrue();
+            return simpleResponse("Because of sunlight.");
+        });
+
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            var first = callers.submit(() -> service.chat(
+                    new ChatMessageRequest("Why is the sky blue?", null, Tone.FRIENDLY), principal));
+            var second = callers.submit(() -> service.chat(
+                    new ChatMessageRequest("why is the sky blue", null, Tone.FRIENDLY), principal));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (meterRegistry.counter(ChatStageMetrics.COALESCED_METRIC).count() < 1 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            ChatMessageResponse a = first.get(5, TimeUnit.SECONDS);
+            ChatMessageResponse b = second.get(5, TimeUnit.SECONDS);
+            assertThat(a.reply()).isEqualTo("Because of sunlight.").isEqualTo(b.reply());
+            assertThat(a.contextId()).isNotEqualTo(b.contextId());
+            assertThat(a.tokensUsed() == 0 || b.tokensUsed() == 0).isTrue();
+        } finally {
+            callers.shutdownNow();
+        }
+
+        verify(callSpec, times(1)).chatResponse();
+        verify(messageRepository, times(4)).save(any(ChatMessage.class));
+        assertThat(meterRegistry.counter(ChatStageMetrics.COALESCED_METRIC).count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("chatStream: an identical first turn joins the in-flight stream instead of starting another")
+    void chatStream_identicalFirstTurns_shareStream() {
+        ReflectionTestUtils.setField(service, "coalescingEnabled", true);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(safeModeration());
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(new User()));
+        when(streamSpec.chatResponse()).thenReturn(Flux.just(
+                simpleResponse("The sky "), simpleResponse("is blue. "), simpleResponse("Hello")));
+        when(contextRepository.save(any(ChatContext.class))).thenAnswer(inv -> {
+            ChatContext ctx = inv.getArgument(0);
+            ctx.setId(UUID.randomUUID());
+            return ctx;
+        });
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        Flux<ChatStreamEvent> leader = service.chatStream(new ChatMessageRequest("hi", null, Tone.FRIENDLY), principal);
+        Flux<ChatStreamEvent> follower = service.chatStream(new ChatMessageRequest("Hi!", null, Tone.FRIENDLY), principal);
+        List<ChatStreamEvent> leaderEvents = leader.collectList().block();
+        List<ChatStreamEvent> followerEvents = follower.collectList().block();
+
+        assertThat(followerEvents).extracting(ChatStreamEvent::delta)
+                .isEqualTo(leaderEvents.stream().map(ChatStreamEvent::delta).toList());
+        ChatMessageResponse followerDone = followerEvents.get(followerEvents.size() - 1).response();
+        assertThat(followerDone.reply()).isEqualTo("The sky is blue. Hello");
+        assertThat(followerDone.tokensUsed()).isZero();
+        verify(requestSpec, times(1)).stream();
+        assertThat(meterRegistry.counter(ChatStageMetrics.COALESCED_METRIC).count()).isEqualTo(1);
     }
 }
@@ -0,0 +1,54 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import uk.gegc.kidsgptbackend.dto.chat.Tone;
+import uk.gegc.kidsgptbackend.model.user.AgeBand;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Execution(ExecutionMode.CONCURRENT)
+class AnswerCacheTest {
+
+    private AnswerCache cache(boolean enabled) {
+        return new AnswerCache(enabled, 100, Duration.ofHours(1), 20, new SimpleMeterRegistry());
+    }
+
+    @Test
+    @DisplayName("normalize: case, whitespace and trailing punctuation are ignored")
+    void normalize_foldsTrivialDifferences() {
+        assertThat(AnswerCache.normalize("  Why is the   SKY blue?? ")).isEqualTo("why is the sky blue");
+        assertThat(AnswerCache.normalize("why is the sky blue")).isEqualTo("why is the sky blue");
+        assertThat(AnswerCache.normalize("Ｗｈｙ？")).isEqualTo("why");
+    }
+
+    @Test
+    @DisplayName("get: hits only for the same age band, tone and prompt version")
+    void get_scopedByBandToneAndVersion() {
+        AnswerCache cache = cache(true);
+        cache.put(cache.key("Hi!", AgeBand.MIDDLE, Tone.FRIENDLY, "v1"), "Hello", "model");
+
+        assertThat(cache.get(cache.key("hi", AgeBand.MIDDLE, Tone.FRIENDLY, "v1")))
+                .isEqualTo(new AnswerCache.CachedAnswer("Hello", "model"));
+        assertThat(cache.get(cache.key("hi", AgeBand.TEEN, Tone.FRIENDLY, "v1"))).isNull();
+        assertThat(cache.get(cache.key("hi", AgeBand.MIDDLE, Tone.FORMAL, "v1"))).isNull();
+        assertThat(cache.get(cache.key("hi", AgeBand.MIDDLE, Tone.FRIENDLY, "v2"))).isNull();
+    }
+
+    @Test
+    @DisplayName("key: long questions and a disabled cache are never cached")
+    void key_nullWhenNotCacheable() {
+        assertThat(cache(true).key("x".repeat(21), AgeBand.MIDDLE, Tone.FRIENDLY, "v1")).isNull();
+        AnswerCache disabled = cache(false);
+        AnswerCache.Key key = disabled.key("hi", AgeBand.MIDDLE, Tone.FRIENDLY, "v1");
+        disabled.put(key, "Hello", "model");
+
+        assertThat(key).isNull();
+        assertThat(disabled.get(key)).isNull();
+    }
+}
@@ -0,0 +1,107 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assumptions.assumeThat;
+
+@Execution(ExecutionMode.CONCURRENT)
+class BpeTokenizerTest {
+
+    /**
+     * Every single byte, then merges in rank order.
+     */
+    private static BpeTokenizer tokenizer(String... merges) throws IOException {
+        StringBuilder vocabulary = new StringBuilder();
+        Base64.Encoder encoder = Base64.getEncoder();
+        int rank = 0;
+        for (int b = 0; b < 256; b++) {
+            vocabulary.append(encoder.encodeToString(new byte[]{(byte) b})).append(' ').append(rank++).append('\n');
+        }
+        for (String merge : merges) {
+            vocabulary.append(encoder.encodeToString(merge.getBytes(StandardCharsets.UTF_8)))
+                    .append(' ').append(rank++).append('\n');
+        }
+        InputStream in = new ByteArrayInputStream(vocabulary.toString().getBytes(StandardCharsets.US_ASCII));
+        return BpeTokenizer.load(in, BpeTokenizer.Encoding.O200K_BASE, 64);
+    }
+
+    @Test
+    @DisplayName("count: merges the lowest-ranked pair first and never across pre-tokenizer chunks")
+    void count_mergesByRank() throws IOException {
+        BpeTokenizer tokenizer = tokenizer("he", "ll", "llo", " he");
+
+        // he|llo
+        assertThat(tokenizer.count("hello")).isEqualTo(2);
+        // he|llo + " he"|llo
+        assertThat(tokenizer.count("hello hello")).isEqualTo(4);
+        // "lo" was never a pair, so "l" and "o" stay apart
+        assertThat(tokenizer.count("lo")).isEqualTo(2);
+        assertThat(tokenizer.count("")).isZero();
+        assertThat(tokenizer.count(null)).isZero();
+    }
+
+    @Test
+    @DisplayName("count: a chunk that is itself in the vocabulary is one token; cached chunks count the same")
+    void count_wholeChunkAndCache() throws IOException {
+        BpeTokenizer tokenizer = tokenizer("he", "ll", "llo", "hello");
+
+        assertThat(tokenizer.count("hello")).isEqualTo(1);
+        for (int i = 0; i < 3; i++) {
+            assertThat(tokenizer.count("hello hello hello")).isEqualTo(1 + 2 * 2);
+        }
+        String longWord = "hello".repeat(10);
+        assertThat(tokenizer.count(longWord)).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("count: non-ASCII text is counted on its UTF-8 bytes")
+    void count_utf8Bytes() throws IOException {
+        BpeTokenizer tokenizer = tokenizer("é");
+
+        assertThat(tokenizer.count("é")).isEqualTo(1);
+        // ü has no merge: two bytes, two tokens; the emoji is four bytes
+        assertThat(tokenizer.count("ü")).isEqualTo(2);
+        assertThat(tokenizer.count("🦖")).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("encoding: follows the configured model family")
+    void encoding_forModel() {
+        assertThat(BpeTokenizer.Encoding.forModel("gpt-4o-mini")).isEqualTo(BpeTokenizer.Encoding.O200K_BASE);
+        assertThat(BpeTokenizer.Encoding.forModel("o3-mini")).isEqualTo(BpeTokenizer.Encoding.O200K_BASE);
+        assertThat(BpeTokenizer.Encoding.forModel("gpt-4-turbo")).isEqualTo(BpeTokenizer.Encoding.CL100K_BASE);
+        assertThat(BpeTokenizer.Encoding.forModel("gpt-3.5-turbo")).isEqualTo(BpeTokenizer.Encoding.CL100K_BASE);
+    }
+
+    @Test
+    @DisplayName("estimator: matches OpenAI's counts with the bundled vocabulary")
+    void estimator_bundledVocabulary() {
+        assumeThat(new DefaultResourceLoader().getResource("classpath:com/knuddels/jtokkit/o200k_base.tiktoken").exists())
+                .isTrue();
+        BpeTokenEstimator estimator = new BpeTokenEstimator("gpt-4o-mini", "", "", 1024, new DefaultResourceLoader());
+
+        assertThat(estimator.estimate("hello world")).isEqualTo(2);
+        assertThat(estimator.estimate("Why is the sky blue?")).isEqualTo(6);
+    }
+
+    @Test
+    @DisplayName("estimator: falls back to character counts when the vocabulary is missing")
+    void estimator_missingVocabularyFallsBack() {
+        BpeTokenEstimator estimator = new BpeTokenEstimator("gpt-4o-mini", "", "classpath:missing.tiktoken", 1024,
+                new DefaultResourceLoader());
+
+        assertThat(estimator.estimate("Why is the sky blue?"))
+                .isEqualTo(new HeuristicTokenEstimator().estimate("Why is the sky blue?"));
+    }
+}
@@ -0,0 +1,143 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.data.domain.Limit;
+import uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry;
+import uk.gegc.kidsgptbackend.model.chat.ChatSummary;
+import uk.gegc.kidsgptbackend.repository.chat.ChatContextRepository;
+import uk.gegc.kidsgptbackend.repository.chat.ChatMessageRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class ChatHistoryAssemblerTest {
+
+    @Mock
+    ChatContextRepository contextRepository;
+    @Mock
+    ChatMessageRepository messageRepository;
+
+    UUID contextId = UUID.randomUUID();
+    LocalDateTime now = LocalDateTime.now();
+    ChatSummary noSummary = new ChatSummary(null, null, null);
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        when(contextRepository.findSummary(contextId, "alice")).thenReturn(Optional.of(noSummary));
+    }
+
+    private ChatHistoryAssembler assembler(int budget, String modelBudgets, int maxMessages) {
+        return new ChatHistoryAssembler(contextRepository, messageRepository, new HeuristicTokenEstimator(),
+                budget, modelBudgets, maxMessages);
+    }
+
+    /** newest first; each message is 33 chars = 9 tokens + 4 overhead = 13 */
+    private List<ChatHistoryEntry> messages(int count) {
+        List<ChatHistoryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new ChatHistoryEntry(UUID.randomUUID(), i % 2 == 0 ? "ASSISTANT" : "USER",
+                    "message %02d padded to thirty-six c".formatted(count - i), now.minusSeconds(i + 1)));
+        }
+        return entries;
+    }
+
+    @Test
+    @DisplayName("recentHistory: keeps the newest messages that fit the budget, oldest first")
+    void recentHistory_packsNewestWithinBudget() {
+        when(messageRepository.findHistoryBetween(eq(contextId), any(), any(), eq(now), any(), any()))
+                .thenReturn(messages(5));
+
+        List<Message> history = assembler(40, "", 40).recentHistory("alice", contextId, now, "gpt-4o-mini");
+
+        assertThat(history).extracting(Message::getText).containsExactly(
+                "message 03 padded to thirty-six c",
+                "message 04 padded to thirty-six c",
+                "message 05 padded to thirty-six c");
+    }
+
+    @Test
+    @DisplayName("recentHistory: reads further keyset pages only while the budget is not used up")
+    void recentHistory_pagesWithKeyset() {
+        List<ChatHistoryEntry> all = messages(20);
+        List<ChatHistoryEntry> firstPage = all.subList(0, ChatHistoryAssembler.PAGE_SIZE);
+        ChatHistoryEntry lastOfFirst = firstPage.get(firstPage.size() - 1);
+        when(messageRepository.findHistoryBetween(eq(contextId), any(), any(), eq(now), any(), any()))
+                .thenReturn(firstPage);
+        when(messageRepository.findHistoryBetween(eq(contextId), any(), any(),
+                eq(lastOfFirst.createdAt()), eq(lastOfFirst.id()), any()))
+                .thenReturn(all.subList(ChatHistoryAssembler.PAGE_SIZE, 20));
+
+        List<Message> history = assembler(10_000, "", 40).recentHistory("alice", contextId, now, null);
+
+        assertThat(history).hasSize(20);
+        assertThat(history.get(0).getText()).startsWith("message 01");
+        verify(messageRepository, times(2)).findHistoryBetween(any(), any(), any(), any(), any(), any(Limit.class));
+    }
+
+    @Test
+    @DisplayName("recentHistory: stops after the message cap and never queries without a context")
+    void recentHistory_capsMessagesAndSkipsNewContexts() {
+        when(messageRepository.findHistoryBetween(any(), any(), any(), any(), any(), eq(Limit.of(3))))
+                .thenReturn(messages(3));
+        ChatHistoryAssembler assembler = assembler(10_000, "", 3);
+
+        assertThat(assembler.recentHistory("alice", contextId, now, null)).hasSize(3);
+        assertThat(assembler.recentHistory("alice", null, now, null)).isEmpty();
+        verify(messageRepository, times(1)).findHistoryBetween(any(), any(), any(), any(), any(), any(Limit.class));
+    }
+
+    @Test
+    @DisplayName("recentHistory: the summary comes first and only messages after it are read")
+    void recentHistory_summaryThenTail() {
+        LocalDateTime until = now.minusMinutes(5);
+        UUID untilId = UUID.randomUUID();
+        when(contextRepository.findSummary(contextId, "alice"))
+                .thenReturn(Optional.of(new ChatSummary("The child likes dinosaurs.", until, untilId)));
+        when(messageRepository.findHistoryBetween(eq(contextId), eq(until), eq(untilId), eq(now), any(), any()))
+                .thenReturn(messages(2));
+
+        List<Message> history = assembler(10_000, "", 40).recentHistory("alice", contextId, now, null);
+
+        assertThat(history).hasSize(3);
+        assertThat(history.get(0)).isInstanceOf(SystemMessage.class);
+        assertThat(history.get(0).getText()).endsWith("The child likes dinosaurs.");
+    }
+
+    @Test
+    @DisplayName("recentHistory: another user's context yields no history")
+    void recentHistory_foreignContext_empty() {
+        assertThat(assembler(10_000, "", 40).recentHistory("mallory", contextId, now, null)).isEmpty();
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    @DisplayName("budgetFor: per-model budgets override the default")
+    void budgetFor_perModel() {
+        ChatHistoryAssembler assembler = assembler(1500, "gpt-4o-mini = 3000, gpt-4o=6000", 40);
+
+        assertThat(assembler.budgetFor("gpt-4o-mini")).isEqualTo(3000);
+        assertThat(assembler.budgetFor("gpt-4o")).isEqualTo(6000);
+        assertThat(assembler.budgetFor("other")).isEqualTo(1500);
+        assertThatThrownBy(() -> ChatHistoryAssembler.parseBudgets("gpt-4o"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,180 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import uk.gegc.kidsgptbackend.model.chat.ChatHistoryEntry;
+import uk.gegc.kidsgptbackend.model.chat.ChatSummary;
+import uk.gegc.kidsgptbackend.repository.chat.ChatContextRepository;
+import uk.gegc.kidsgptbackend.repository.chat.ChatMessageRepository;
+import uk.gegc.kidsgptbackend.service.chat.ChatTranscriptService;
+import uk.gegc.kidsgptbackend.service.chat.SummaryModel;
+import uk.gegc.kidsgptbackend.service.moderation.ModerationService;
+import uk.gegc.kidsgptbackend.service.usage.UsageLedger;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class ConversationSummarizerTest {
+
+    @Mock
+    ChatContextRepository contextRepository;
+    @Mock
+    ChatMessageRepository messageRepository;
+    @Mock
+    ChatTranscriptService transcriptService;
+    @Mock
+    ModerationService moderationService;
+    @Mock
+    UsageLedger usageLedger;
+
+    UUID contextId = UUID.randomUUID();
+    LocalDateTime now = LocalDateTime.now();
+    ConversationSummarizer summarizer;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        when(contextRepository.findSummary(contextId, "alice"))
+                .thenReturn(Optional.of(new ChatSummary("Earlier.", null, null)));
+        when(moderationService.isSafe(anyString())).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (summarizer != null) {
+            summarizer.shutdown();
+        }
+    }
+
+    private ConversationSummarizer summarizer(SummaryModel model, int trigger, int keepRecent) {
+        summarizer = new ConversationSummarizer(contextRepository, messageRepository, transcriptService,
+                model, new HeuristicTokenEstimator(), moderationService, usageLedger, true, trigger, keepRecent, 1);
+        return summarizer;
+    }
+
+    /** oldest first; each message is 35 chars = 9 tokens + 4 overhead = 13 */
+    private List<ChatHistoryEntry> messages(int count) {
+        List<ChatHistoryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new ChatHistoryEntry(UUID.randomUUID(), i % 2 == 0 ? "USER" : "ASSISTANT",
+                    "Message %02d. Then more words follow.".formatted(i), now.plusSeconds(i)));
+        }
+        return entries;
+    }
+
+    @Test
+    @DisplayName("summarizeIfNeeded: below the trigger nothing is summarised")
+    void summarizeIfNeeded_belowTrigger_noop() {
+        when(messageRepository.findHistoryAfter(eq(contextId), any(), any(), any())).thenReturn(messages(3));
+
+        summarizer(new ExtractiveSummaryModel(1000), 100, 20).summarizeIfNeeded(contextId, "alice");
+
+        verifyNoInteractions(transcriptService);
+    }
+
+    @Test
+    @DisplayName("summarizeIfNeeded: folds all but the recent tail into the previous summary")
+    void summarizeIfNeeded_aboveTrigger_keepsRecentTail() {
+        List<ChatHistoryEntry> pending = messages(10);
+        when(messageRepository.findHistoryAfter(eq(contextId), any(), any(), any())).thenReturn(pending);
+
+        summarizer(new ExtractiveSummaryModel(1000), 100, 30).summarizeIfNeeded(contextId, "alice");
+
+        ChatHistoryEntry lastSummarised = pending.get(7); // the newest two (26 tokens) stay verbatim
+        verify(transcriptService).recordSummary(eq(contextId),
+                eq("Earlier. The child said: Message 00. KidsGPT said: Message 01. The child said: Message 02. "
+                        + "KidsGPT said: Message 03. The child said: Message 04. KidsGPT said: Message 05. "
+                        + "The child said: Message 06. KidsGPT said: Message 07."),
+                eq(lastSummarised.createdAt()), eq(lastSummarised.id()));
+        verifyNoInteractions(usageLedger);
+    }
+
+    @Test
+    @DisplayName("summarizeIfNeeded: the model's tokens are charged to the context's owner")
+    void summarizeIfNeeded_modelTokens_chargedToOwner() {
+        List<ChatHistoryEntry> pending = messages(10);
+        when(messageRepository.findHistoryAfter(eq(contextId), any(), any(), any())).thenReturn(pending);
+
+        summarizer((previous, messages) -> new SummaryModel.Summary("They talked about dinosaurs.", 240), 100, 30)
+                .summarizeIfNeeded(contextId, "alice");
+
+        verify(usageLedger).record("alice", 240);
+        verify(transcriptService).recordSummary(eq(contextId), eq("They talked about dinosaurs."), any(), any());
+    }
+
+    @Test
+    @DisplayName("summarizeIfNeeded: a flagged summary is dropped, the old one kept and the messages marked done")
+    void summarizeIfNeeded_flaggedSummary_keepsPrevious() {
+        List<ChatHistoryEntry> pending = messages(10);
+        when(messageRepository.findHistoryAfter(eq(contextId), any(), any(), any())).thenReturn(pending);
+        when(moderationService.isSafe("Something unsafe.")).thenReturn(false);
+
+        summarizer((previous, messages) -> new SummaryModel.Summary("Something unsafe.", 240), 100, 30)
+                .summarizeIfNeeded(contextId, "alice");
+
+        ChatHistoryEntry lastSummarised = pending.get(7);
+        verify(transcriptService).recordSummary(eq(contextId), eq("Earlier."),
+                eq(lastSummarised.createdAt()), eq(lastSummarised.id()));
+        verify(usageLedger).record("alice", 240);
+    }
+
+    @Test
+    @DisplayName("requestSummary: a turn on someone else's context neither summarises nor charges")
+    void requestSummary_foreignContext_noop() {
+        when(contextRepository.findSummary(contextId, "mallory")).thenReturn(Optional.empty());
+        ConversationSummarizer summarizer = summarizer(
+                (previous, messages) -> new SummaryModel.Summary("Mallory was here.", 240), 0, 0);
+
+        summarizer.requestSummary(contextId, "mallory");
+
+        verify(contextRepository, timeout(5000)).findSummary(contextId, "mallory");
+        verifyNoInteractions(messageRepository, transcriptService, usageLedger);
+    }
+
+    @Test
+    @DisplayName("requestSummary: requests for a context that is already running coalesce into one re-check")
+    void requestSummary_coalescesPerContext() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger checks = new AtomicInteger();
+        when(messageRepository.findHistoryAfter(eq(contextId), any(), any(), any())).thenAnswer(inv -> {
+            if (checks.incrementAndGet() == 1) {
+                running.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return List.of();
+        });
+        ConversationSummarizer summarizer = summarizer((previous, messages) -> new SummaryModel.Summary("", 0), 100, 20);
+
+        summarizer.requestSummary(contextId, "alice");
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 10; i++) {
+            summarizer.requestSummary(contextId, "alice");
+        }
+        release.countDown();
+
+        verify(messageRepository, timeout(5000).times(2)).findHistoryAfter(eq(contextId), any(), any(), any());
+        Thread.sleep(100);
+        assertThat(checks).hasValue(2);
+        verify(transcriptService, never()).recordSummary(any(), anyString(), any(), any());
+    }
+}
@@ -0,0 +1,96 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import uk.gegc.kidsgptbackend.service.chat.EmbeddingProvider;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Execution(ExecutionMode.CONCURRENT)
+class HnswGraphTest {
+
+    private static final int DIMENSIONS = 32;
+
+    private static float[][] randomUnitVectors(int n, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[n][DIMENSIONS];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+            EmbeddingProvider.normalize(vector);
+        }
+        return vectors;
+    }
+
+    private static HnswGraph.Vectors backedBy(float[][] data) {
+        return new HnswGraph.Vectors() {
+            @Override
+            public float similarity(int node, float[] query) {
+                float dot = 0;
+                for (int i = 0; i < DIMENSIONS; i++) {
+                    dot += data[node][i] * query[i];
+                }
+                return dot;
+            }
+
+            @Override
+            public float[] vector(int node) {
+                return data[node];
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("search: an empty graph finds nothing")
+    void search_empty() {
+        HnswGraph graph = new HnswGraph(backedBy(new float[0][]), 8, 50, 1);
+
+        assertThat(graph.search(new float[DIMENSIONS], 3, 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("search: stored vectors find themselves")
+    void search_exactVectorIsNearest() {
+        float[][] data = randomUnitVectors(500, 7);
+        HnswGraph graph = new HnswGraph(backedBy(data), 8, 50, 1);
+        for (int i = 0; i < data.length; i++) {
+            graph.add(i);
+        }
+
+        assertThat(graph.size()).isEqualTo(500);
+        for (int i = 0; i < data.length; i += 50) {
+            assertThat(graph.search(data[i], 1, 32).get(0).node()).isEqualTo(i);
+        }
+    }
+
+    @Test
+    @DisplayName("search: recall of the true nearest neighbour is high compared to brute force")
+    void search_recallAgainstBruteForce() {
+        float[][] data = randomUnitVectors(2000, 11);
+        HnswGraph.Vectors vectors = backedBy(data);
+        HnswGraph graph = new HnswGraph(vectors, 16, 100, 3);
+        for (int i = 0; i < data.length; i++) {
+            graph.add(i);
+        }
+
+        float[][] queries = randomUnitVectors(100, 13);
+        int found = 0;
+        for (float[] query : queries) {
+            int best = 0;
+            for (int i = 1; i < data.length; i++) {
+                if (vectors.similarity(i, query) > vectors.similarity(best, query)) {
+                    best = i;
+                }
+            }
+            if (graph.search(query, 1, 64).get(0).node() == best) {
+                found++;
+            }
+        }
+        assertThat(found).isGreaterThanOrEqualTo(90);
+    }
+}
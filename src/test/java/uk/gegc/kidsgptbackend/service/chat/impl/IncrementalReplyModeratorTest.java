@@ -0,0 +1,69 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import reactor.core.publisher.Flux;
+import uk.gegc.kidsgptbackend.service.moderation.ModerationService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Execution(ExecutionMode.CONCURRENT)
+class IncrementalReplyModeratorTest {
+
+    @Test
+    @DisplayName("Segmenter: cuts after a sentence end once the minimum length is buffered")
+    void segmenter_cutsAtSentenceEnd() {
+        IncrementalReplyModerator.Segmenter segmenter = new IncrementalReplyModerator.Segmenter(10, 100);
+
+        assertThat(segmenter.append("Hi. The sky ")).isEmpty();
+        assertThat(segmenter.append("is blue. It ")).containsExactly("Hi. The sky is blue.");
+        assertThat(segmenter.flush()).isEqualTo(" It ");
+        assertThat(segmenter.flush()).isNull();
+    }
+
+    @Test
+    @DisplayName("Segmenter: waits for what follows a trailing terminator (e.g. an ellipsis)")
+    void segmenter_trailingTerminator_waits() {
+        IncrementalReplyModerator.Segmenter segmenter = new IncrementalReplyModerator.Segmenter(5, 100);
+
+        assertThat(segmenter.append("Well, hmm.")).isEmpty();
+        assertThat(segmenter.append(".. ok then")).containsExactly("Well, hmm...");
+    }
+
+    @Test
+    @DisplayName("Segmenter: without sentence ends text is cut into windows at whitespace")
+    void segmenter_noSentenceEnd_cutsWindowAtWhitespace() {
+        IncrementalReplyModerator.Segmenter segmenter = new IncrementalReplyModerator.Segmenter(5, 12);
+
+        assertThat(segmenter.append("one two three four five"))
+                .containsExactly("one two ", "three four ");
+        assertThat(segmenter.flush()).isEqualTo("five");
+    }
+
+    @Test
+    @DisplayName("moderate: each segment is checked together with the one before it, in order")
+    void moderate_checksOverlappingWindowsInOrder() {
+        List<String> checked = Collections.synchronizedList(new ArrayList<>());
+        ModerationService moderation = text -> {
+            checked.add(text);
+            return !text.contains("bad");
+        };
+        IncrementalReplyModerator moderator = new IncrementalReplyModerator(moderation, 5, 100, 4);
+
+        List<IncrementalReplyModerator.Segment> segments = moderator
+                .moderate(Flux.just("Fine one. ", "Fine two. ", "bad three. ", "Fine four."))
+                .collectList().block();
+
+        assertThat(segments).extracting(IncrementalReplyModerator.Segment::text)
+                .containsExactly("Fine one.", " Fine two.", " bad three.", " Fine four.");
+        assertThat(segments).extracting(IncrementalReplyModerator.Segment::safe)
+                .containsExactly(true, true, false, false);
+        assertThat(checked).contains("Fine one. Fine two.", " Fine two. bad three.");
+    }
+}
@@ -0,0 +1,131 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Execution(ExecutionMode.CONCURRENT)
+class LlmHedgerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private LlmHedger hedger;
+
+    @AfterEach
+    void tearDown() {
+        if (hedger != null) {
+            hedger.shutdown();
+        }
+    }
+
+    private LlmHedger warmHedger(double budgetRatio, int budgetBurst) {
+        hedger = new LlmHedger(true, 90, Duration.ofMillis(50), budgetRatio, budgetBurst, 64, 32, 8, false, meterRegistry);
+        for (int i = 0; i < 32; i++) {
+            hedger.call(() -> "fast");
+        }
+        return hedger;
+    }
+
+    /**
+     * First invocation hangs until interrupted (counting the interrupt), later ones answer at once.
+     */
+    private static Supplier<String> slowThenFast(CountDownLatch interrupted) {
+        AtomicInteger calls = new AtomicInteger();
+        return () -> {
+            if (calls.getAndIncrement() == 0) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("cancelled");
+                }
+                return "primary";
+            }
+            return "hedge";
+        };
+    }
+
+    @Test
+    @DisplayName("call: no hedging until enough latencies have been seen, then the percentile (floored) is the delay")
+    void call_warmsUpBeforeHedging() {
+        hedger = new LlmHedger(true, 90, Duration.ofMillis(50), 0.05, 10, 64, 32, 8, false, meterRegistry);
+        for (int i = 0; i < 31; i++) {
+            hedger.call(() -> "fast");
+        }
+        assertThat(hedger.hedgeDelayNanos()).isEqualTo(-1);
+
+        hedger.call(() -> "fast");
+        assertThat(hedger.hedgeDelayNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    @DisplayName("call: a slow call is hedged, the hedge's answer is used and the slow call is cancelled")
+    void call_slowPrimary_hedgeWins() throws Exception {
+        LlmHedger hedger = warmHedger(0.05, 10);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        long started = System.nanoTime();
+        assertThat(hedger.call(slowThenFast(interrupted))).isEqualTo("hedge");
+
+        assertThat(System.nanoTime() - started).isLessThan(TimeUnit.SECONDS.toNanos(5));
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(meterRegistry.counter("kidsgpt.chat.hedges.fired").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("kidsgpt.chat.hedges.won").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("call: once the hedge budget is spent, slow calls are left to finish on their own")
+    void call_budgetExhausted_noHedge() {
+        LlmHedger hedger = warmHedger(0, 1);
+        hedger.call(slowThenFast(new CountDownLatch(1)));
+
+        AtomicInteger calls = new AtomicInteger();
+        String reply = hedger.call(() -> {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(150);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "primary";
+        });
+
+        assertThat(reply).isEqualTo("primary");
+        assertThat(calls).hasValue(1);
+        assertThat(meterRegistry.counter("kidsgpt.chat.hedges.fired").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("kidsgpt.chat.hedges.skipped").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("call: a failed primary with no hedge running fails the call")
+    void call_failure_propagates() {
+        LlmHedger hedger = warmHedger(0.05, 10);
+
+        assertThatThrownBy(() -> hedger.call(() -> {
+            throw new IllegalStateException("upstream 500");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("upstream 500");
+        assertThat(meterRegistry.counter("kidsgpt.chat.hedges.fired").count()).isZero();
+    }
+
+    @Test
+    @DisplayName("disabled: calls run directly on the caller's thread")
+    void disabled_runsInline() {
+        hedger = new LlmHedger(false, 90, Duration.ofMillis(50), 0.05, 10, 64, 32, 8, false, meterRegistry);
+        Thread caller = Thread.currentThread();
+
+        assertThat(hedger.call(() -> Thread.currentThread() == caller)).isTrue();
+        assertThat(hedger.hedgeDelayNanos()).isEqualTo(-1);
+    }
+}
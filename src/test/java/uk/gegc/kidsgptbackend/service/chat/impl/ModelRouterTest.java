@@ -0,0 +1,124 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import reactor.core.publisher.Flux;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+import uk.gegc.kidsgptbackend.model.user.AgeBand;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Execution(ExecutionMode.CONCURRENT)
+class ModelRouterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ModelRouter router(boolean enabled, Duration firstTokenTimeout) {
+        return new ModelRouter(enabled, "default-model", new String[]{"fast", " fast-backup "},
+                new String[]{"strong", "fast"}, 12, 40, 2, firstTokenTimeout, "EARLY=150, TEEN=600", meterRegistry);
+    }
+
+    @Test
+    @DisplayName("route: short factual questions from young children take the fast chain")
+    void route_simpleTurnIsFast() {
+        ModelRouter router = router(true, Duration.ofSeconds(10));
+
+        ModelRouter.Route route = router.route("What colour is a banana?", AgeBand.EARLY);
+
+        assertThat(route.tier()).isEqualTo(ModelRouter.Tier.FAST);
+        assertThat(route.models()).containsExactly("fast", "fast-backup");
+        assertThat(route.maxTokens()).isEqualTo(150);
+        assertThat(router.classify("Why is the sky blue?", AgeBand.MIDDLE)).isEqualTo(ModelRouter.Tier.FAST);
+        assertThat(meterRegistry.counter("kidsgpt.chat.routes", "tier", "fast").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("route: reasoning from older children, long messages and several questions take the strong chain")
+    void route_hardTurnIsStrong() {
+        ModelRouter router = router(true, Duration.ofSeconds(10));
+
+        ModelRouter.Route route = router.route("Why did the Roman Empire fall?", AgeBand.TEEN);
+        assertThat(route.primary()).isEqualTo("strong");
+        assertThat(route.maxTokens()).isEqualTo(600);
+        assertThat(router.classify("Can you help me solve 12 x 34 and show me all of the steps so I can check?",
+                AgeBand.PRETEEN)).isEqualTo(ModelRouter.Tier.STRONG);
+        assertThat(router.classify("I like dinosaurs ".repeat(15), AgeBand.MIDDLE)).isEqualTo(ModelRouter.Tier.STRONG);
+        assertThat(router.classify("Do you like poems? Can you write a poem about my dog?", AgeBand.TEEN))
+                .isEqualTo(ModelRouter.Tier.STRONG);
+        assertThat(ModelRouter.questionType("tell me about volcanoes")).isEqualTo(ModelRouter.QuestionType.OPEN);
+    }
+
+    @Test
+    @DisplayName("route: disabled, every turn uses the configured chat model")
+    void route_disabledUsesDefaultModel() {
+        ModelRouter router = router(false, Duration.ofSeconds(10));
+
+        assertThat(router.route("Why did the Roman Empire fall?", AgeBand.TEEN).models()).containsExactly("default-model");
+        assertThat(router.route("Tell me about volcanoes", AgeBand.MIDDLE).maxTokens()).isNull();
+    }
+
+    @Test
+    @DisplayName("call: a failed model falls back down the chain, but a guard refusal does not")
+    void call_fallsBackOnFailure() {
+        ModelRouter router = router(true, Duration.ofSeconds(10));
+        ModelRouter.Route route = router.route("What is a cat?", AgeBand.EARLY);
+        List<String> tried = new CopyOnWriteArrayList<>();
+
+        String answer = router.call(route, model -> {
+            tried.add(model);
+            if (model.equals("fast")) {
+                throw new IllegalStateException("500");
+            }
+            return "answered by " + model;
+        });
+
+        assertThat(answer).isEqualTo("answered by fast-backup");
+        assertThat(tried).containsExactly("fast", "fast-backup");
+        assertThat(meterRegistry.counter("kidsgpt.chat.model_fallbacks", "from", "fast", "to", "fast-backup").count())
+                .isEqualTo(1);
+
+        tried.clear();
+        assertThatThrownBy(() -> router.call(route, model -> {
+            tried.add(model);
+            throw new UpstreamUnavailableException("llm", "busy", 1);
+        })).isInstanceOf(UpstreamUnavailableException.class);
+        assertThat(tried).containsExactly("fast");
+
+        assertThatThrownBy(() -> router.call(route, model -> {
+            throw new IllegalStateException(model + " down");
+        })).hasMessage("fast-backup down");
+    }
+
+    @Test
+    @DisplayName("stream: falls back when a model fails or stays silent before its first chunk, not after")
+    void stream_fallsBackOnlyBeforeFirstChunk() {
+        ModelRouter router = router(true, Duration.ofMillis(100));
+        ModelRouter.Route route = router.route("What is a cat?", AgeBand.EARLY);
+
+        List<String> silent = router.stream(route, model -> model.equals("fast")
+                ? Flux.<String>never()
+                : Flux.just(model + ":a", model + ":b")).collectList().block(Duration.ofSeconds(5));
+        assertThat(silent).containsExactly("fast-backup:a", "fast-backup:b");
+
+        List<String> failed = router.stream(route, model -> model.equals("fast")
+                ? Flux.<String>error(new IllegalStateException("500"))
+                : Flux.just(model)).collectList().block(Duration.ofSeconds(5));
+        assertThat(failed).containsExactly("fast-backup");
+
+        List<String> received = new CopyOnWriteArrayList<>();
+        assertThatThrownBy(() -> router.stream(route, model -> Flux.just(model)
+                        .concatWith(Flux.error(new IllegalStateException("cut off"))))
+                .doOnNext(received::add)
+                .blockLast(Duration.ofSeconds(5)))
+                .hasMessage("cut off");
+        assertThat(received).containsExactly("fast");
+    }
+}
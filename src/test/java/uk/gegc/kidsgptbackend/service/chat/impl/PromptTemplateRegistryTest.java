@@ -0,0 +1,85 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.springframework.core.io.DefaultResourceLoader;
+import uk.gegc.kidsgptbackend.dto.chat.Tone;
+import uk.gegc.kidsgptbackend.model.user.AgeBand;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Execution(ExecutionMode.CONCURRENT)
+class PromptTemplateRegistryTest {
+
+    @Test
+    @DisplayName("systemPrompt: composes age band, base and tone sections from the bundled templates")
+    void systemPrompt_composesSections() {
+        PromptTemplateRegistry registry = new PromptTemplateRegistry("classpath:prompts/", new DefaultResourceLoader());
+
+        String prompt = registry.systemPrompt(AgeBand.PRETEEN, Tone.FUN);
+
+        assertThat(prompt).startsWith("You are talking to a child aged 10 to 12.");
+        assertThat(prompt).contains("You are KidsGPT");
+        assertThat(prompt).endsWith("You may use one fun comparison or a light joke.");
+        assertThat(registry.systemPrompt(AgeBand.PRETEEN, Tone.FUN)).isSameAs(prompt);
+        assertThat(registry.systemPrompt(AgeBand.EARLY, null)).contains("warm and encouraging");
+    }
+
+    @Test
+    @DisplayName("systemPrompt: missing band and tone files leave just the base template")
+    void systemPrompt_optionalSectionsMissing(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("base.txt"), "Base only.\n");
+        PromptTemplateRegistry registry = new PromptTemplateRegistry(dir.toUri().toString(), new DefaultResourceLoader());
+        try {
+            assertThat(registry.systemPrompt(AgeBand.TEEN, Tone.FORMAL)).isEqualTo("Base only.");
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("reload: edits to a watched directory are picked up and change the version")
+    void reload_watchedDirectory_picksUpEdits(@TempDir Path dir) throws Exception {
+        Files.createDirectories(dir.resolve("tone"));
+        Files.writeString(dir.resolve("base.txt"), "Base.");
+        Files.writeString(dir.resolve("tone/fun.txt"), "Be fun.");
+        PromptTemplateRegistry registry = new PromptTemplateRegistry(dir.toUri().toString(), new DefaultResourceLoader());
+        try {
+            String version = registry.version();
+            assertThat(registry.systemPrompt(AgeBand.MIDDLE, Tone.FUN)).isEqualTo("Base.\nBe fun.");
+
+            Files.writeString(dir.resolve("tone/fun.txt"), "Be silly.");
+
+            long deadline = System.currentTimeMillis() + 15_000;
+            while (!registry.systemPrompt(AgeBand.MIDDLE, Tone.FUN).endsWith("Be silly.")
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(registry.systemPrompt(AgeBand.MIDDLE, Tone.FUN)).isEqualTo("Base.\nBe silly.");
+            assertThat(registry.version()).isNotEqualTo(version);
+        } finally {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("reload: an unreadable base template keeps the previous prompts")
+    void reload_missingBase_keepsPrevious(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("base.txt"), "Base.");
+        PromptTemplateRegistry registry = new PromptTemplateRegistry(dir.toUri().toString(), new DefaultResourceLoader());
+        try {
+            Files.delete(dir.resolve("base.txt"));
+            registry.reload();
+
+            assertThat(registry.systemPrompt(AgeBand.MIDDLE, Tone.FRIENDLY)).isEqualTo("Base.");
+        } finally {
+            registry.shutdown();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package uk.gegc.kidsgptbackend.service.chat.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import uk.gegc.kidsgptbackend.dto.chat.Tone;
+import uk.gegc.kidsgptbackend.model.user.AgeBand;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Execution(ExecutionMode.CONCURRENT)
+class SemanticAnswerCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private SemanticAnswerCache open(int capacity) {
+        return new SemanticAnswerCache(true, dir.resolve("cache.bin"), capacity, 256, 0.6f, Duration.ofDays(1),
+                200, 8, 50, 32, new HashingEmbeddingProvider(256), new SimpleMeterRegistry());
+    }
+
+    private static SemanticAnswerCache.Query query(SemanticAnswerCache cache, String question, AgeBand band) {
+        return cache.query(cache.embed(question), band, Tone.FRIENDLY, "v1");
+    }
+
+    @Test
+    @DisplayName("embeddings: rewordings are closer to each other than to an unrelated question")
+    void embed_rewordingsAreSimilar() {
+        HashingEmbeddingProvider provider = new HashingEmbeddingProvider(256);
+        float[] a = provider.embed("Why is the sky blue?");
+        float[] b = provider.embed("why's the sky so blue");
+        float[] c = provider.embed("How many legs does a spider have");
+
+        assertThat(dot(a, a)).isCloseTo(1f, org.assertj.core.data.Offset.offset(1e-5f));
+        assertThat(dot(a, b)).isGreaterThan(0.6f).isGreaterThan(dot(a, c));
+    }
+
+    @Test
+    @DisplayName("get: similar question in the same age band hits; other bands and prompt versions miss")
+    void get_scopedByBandAndVersion() throws Exception {
+        SemanticAnswerCache cache = open(16);
+        try {
+            cache.put(query(cache, "Why is the sky blue?", AgeBand.MIDDLE), "Sunlight scatters.", "model");
+            cache.awaitWrites();
+
+            assertThat(cache.get(query(cache, "why's the sky so blue", AgeBand.MIDDLE)))
+                    .isEqualTo(new AnswerCache.CachedAnswer("Sunlight scatters.", "model"));
+            assertThat(cache.get(query(cache, "why's the sky so blue", AgeBand.TEEN))).isNull();
+            assertThat(cache.get(cache.query(cache.embed("why's the sky so blue"), AgeBand.MIDDLE, Tone.FRIENDLY, "v2")))
+                    .isNull();
+            assertThat(cache.get(query(cache, "How many legs does a spider have", AgeBand.MIDDLE))).isNull();
+        } finally {
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("embed: questions with personal details are not cacheable")
+    void embed_personalQuestion_notCacheable() throws Exception {
+        SemanticAnswerCache cache = open(16);
+        try {
+            assertThat(cache.embed("My name is Tom, why is the sky blue?")).isNull();
+            assertThat(cache.embed("I'm 7 and I want to know why the sky is blue")).isNull();
+            assertThat(cache.embed("why does my sister say the sky is blue")).isNull();
+            assertThat(cache.query(cache.embed("My name is Tom, why is the sky blue?"), AgeBand.MIDDLE,
+                    Tone.FRIENDLY, "v1")).isNull();
+            assertThat(cache.embed("Why is the sky blue?")).isNotNull();
+        } finally {
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("open: entries survive reopening the file")
+    void open_reloadsPersistedEntries() throws Exception {
+        SemanticAnswerCache cache = open(16);
+        cache.put(query(cache, "Why is the sky blue?", AgeBand.MIDDLE), "Sunlight scatters.", "model");
+        cache.awaitWrites();
+        cache.shutdown();
+
+        SemanticAnswerCache reopened = open(16);
+        try {
+            assertThat(reopened.size()).isEqualTo(1);
+            assertThat(reopened.get(query(reopened, "why is the sky blue", AgeBand.MIDDLE)))
+                    .extracting(AnswerCache.CachedAnswer::reply).isEqualTo("Sunlight scatters.");
+        } finally {
+            reopened.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("put: a full ring drops the oldest quarter and keeps the newest answers")
+    void put_evictsOldestWhenFull() throws Exception {
+        SemanticAnswerCache cache = open(8);
+        try {
+            for (int i = 0; i < 9; i++) {
+                cache.put(query(cache, "tell me fact number " + i, AgeBand.MIDDLE), "fact " + i, "model");
+            }
+            cache.awaitWrites();
+
+            assertThat(cache.size()).isEqualTo(7);
+            assertThat(cache.get(query(cache, "tell me fact number 8", AgeBand.MIDDLE)))
+                    .extracting(AnswerCache.CachedAnswer::reply).isEqualTo("fact 8");
+        } finally {
+            cache.shutdown();
+        }
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
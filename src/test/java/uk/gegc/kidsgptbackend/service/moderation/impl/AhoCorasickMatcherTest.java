@@ -0,0 +1,97 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.springframework.core.io.FileSystemResource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Execution(ExecutionMode.CONCURRENT)
+class AhoCorasickMatcherTest {
+
+    private final AhoCorasickMatcher matcher = AhoCorasickMatcher.compile(List.of(
+            "shit", "fuck*", "ass", "kill yourself"
+    ));
+
+    @Test
+    @DisplayName("findFirst: whole-word entries match regardless of case and punctuation")
+    void findFirst_wholeWord() {
+        assertThat(matcher.findFirst("Oh SHIT!")).isEqualTo("shit");
+        assertThat(matcher.findFirst("shit")).isEqualTo("shit");
+        assertThat(matcher.findFirst("hello there")).isNull();
+    }
+
+    @Test
+    @DisplayName("findFirst: whole-word entries do not match inside longer words")
+    void findFirst_noScunthorpe() {
+        assertThat(matcher.findFirst("my class has a bass drum")).isNull();
+        assertThat(matcher.findFirst("shitake mushrooms")).isNull();
+        assertThat(matcher.findFirst("you ass")).isEqualTo("ass");
+    }
+
+    @Test
+    @DisplayName("findFirst: prefix entries match any word they start")
+    void findFirst_prefixEntry() {
+        assertThat(matcher.findFirst("what the fucking hell")).isEqualTo("fuck*");
+        assertThat(matcher.findFirst("snafuck")).isNull();
+    }
+
+    @Test
+    @DisplayName("findFirst: leetspeak is folded before matching")
+    void findFirst_leetspeak() {
+        assertThat(matcher.findFirst("sh1t happens")).isEqualTo("shit");
+        assertThat(matcher.findFirst("@$$")).isEqualTo("ass");
+        assertThat(matcher.findFirst("f0ck")).isNull();
+    }
+
+    @Test
+    @DisplayName("findFirst: confusable letters, diacritics and zero-width characters are folded")
+    void findFirst_unicodeConfusables() {
+        assertThat(matcher.findFirst("\u0455hit")).isEqualTo("shit");     // Cyrillic dze
+        assertThat(matcher.findFirst("\u0430ss")).isEqualTo("ass");      // Cyrillic a
+        assertThat(matcher.findFirst("sh\u00EFt")).isEqualTo("shit");     // i with diaeresis
+        assertThat(matcher.findFirst("sh\u200Bit")).isEqualTo("shit");     // zero-width space
+        assertThat(matcher.findFirst("\uFF53\uFF48\uFF49\uFF54")).isEqualTo("shit"); // fullwidth
+    }
+
+    @Test
+    @DisplayName("findFirst: phrases match across collapsed separators")
+    void findFirst_phrase() {
+        assertThat(matcher.findFirst("just KILL   your-self")).isNull();
+        assertThat(matcher.findFirst("just kill ... yourself now")).isEqualTo("kill yourself");
+    }
+
+    @Test
+    @DisplayName("compile: empty list matches nothing, overlong entries are rejected")
+    void compile_edgeCases() {
+        assertThat(AhoCorasickMatcher.compile(List.of()).findFirst("anything")).isNull();
+        assertThatThrownBy(() -> AhoCorasickMatcher.compile(List.of("a".repeat(AhoCorasickMatcher.MAX_PATTERN_LENGTH + 1))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("BlocklistFilter: edits to a file-backed list are picked up without a restart")
+    void blocklistFilter_hotReload(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("blocklist.txt");
+        Files.writeString(file, "# comment\nshit\n");
+        BlocklistFilter filter = new BlocklistFilter(new FileSystemResource(file), new SimpleMeterRegistry());
+        assertThat(filter.findBlockedTerm("poop")).isEmpty();
+
+        Files.writeString(file, "shit\npoop\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(5)));
+        filter.reloadIfChanged();
+
+        assertThat(filter.findBlockedTerm("poop")).contains("poop");
+    }
+}
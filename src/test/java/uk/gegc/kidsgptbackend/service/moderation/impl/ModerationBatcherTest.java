@@ -0,0 +1,206 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import uk.gegc.kidsgptbackend.exception.ModerationServiceException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Execution(ExecutionMode.CONCURRENT)
+class ModerationBatcherTest {
+
+    SimpleMeterRegistry meterRegistry;
+    List<List<String>> calls;
+    ModerationBatcher batcher;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        calls = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    /**
+     * Flags every input containing "bad"; rejects the whole call with a 400 if any input
+     * contains "poison", and fails it with a 500 if any contains "outage".
+     */
+    private List<ModerationBatchClient.Verdict> upstream(List<String> inputs) {
+        calls.add(inputs);
+        if (inputs.stream().anyMatch(t -> t.contains("poison"))) {
+            throw HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "invalid input", null, null, null);
+        }
+        if (inputs.stream().anyMatch(t -> t.contains("outage"))) {
+            throw HttpServerErrorException.create(HttpStatus.INTERNAL_SERVER_ERROR, "boom", null, null, null);
+        }
+        return inputs.stream()
+                .map(t -> new ModerationBatchClient.Verdict(t.contains("bad"), t.contains("bad") ? List.of("harassment") : List.of()))
+                .toList();
+    }
+
+    @Test
+    @DisplayName("submit: requests arriving within the wait window share one upstream call")
+    void submit_concurrentRequests_sentAsOneBatch() throws Exception {
+        batcher = new ModerationBatcher(true, 32, 200, 2, 16, false, this::upstream, meterRegistry);
+        ExecutorService callers = Executors.newFixedThreadPool(10);
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<CompletableFuture<ModerationBatchClient.Verdict>>> submitted = IntStream.range(0, 10)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return batcher.submit(i == 3 ? "bad " + i : "ok " + i);
+                }, callers))
+                .toList();
+        start.countDown();
+
+        List<ModerationBatchClient.Verdict> verdicts = new ArrayList<>();
+        for (var f : submitted) {
+            verdicts.add(f.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        }
+        callers.shutdown();
+
+        assertThat(calls).hasSize(1);
+        assertThat(calls.get(0)).hasSize(10);
+        assertThat(verdicts).filteredOn(ModerationBatchClient.Verdict::flagged).hasSize(1);
+        assertThat(meterRegistry.get("moderation.batch.size").summary().max()).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("submit: a full batch is sent immediately without waiting for the window")
+    void submit_fullBatch_sentWithoutWaiting() throws Exception {
+        batcher = new ModerationBatcher(true, 2, 60_000, 1, 16, false, this::upstream, meterRegistry);
+
+        CompletableFuture<ModerationBatchClient.Verdict> first = batcher.submit("ok 1");
+        CompletableFuture<ModerationBatchClient.Verdict> second = batcher.submit("bad 2");
+
+        assertThat(first.get(1, TimeUnit.SECONDS).flagged()).isFalse();
+        assertThat(second.get(1, TimeUnit.SECONDS).flagged()).isTrue();
+        assertThat(calls).containsExactly(List.of("ok 1", "bad 2"));
+    }
+
+    @Test
+    @DisplayName("submit: a failing batch is retried per item so only the offending input fails")
+    void submit_batchFailure_isolatedPerItem() {
+        batcher = new ModerationBatcher(true, 3, 60_000, 2, 16, false, this::upstream, meterRegistry);
+
+        CompletableFuture<ModerationBatchClient.Verdict> ok = batcher.submit("ok");
+        CompletableFuture<ModerationBatchClient.Verdict> poison = batcher.submit("poison");
+        CompletableFuture<ModerationBatchClient.Verdict> bad = batcher.submit("bad");
+
+        assertThat(ok.orTimeout(5, TimeUnit.SECONDS).join().flagged()).isFalse();
+        assertThat(bad.orTimeout(5, TimeUnit.SECONDS).join().flagged()).isTrue();
+        assertThatThrownBy(() -> poison.orTimeout(5, TimeUnit.SECONDS).join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(ModerationServiceException.class);
+        assertThat(calls).hasSize(4);
+    }
+
+    @Test
+    @DisplayName("submit: in virtual-thread mode timed-out batches and per-item retries are sent on virtual threads")
+    void submit_virtualThreads_sendsOnVirtualThreads() {
+        batcher = new ModerationBatcher(true, 32, 20, 2, 16, true, inputs -> {
+            assertThat(Thread.currentThread().isVirtual()).isTrue();
+            return upstream(inputs);
+        }, meterRegistry);
+
+        CompletableFuture<ModerationBatchClient.Verdict> ok = batcher.submit("ok");
+        CompletableFuture<ModerationBatchClient.Verdict> poison = batcher.submit("poison");
+
+        assertThat(ok.orTimeout(5, TimeUnit.SECONDS).join().flagged()).isFalse();
+        assertThatThrownBy(() -> poison.orTimeout(5, TimeUnit.SECONDS).join())
+                .hasCauseInstanceOf(ModerationServiceException.class);
+        assertThat(calls).hasSize(3);
+    }
+
+    @Test
+    @DisplayName("submit: a batch failing for a reason other than its input fails whole, without per-item retries")
+    void submit_upstreamFailure_notRetriedPerItem() {
+        batcher = new ModerationBatcher(true, 3, 60_000, 2, 16, false, this::upstream, meterRegistry);
+
+        List<CompletableFuture<ModerationBatchClient.Verdict>> verdicts = List.of(
+                batcher.submit("ok"), batcher.submit("outage"), batcher.submit("bad"));
+
+        for (CompletableFuture<ModerationBatchClient.Verdict> verdict : verdicts) {
+            assertThatThrownBy(() -> verdict.orTimeout(5, TimeUnit.SECONDS).join())
+                    .hasCauseInstanceOf(ModerationServiceException.class);
+        }
+        assertThat(calls).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("submit: timed-out batches are sent on the sender pool, never on the dispatcher thread")
+    void submit_timedOutBatch_sentOffDispatcher() {
+        List<String> senders = Collections.synchronizedList(new ArrayList<>());
+        batcher = new ModerationBatcher(true, 32, 1, 2, 16, false, inputs -> {
+            senders.add(Thread.currentThread().getName());
+            return upstream(inputs);
+        }, meterRegistry);
+
+        CompletableFuture<ModerationBatchClient.Verdict> ok = batcher.submit("ok");
+        CompletableFuture<ModerationBatchClient.Verdict> poison = batcher.submit("poison");
+
+        assertThat(ok.orTimeout(5, TimeUnit.SECONDS).join().flagged()).isFalse();
+        assertThatThrownBy(() -> poison.orTimeout(5, TimeUnit.SECONDS).join())
+                .hasCauseInstanceOf(ModerationServiceException.class);
+        assertThat(senders).isNotEmpty().allMatch(name -> name.startsWith("moderation-send-"));
+    }
+
+    @Test
+    @DisplayName("submit: when the sender queue is full a timed-out batch fails fast as unavailable")
+    void submit_senderQueueFull_failsFast() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        batcher = new ModerationBatcher(true, 32, 1, 1, 1, false, inputs -> {
+            calls.add(inputs);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return inputs.stream().map(t -> new ModerationBatchClient.Verdict(false, List.of())).toList();
+        }, meterRegistry);
+
+        CompletableFuture<ModerationBatchClient.Verdict> sending = batcher.submit("one");
+        while (calls.isEmpty()) {
+            Thread.sleep(5);
+        }
+        CompletableFuture<ModerationBatchClient.Verdict> queued = batcher.submit("two");
+        Thread.sleep(100);
+        CompletableFuture<ModerationBatchClient.Verdict> rejected = batcher.submit("three");
+
+        assertThatThrownBy(() -> rejected.orTimeout(1, TimeUnit.SECONDS).join())
+                .hasCauseInstanceOf(UpstreamUnavailableException.class);
+        release.countDown();
+        assertThat(sending.orTimeout(5, TimeUnit.SECONDS).join().flagged()).isFalse();
+        assertThat(queued.orTimeout(5, TimeUnit.SECONDS).join().flagged()).isFalse();
+        assertThat(meterRegistry.counter("moderation.batch.rejected").count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,213 @@
+package uk.gegc.kidsgptbackend.service.moderation.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.ai.moderation.Moderation;
+import org.springframework.ai.moderation.ModerationModel;
+import org.springframework.ai.moderation.ModerationPrompt;
+import org.springframework.ai.moderation.ModerationResponse;
+import org.springframework.ai.moderation.ModerationResult;
+import org.springframework.core.io.ByteArrayResource;
+import uk.gegc.kidsgptbackend.exception.ModerationServiceException;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuardSettings;
+import uk.gegc.kidsgptbackend.service.resilience.impl.AdaptiveUpstreamGuard;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class ModerationServiceImplTest {
+
+    @Mock
+    ModerationModel moderationClient;
+    @Mock
+    ModerationBatchClient batchClient;
+
+    SimpleMeterRegistry meterRegistry;
+    UpstreamGuard guard;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        guard = new AdaptiveUpstreamGuard("moderation", new UpstreamGuardSettings(
+                true, 10, 1, 10, 2.0, 4, 2, 0.5, Duration.ofMinutes(1), 1), meterRegistry);
+    }
+
+    private ModerationServiceImpl service(boolean cacheFlagged) {
+        ModerationVerdictCache cache = new ModerationVerdictCache(
+                true, 100, 50, Duration.ofHours(1), cacheFlagged, Duration.ofMinutes(1), meterRegistry);
+        BlocklistFilter blocklist = new BlocklistFilter(
+                new ByteArrayResource("fuck*\nshit\n".getBytes(StandardCharsets.UTF_8)), meterRegistry);
+        return new ModerationServiceImpl(moderationClient, cache, blocklist,
+                new ModerationBatcher(false, 1, 1, 1, 16, false, batchClient, meterRegistry), guard, meterRegistry);
+    }
+
+    private ModerationResponse moderation(boolean flagged) {
+        Moderation mod = Moderation.builder()
+                .results(List.of(new ModerationResult.Builder().flagged(flagged).build()))
+                .build();
+        return new ModerationResponse(new org.springframework.ai.moderation.Generation(mod));
+    }
+
+    @Test
+    @DisplayName("isSafe: repeated text differing only in case and spacing is served from cache")
+    void isSafe_normalizedRepeat_hitsCache() {
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(moderation(false));
+        ModerationServiceImpl service = service(true);
+
+        assertThat(service.isSafe("Why is the sky  blue?")).isTrue();
+        assertThat(service.isSafe("  why is the SKY blue? ")).isTrue();
+
+        verify(moderationClient, times(1)).call(any(ModerationPrompt.class));
+        assertThat(meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("isSafe: flagged verdicts are not cached when their policy disables caching")
+    void isSafe_flaggedNotCached_whenDisabled() {
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(moderation(true));
+        ModerationServiceImpl service = service(false);
+
+        assertThat(service.isSafe("bad")).isFalse();
+        assertThat(service.isSafe("bad")).isFalse();
+
+        verify(moderationClient, times(2)).call(any(ModerationPrompt.class));
+    }
+
+    @Test
+    @DisplayName("isSafe: flagged verdicts are cached under their own policy")
+    void isSafe_flaggedCached_whenEnabled() {
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(moderation(true));
+        ModerationServiceImpl service = service(true);
+
+        assertThat(service.isSafe("bad")).isFalse();
+        assertThat(service.isSafe("bad")).isFalse();
+
+        verify(moderationClient, times(1)).call(any(ModerationPrompt.class));
+    }
+
+    @Test
+    @DisplayName("isSafe: texts longer than the cacheable limit always go upstream")
+    void isSafe_longText_bypassesCache() {
+        when(moderationClient.call(any(ModerationPrompt.class))).thenReturn(moderation(false));
+        ModerationServiceImpl service = service(true);
+        String longText = "a".repeat(51);
+
+        service.isSafe(longText);
+        service.isSafe(longText);
+
+        verify(moderationClient, times(2)).call(any(ModerationPrompt.class));
+    }
+
+    @Test
+    @DisplayName("isSafe: upstream failure is not cached and surfaces as ModerationServiceException")
+    void isSafe_upstreamFailure_throws() {
+        when(moderationClient.call(any(ModerationPrompt.class)))
+                .thenThrow(new RuntimeException("down"))
+                .thenReturn(moderation(false));
+        ModerationServiceImpl service = service(true);
+
+        assertThatThrownBy(() -> service.isSafe("hi")).isInstanceOf(ModerationServiceException.class);
+        assertThat(service.isSafe("hi")).isTrue();
+    }
+
+    @Test
+    @DisplayName("isSafe: blocklisted text is rejected locally without calling upstream")
+    void isSafe_blocklisted_neverCallsUpstream() {
+        ModerationServiceImpl service = service(true);
+
+        assertThat(service.isSafe("this is SH1T")).isFalse();
+
+        verify(moderationClient, never()).call(any(ModerationPrompt.class));
+        assertThat(meterRegistry.counter("moderation.blocklist.hits").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("isSafe: with batching enabled the verdict comes from the batch client")
+    void isSafe_batched_usesBatchClient() {
+        when(batchClient.moderate(any())).thenReturn(
+                List.of(new ModerationBatchClient.Verdict(true, List.of("violence"))));
+        ModerationVerdictCache cache = new ModerationVerdictCache(
+                true, 100, 50, Duration.ofHours(1), true, Duration.ofMinutes(1), meterRegistry);
+        BlocklistFilter blocklist = new BlocklistFilter(new ByteArrayResource(new byte[0]), meterRegistry);
+        ModerationBatcher batcher = new ModerationBatcher(true, 8, 1, 1, 16, false, batchClient, meterRegistry);
+        ModerationServiceImpl service = new ModerationServiceImpl(moderationClient, cache, blocklist, batcher, guard, meterRegistry);
+        try {
+            assertThat(service.isSafe("bad")).isFalse();
+            assertThat(service.isSafe("bad")).isFalse();
+        } finally {
+            batcher.shutdown();
+        }
+
+        verify(batchClient, times(1)).moderate(List.of("bad"));
+        verify(moderationClient, never()).call(any(ModerationPrompt.class));
+    }
+
+    @Test
+    @DisplayName("isSafe: identical texts checked concurrently share one upstream call")
+    void isSafe_concurrentIdentical_coalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(moderationClient.call(any(ModerationPrompt.class))).thenAnswer(inv -> {
+            assertThat(release.await(5, TimeUnit.SECONDS)).isTrue();
+            return moderation(false);
+        });
+        ModerationServiceImpl service = service(true);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Boolean>> verdicts = List.of(
+                    pool.submit(() -> service.isSafe("Why is the sky blue?")),
+                    pool.submit(() -> service.isSafe("why is the sky blue?")),
+                    pool.submit(() -> service.isSafe("Why is the sky blue?")));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (meterRegistry.counter("moderation.coalesced").count() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (Future<Boolean> verdict : verdicts) {
+                assertThat(verdict.get(5, TimeUnit.SECONDS)).isTrue();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        verify(moderationClient, times(1)).call(any(ModerationPrompt.class));
+        assertThat(meterRegistry.counter("moderation.coalesced").count()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("isSafe: once upstream keeps failing, checks are refused without calling it")
+    void isSafe_failingUpstream_opensCircuit() {
+        when(moderationClient.call(any(ModerationPrompt.class))).thenThrow(new RuntimeException("timeout"));
+        ModerationServiceImpl service = service(true);
+
+        assertThatThrownBy(() -> service.isSafe("one")).isInstanceOf(ModerationServiceException.class);
+        assertThatThrownBy(() -> service.isSafe("two")).isInstanceOf(ModerationServiceException.class);
+        assertThatThrownBy(() -> service.isSafe("three"))
+                .isInstanceOf(UpstreamUnavailableException.class)
+                .hasMessageContaining("moderation");
+
+        verify(moderationClient, times(2)).call(any(ModerationPrompt.class));
+        assertThat(guard.status().circuit()).isEqualTo("OPEN");
+    }
+}
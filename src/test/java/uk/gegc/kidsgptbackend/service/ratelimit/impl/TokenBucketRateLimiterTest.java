@@ -0,0 +1,139 @@
+package uk.gegc.kidsgptbackend.service.ratelimit.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import uk.gegc.kidsgptbackend.service.ratelimit.RateLimitDecision;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TokenBucketRateLimiterTest {
+
+    private static final List<SimpleGrantedAuthority> CHILD = List.of(new SimpleGrantedAuthority("ROLE_CHILD"));
+    private static final List<SimpleGrantedAuthority> PARENT = List.of(
+            new SimpleGrantedAuthority("ROLE_CHILD"), new SimpleGrantedAuthority("ROLE_PARENT"));
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private TokenBucketRateLimiter limiter(boolean enabled) {
+        return new TokenBucketRateLimiter(enabled, Duration.ofMinutes(1), 2,
+                Map.of("ROLE_CHILD", 3, "ROLE_PARENT", 6), Duration.ofMinutes(5), now::get, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("tryAcquire: the full limit may be used as a burst, then requests are rejected with Retry-After")
+    void tryAcquire_burstThenReject() {
+        TokenBucketRateLimiter limiter = limiter(true);
+
+        assertThat(limiter.tryAcquire("alice", CHILD).remaining()).isEqualTo(2);
+        assertThat(limiter.tryAcquire("alice", CHILD).remaining()).isEqualTo(1);
+        assertThat(limiter.tryAcquire("alice", CHILD).remaining()).isZero();
+        RateLimitDecision rejected = limiter.tryAcquire("alice", CHILD);
+
+        assertThat(rejected.allowed()).isFalse();
+        assertThat(rejected.limit()).isEqualTo(3);
+        assertThat(rejected.retryAfterSeconds()).isEqualTo(20);
+        assertThat(rejected.headers().getFirst("Retry-After")).isEqualTo("20");
+        assertThat(meterRegistry.counter("chat.rate_limit.rejected").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("tryAcquire: tokens refill at limit per period")
+    void tryAcquire_refills() {
+        TokenBucketRateLimiter limiter = limiter(true);
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire("alice", CHILD);
+        }
+        assertThat(limiter.tryAcquire("alice", CHILD).allowed()).isFalse();
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(20));
+        assertThat(limiter.tryAcquire("alice", CHILD).allowed()).isTrue();
+        assertThat(limiter.tryAcquire("alice", CHILD).allowed()).isFalse();
+    }
+
+    @Test
+    @DisplayName("tryAcquire: keys are independent and the highest role limit applies")
+    void tryAcquire_perKeyAndRole() {
+        TokenBucketRateLimiter limiter = limiter(true);
+
+        assertThat(limiter.tryAcquire("alice", CHILD).limit()).isEqualTo(3);
+        assertThat(limiter.tryAcquire("mum", PARENT).limit()).isEqualTo(6);
+        assertThat(limiter.tryAcquire("bob", List.of()).limit()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("tryAcquire: concurrent callers never get more than the limit")
+    void tryAcquire_concurrentCallersRespectLimit() throws Exception {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(true, Duration.ofHours(1), 100, Map.of(),
+                Duration.ofMinutes(5), now::get, meterRegistry);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> admitted = new java.util.ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                admitted.add(pool.submit(() -> {
+                    int count = 0;
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.tryAcquire("class", List.of()).allowed()) {
+                            count++;
+                        }
+                    }
+                    return count;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> count : admitted) {
+                total += count.get(5, TimeUnit.SECONDS);
+            }
+            assertThat(total).isEqualTo(100);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("evictIdle: only buckets that have been full for idle-after are dropped")
+    void evictIdle_dropsRefilledBuckets() {
+        TokenBucketRateLimiter limiter = limiter(true);
+        limiter.tryAcquire("alice", CHILD);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(350));
+        limiter.tryAcquire("bob", CHILD);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        limiter.evictIdle();
+
+        assertThat(limiter.size()).isEqualTo(1);
+        assertThat(limiter.tryAcquire("bob", CHILD).remaining()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("tryAcquire: disabled limiter admits everything without headers")
+    void tryAcquire_disabled() {
+        RateLimitDecision decision = limiter(false).tryAcquire("alice", CHILD);
+
+        assertThat(decision.allowed()).isTrue();
+        assertThat(decision.headers()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("parseLimits: rejects malformed entries")
+    void parseLimits_malformed() {
+        assertThat(TokenBucketRateLimiter.parseLimits(" ROLE_A=5 , ROLE_B=7")).containsEntry("ROLE_A", 5).containsEntry("ROLE_B", 7);
+        assertThatThrownBy(() -> TokenBucketRateLimiter.parseLimits("ROLE_A"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
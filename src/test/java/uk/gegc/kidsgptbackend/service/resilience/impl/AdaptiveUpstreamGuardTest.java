@@ -0,0 +1,210 @@
+package uk.gegc.kidsgptbackend.service.resilience.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import uk.gegc.kidsgptbackend.exception.UpstreamUnavailableException;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuardSettings;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamStatus;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Execution(ExecutionMode.CONCURRENT)
+class AdaptiveUpstreamGuardTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private AdaptiveUpstreamGuard guard(int initialLimit, int maxConcurrency) {
+        return new AdaptiveUpstreamGuard("llm", new UpstreamGuardSettings(true, initialLimit, 1, maxConcurrency,
+                2.0, 10, 4, 0.5, Duration.ofSeconds(30), 2), now::get, meterRegistry);
+    }
+
+    private String timed(long millis) {
+        now.addAndGet(millis * MS);
+        return "ok";
+    }
+
+    private String failing() {
+        throw new IllegalStateException("upstream 500");
+    }
+
+    @Test
+    @DisplayName("call: the circuit opens once failures reach the threshold and then fails fast")
+    void call_opensCircuitAndFailsFast() {
+        AdaptiveUpstreamGuard guard = guard(10, 10);
+        AtomicInteger attempts = new AtomicInteger();
+        guard.call(() -> timed(100));
+        guard.call(() -> timed(100));
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> guard.call(() -> {
+                attempts.incrementAndGet();
+                return failing();
+            })).isInstanceOf(IllegalStateException.class);
+        }
+
+        assertThatThrownBy(() -> guard.call(() -> {
+            attempts.incrementAndGet();
+            return "ok";
+        }))
+                .isInstanceOf(UpstreamUnavailableException.class)
+                .extracting(e -> ((UpstreamUnavailableException) e).getRetryAfterSeconds())
+                .isEqualTo(30L);
+        assertThat(attempts).hasValue(2);
+        UpstreamStatus status = guard.status();
+        assertThat(status.circuit()).isEqualTo("OPEN");
+        assertThat(status.shedding()).isTrue();
+        assertThat(meterRegistry.counter("upstream.rejected", "upstream", "llm", "reason", "circuit_open").count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("call: after the open period trial calls close the circuit, a failed trial reopens it")
+    void call_halfOpenTrials() {
+        AdaptiveUpstreamGuard guard = guard(10, 10);
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> guard.call(this::failing)).isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(guard.status().circuit()).isEqualTo("OPEN");
+
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertThatThrownBy(() -> guard.call(this::failing)).isInstanceOf(IllegalStateException.class);
+        assertThat(guard.status().circuit()).isEqualTo("OPEN");
+
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        guard.call(() -> timed(50));
+        assertThat(guard.status().circuit()).isEqualTo("HALF_OPEN");
+        guard.call(() -> timed(50));
+        assertThat(guard.status().circuit()).isEqualTo("CLOSED");
+    }
+
+    @Test
+    @DisplayName("call: calls beyond the concurrency limit are refused instead of queueing")
+    void call_limitRefusesExcess() throws Exception {
+        AdaptiveUpstreamGuard guard = guard(2, 2);
+        CountDownLatch entered = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = pool.submit(() -> guard.call(() -> block(entered, release)));
+            Future<String> second = pool.submit(() -> guard.call(() -> block(entered, release)));
+            assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+            assertThatThrownBy(() -> guard.call(() -> "ok"))
+                    .isInstanceOf(UpstreamUnavailableException.class)
+                    .hasMessageContaining("busy");
+            assertThat(guard.status().inFlight()).isEqualTo(2);
+
+            release.countDown();
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+            assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(guard.status().inFlight()).isZero();
+        assertThat(guard.call(() -> "ok")).isEqualTo("ok");
+    }
+
+    private static String block(CountDownLatch entered, CountDownLatch release) {
+        entered.countDown();
+        try {
+            assertThat(release.await(5, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return "ok";
+    }
+
+    @Test
+    @DisplayName("limit: grows while latency is steady and shrinks when latency climbs")
+    void limit_followsLatency() {
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(10, 1, 100, 2.0);
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(100 * MS, 10);
+        }
+        int grown = limit.limit();
+        assertThat(grown).isGreaterThan(10);
+
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(1_000 * MS, grown);
+        }
+        assertThat(limit.limit()).isLessThan(grown / 2);
+    }
+
+    @Test
+    @DisplayName("limit: an idle limit is not grown, and a failure cuts it multiplicatively")
+    void limit_appLimitedAndDrop() {
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(20, 1, 100, 2.0);
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(100 * MS, 1);
+        }
+        assertThat(limit.limit()).isEqualTo(20);
+
+        limit.onDrop();
+        assertThat(limit.limit()).isEqualTo(18);
+    }
+
+    @Test
+    @DisplayName("stream: holds a permit until the stream ends and releases it on cancel")
+    void stream_releasesOnCompletionAndCancel() {
+        AdaptiveUpstreamGuard guard = guard(1, 1);
+        Sinks.Many<String> sink = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> received = new CopyOnWriteArrayList<>();
+
+        Disposable subscription = guard.stream(sink::asFlux).subscribe(received::add);
+        assertThat(guard.status().inFlight()).isEqualTo(1);
+        assertThatThrownBy(() -> guard.call(() -> "ok")).isInstanceOf(UpstreamUnavailableException.class);
+        sink.tryEmitNext("a");
+        assertThat(received).containsExactly("a");
+        subscription.dispose();
+        assertThat(guard.status().inFlight()).isZero();
+
+        assertThat(guard.stream(() -> Flux.just("a", "b")).collectList().block()).containsExactly("a", "b");
+        assertThat(guard.status().inFlight()).isZero();
+    }
+
+    @Test
+    @DisplayName("stream: a refusal is signalled as an error, not thrown at assembly")
+    void stream_refusalIsErrorSignal() {
+        AdaptiveUpstreamGuard guard = guard(10, 10);
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> guard.stream(() -> Flux.<String>error(new IllegalStateException("500"))).blockLast())
+                    .isInstanceOf(IllegalStateException.class);
+        }
+
+        Flux<String> refused = guard.stream(() -> Flux.just("never"));
+        assertThatThrownBy(refused::blockLast).isInstanceOf(UpstreamUnavailableException.class);
+    }
+
+    @Test
+    @DisplayName("disabled: calls pass straight through")
+    void disabled_passesThrough() {
+        AdaptiveUpstreamGuard guard = new AdaptiveUpstreamGuard("llm", new UpstreamGuardSettings(false, 1, 1, 1,
+                2.0, 1, 1, 0.5, Duration.ofSeconds(30), 1), now::get, meterRegistry);
+        for (int i = 0; i < 5; i++) {
+            assertThatThrownBy(() -> guard.call(this::failing)).isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(guard.call(() -> "ok")).isEqualTo("ok");
+        assertThat(guard.status().shedding()).isFalse();
+    }
+}
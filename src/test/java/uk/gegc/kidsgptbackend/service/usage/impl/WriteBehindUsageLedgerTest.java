@@ -0,0 +1,232 @@
+package uk.gegc.kidsgptbackend.service.usage.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import uk.gegc.kidsgptbackend.exception.TokenBudgetExceededException;
+import uk.gegc.kidsgptbackend.model.usage.TokenUsage;
+import uk.gegc.kidsgptbackend.repository.usage.TokenUsageBatchRepository.UsageDelta;
+import uk.gegc.kidsgptbackend.repository.usage.TokenUsageRepository;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class WriteBehindUsageLedgerTest {
+
+    private static final List<SimpleGrantedAuthority> CHILD = List.of(new SimpleGrantedAuthority("ROLE_CHILD"));
+    private static final List<SimpleGrantedAuthority> PARENT = List.of(
+            new SimpleGrantedAuthority("ROLE_CHILD"), new SimpleGrantedAuthority("ROLE_PARENT"));
+    private static final LocalDate DAY = LocalDate.of(2025, 3, 1);
+
+    @Mock
+    TokenUsageRepository repository;
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(DAY.atTime(22, 0).toInstant(ZoneOffset.UTC));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        when(repository.findById(any())).thenReturn(Optional.empty());
+        when(repository.findByUsageDateAndUsernameIn(any(), anyCollection())).thenReturn(List.of());
+    }
+
+    private WriteBehindUsageLedger ledger(boolean enabled) {
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now.get();
+            }
+        };
+        return new WriteBehindUsageLedger(enabled, 1000, Map.of("ROLE_CHILD", 1000L, "ROLE_PARENT", 5000L),
+                repository, clock, meterRegistry);
+    }
+
+    private static TokenUsage stored(String username, LocalDate date, long tokens) {
+        TokenUsage usage = new TokenUsage();
+        usage.setUsername(username);
+        usage.setUsageDate(date);
+        usage.setTokens(tokens);
+        usage.setUpdatedAt(LocalDateTime.now());
+        return usage;
+    }
+
+    @Test
+    @DisplayName("record: usage is held in memory with no database writes until a flush")
+    void record_noWritesUntilFlush() {
+        WriteBehindUsageLedger ledger = ledger(true);
+        when(repository.findById(new TokenUsage.Key("alice", DAY)))
+                .thenReturn(Optional.of(stored("alice", DAY, 100)));
+
+        ledger.record("alice", 40);
+        ledger.record("alice", 60);
+
+        assertThat(ledger.usedToday("alice")).isEqualTo(200);
+        assertThat(ledger.usedToday("alice")).isEqualTo(200);
+        verify(repository, times(1)).findById(any());
+        verify(repository, never()).addUsage(anyList());
+    }
+
+    @Test
+    @DisplayName("flush: pending usage is written as one batch and the total stays the same")
+    @SuppressWarnings("unchecked")
+    void flush_writesOneBatch() {
+        WriteBehindUsageLedger ledger = ledger(true);
+        ledger.record("alice", 40);
+        ledger.record("alice", 60);
+        ledger.record("bob", 5);
+        when(repository.findByUsageDateAndUsernameIn(eq(DAY), anyCollection()))
+                .thenReturn(List.of(stored("alice", DAY, 100), stored("bob", DAY, 5)));
+
+        ledger.flush();
+
+        ArgumentCaptor<List<UsageDelta>> batch = ArgumentCaptor.forClass(List.class);
+        verify(repository).addUsage(batch.capture());
+        assertThat(batch.getValue()).containsExactlyInAnyOrder(
+                new UsageDelta("alice", DAY, 100, 2), new UsageDelta("bob", DAY, 5, 1));
+        assertThat(ledger.usedToday("alice")).isEqualTo(100);
+
+        ledger.flush();
+        verify(repository, times(1)).addUsage(anyList());
+    }
+
+    @Test
+    @DisplayName("flush: totals read back after a flush include usage recorded by other instances")
+    void flush_readsBackStoredTotals() {
+        WriteBehindUsageLedger ledger = ledger(true);
+        ledger.record("alice", 10);
+        when(repository.findByUsageDateAndUsernameIn(eq(DAY), anyCollection()))
+                .thenReturn(List.of(stored("alice", DAY, 700)));
+
+        ledger.flush();
+
+        assertThat(ledger.usedToday("alice")).isEqualTo(700);
+        verify(repository, never()).findById(any());
+    }
+
+    @Test
+    @DisplayName("flush: a failed write keeps the usage pending for the next flush")
+    @SuppressWarnings("unchecked")
+    void flush_failureRequeues() {
+        WriteBehindUsageLedger ledger = ledger(true);
+        ledger.record("alice", 30);
+        doThrow(new RuntimeException("db down")).doNothing().when(repository).addUsage(anyList());
+
+        ledger.flush();
+        assertThat(ledger.usedToday("alice")).isEqualTo(30);
+        assertThat(meterRegistry.counter("chat.usage.flush_failures").count()).isEqualTo(1);
+
+        ledger.flush();
+        ArgumentCaptor<List<UsageDelta>> batch = ArgumentCaptor.forClass(List.class);
+        verify(repository, times(2)).addUsage(batch.capture());
+        assertThat(batch.getAllValues().get(1)).containsExactly(new UsageDelta("alice", DAY, 30, 1));
+    }
+
+    @Test
+    @DisplayName("ensureWithinBudget: rejects once today's usage reaches the highest role budget")
+    void ensureWithinBudget_rejectsAtBudget() {
+        WriteBehindUsageLedger ledger = ledger(true);
+        ledger.record("alice", 999);
+        ledger.ensureWithinBudget("alice", CHILD);
+
+        ledger.record("alice", 1);
+        assertThatThrownBy(() -> ledger.ensureWithinBudget("alice", CHILD))
+                .isInstanceOf(TokenBudgetExceededException.class)
+                .extracting(e -> ((TokenBudgetExceededException) e).getRetryAfterSeconds())
+                .isEqualTo(2 * 3600L);
+        assertThat(meterRegistry.counter("chat.usage.budget_rejected").count()).isEqualTo(1);
+
+        ledger.record("bob", 1000);
+        ledger.ensureWithinBudget("bob", PARENT);
+    }
+
+    @Test
+    @DisplayName("flush: tallies from earlier days are written, then dropped once idle")
+    void flush_dropsEarlierDays() {
+        WriteBehindUsageLedger ledger = ledger(true);
+        ledger.record("alice", 900);
+        now.set(DAY.plusDays(1).atTime(0, 1).toInstant(ZoneOffset.UTC));
+
+        ledger.ensureWithinBudget("alice", CHILD);
+        ledger.flush();
+        verify(repository).addUsage(List.of(new UsageDelta("alice", DAY, 900, 1)));
+        assertThat(ledger.size()).isEqualTo(2);
+
+        ledger.flush();
+        assertThat(ledger.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("record: concurrent turns are all counted")
+    void record_concurrent() throws Exception {
+        WriteBehindUsageLedger ledger = ledger(true);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8_000; i++) {
+            pool.submit(() -> ledger.record("alice", 3));
+        }
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(ledger.usedToday("alice")).isEqualTo(24_000);
+    }
+
+    @Test
+    @DisplayName("disabled: nothing is recorded and no budget applies")
+    void disabled_noop() {
+        WriteBehindUsageLedger ledger = ledger(false);
+        ledger.record("alice", 10_000);
+
+        ledger.ensureWithinBudget("alice", CHILD);
+        ledger.flush();
+
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    @DisplayName("parseBudgets: reads role=tokens pairs and rejects malformed entries")
+    void parseBudgets() {
+        assertThat(WriteBehindUsageLedger.parseBudgets(" ROLE_PARENT=200000, ROLE_ADMIN=1000000 "))
+                .containsEntry("ROLE_PARENT", 200_000L)
+                .containsEntry("ROLE_ADMIN", 1_000_000L);
+        assertThat(WriteBehindUsageLedger.parseBudgets("")).isEmpty();
+        assertThatThrownBy(() -> WriteBehindUsageLedger.parseBudgets("ROLE_PARENT"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -8,6 +8,10 @@ import org.springframework.boot.actuate.health.HealthContributorRegistry;
 import org.springframework.boot.actuate.health.Status;
 import org.springframework.core.env.Environment;
 import org.springframework.test.util.ReflectionTestUtils;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamGuard;
+import uk.gegc.kidsgptbackend.service.resilience.UpstreamStatus;
+
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -17,6 +21,7 @@ class HealthAggregatorTest {
     private DbHealthIndicator       dbHealthIndicator;
     private Environment env;
     private SystemStatusService      service;
+    private UpstreamGuard            llmGuard;
 
     @BeforeEach
     void setUp() {
@@ -24,7 +29,11 @@ class HealthAggregatorTest {
         HealthContributorRegistry healthRegistry = mock(HealthContributorRegistry.class);
         env             = mock(Environment.class);
 
-        service = new SystemStatusService(healthRegistry, env);
+        llmGuard = mock(UpstreamGuard.class);
+        when(llmGuard.name()).thenReturn("llm");
+        when(llmGuard.status()).thenReturn(new UpstreamStatus("CLOSED", 20, 0, 64, 800, 0, false));
+
+        service = new SystemStatusService(healthRegistry, env, List.of(llmGuard));
         when(healthRegistry.getContributor("db")).thenReturn(dbHealthIndicator);
         when(env.getProperty("spring.ai.openai.api-key", "")).thenReturn("sk-test");        ReflectionTestUtils.setField(service, "commit", "abc");
         ReflectionTestUtils.setField(service, "buildTag", "test-tag");
@@ -45,4 +54,14 @@ class HealthAggregatorTest {
         assertEquals("DOWN", dto.getOverall());
         assertEquals("DOWN", dto.getComponents().get("db"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void openCircuitMeansOverallDegraded() {
+        when(dbHealthIndicator.health()).thenReturn(Health.up().build());
+        when(llmGuard.status()).thenReturn(new UpstreamStatus("OPEN", 2, 0, 64, 9000, 57, true));
+        SystemStatusDto dto = service.getStatus();
+        assertEquals("DEGRADED", dto.getOverall());
+        assertEquals("SHEDDING", dto.getComponents().get("llm"));
+        assertEquals("OPEN", dto.getUpstreams().get("llm").circuit());
+    }
+}